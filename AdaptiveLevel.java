@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.Deflater;
+
+// Picks how to compress each file from a sample of its first 64 KB, for the
+// adaptive mode: stored when the sample barely compresses, the fastest level
+// when the best one would not do much better, and the best one when it
+// would, unless the best one is slower than the speed budget. Files too
+// small to be worth deflating twice are stored if their bytes look random
+// (byte entropy misses repeated strings, so larger files are always
+// deflated) and get the configured level otherwise. Codecs without levels
+// only choose between storing and the configured level. One instance per
+// compression job, called from any of its threads.
+final class AdaptiveLevel {
+    static final int SAMPLE_SIZE = 64 * 1024;
+    // Smaller files are not deflated twice just to choose a level
+    private static final long MIN_SAMPLED_SIZE = 4 * SAMPLE_SIZE;
+    // Bits per byte above which data is taken to be compressed already
+    private static final double RANDOM_ENTROPY = 7.9;
+    // Percent the best level must save over the fastest to be worth it
+    private static final double MAX_LEVEL_GAIN = 3.0;
+
+    enum Choice {
+        STORED("stored"), FASTEST("fastest"), DEFAULT("default"), MAXIMUM("maximum");
+
+        private final String label;
+
+        Choice(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final int defaultLevel;
+    private final boolean levels;
+    private final double minSaving;
+    private final double minSpeed;
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(Choice.values().length);
+    private final ThreadLocal<byte[]> samples = ThreadLocal.withInitial(() -> new byte[SAMPLE_SIZE]);
+    private final ThreadLocal<byte[]> scratch =
+            ThreadLocal.withInitial(() -> new byte[SAMPLE_SIZE + SAMPLE_SIZE / 8 + 64]);
+
+    // minSaving in percent; minSpeed in MB/s, 0 for no limit.
+    AdaptiveLevel(int defaultLevel, boolean levels, double minSaving, double minSpeed) {
+        this.defaultLevel = defaultLevel;
+        this.levels = levels;
+        this.minSaving = minSaving;
+        this.minSpeed = minSpeed;
+    }
+
+    static AdaptiveLevel forOptions(CompressionOptions options) {
+        return options.isAdaptive()
+                ? new AdaptiveLevel(options.getLevel(), !Codec.FAST_NAME.equals(options.getMethod()),
+                        options.getMinSaving(), options.getMinSpeed())
+                : null;
+    }
+
+    Choice choose(File file, long size) throws IOException {
+        Choice choice = sample(file, size);
+        counts.incrementAndGet(choice.ordinal());
+        return choice;
+    }
+
+    // Deflater level for a choice other than STORED.
+    int levelFor(Choice choice) {
+        switch (choice) {
+            case FASTEST: return Deflater.BEST_SPEED;
+            case MAXIMUM: return Deflater.BEST_COMPRESSION;
+            default: return defaultLevel;
+        }
+    }
+
+    // "stored 3, fastest 10, default 41, maximum 2"
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Choice choice : Choice.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(choice).append(' ').append(counts.get(choice.ordinal()));
+        }
+        return sb.toString();
+    }
+
+    private Choice sample(File file, long size) throws IOException {
+        if (size == 0) {
+            return Choice.DEFAULT;
+        }
+        byte[] sample = samples.get();
+        int length = (int) Math.min(size, SAMPLE_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(sample, 0, length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("File changed while compressing: " + file);
+                }
+            }
+        }
+        if (size < MIN_SAMPLED_SIZE) {
+            return entropy(sample, length) >= RANDOM_ENTROPY ? Choice.STORED : Choice.DEFAULT;
+        }
+
+        int fast = deflate(sample, length, Deflater.BEST_SPEED);
+        if (100.0 * (length - fast) / length < minSaving) {
+            return Choice.STORED;
+        }
+        if (!levels) {
+            return Choice.DEFAULT;
+        }
+        long start = System.nanoTime();
+        int best = deflate(sample, length, Deflater.BEST_COMPRESSION);
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        boolean fastEnough = minSpeed <= 0 || length / 1e6 / seconds >= minSpeed;
+        return fastEnough && 100.0 * (fast - best) / fast >= MAX_LEVEL_GAIN ? Choice.MAXIMUM : Choice.FASTEST;
+    }
+
+    private int deflate(byte[] sample, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] out = scratch.get();
+            int total = 0;
+            while (!deflater.finished()) {
+                total += deflater.deflate(out);
+            }
+            return total;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Order-0 entropy in bits per byte.
+    static double entropy(byte[] data, int length) {
+        int[] freq = new int[256];
+        for (int i = 0; i < length; i++) {
+            freq[data[i] & 0xFF]++;
+        }
+        double bits = 0;
+        for (int f : freq) {
+            if (f > 0) {
+                double p = (double) f / length;
+                bits -= p * Math.log(p);
+            }
+        }
+        return bits / Math.log(2);
+    }
+}
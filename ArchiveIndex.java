@@ -0,0 +1,508 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// A saved copy of an archive's central directory, so listing an archive or
+// finding one entry in it does not read and parse the whole directory
+// again. Kept in a cache directory, one file per archive named by a hash of
+// its path, and rebuilt when the archive's length or modification time has
+// changed. The file holds a fixed-size record per entry in archive order,
+// the record numbers sorted by name for binary search, then the names,
+// extras and comments. Small files are read, larger ones mapped, and an
+// entry is only decoded when asked for. Records also hold where each
+// entry's data starts, so extraction seeks straight to it without reading
+// the local header first. The directory is pruned at most once a day:
+// indexes of archives that are gone or that have not been used for 30 days
+// are deleted, then the least recently used until the rest fit in 1 GB.
+final class ArchiveIndex {
+    static final String SUFFIX = ".idx";
+    // Its modification time is when the directory was last pruned
+    static final String PRUNED = ".pruned";
+    static final long PRUNE_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+    static final long MAX_BYTES = 1L << 30;
+
+    private static final int MAGIC = 0x5A494458;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48;
+    private static final int RECORD_SIZE = 64;
+    // Larger index files are mapped rather than read
+    private static final long MAP_SIZE = 1024 * 1024;
+    private static final byte[] NONE = new byte[0];
+
+    private final ByteBuffer data;
+    private final int count;
+    private final int volumes;
+    private final long centralStart;
+    private final String comment;
+    // Where the records, the sorted record numbers and the strings start
+    private final int records;
+    private final int sorted;
+    private final int strings;
+
+    private ArchiveIndex(ByteBuffer data) {
+        this.data = data;
+        this.centralStart = data.getLong(24);
+        this.volumes = data.getInt(32);
+        this.count = data.getInt(36);
+        int pathLength = data.getShort(44) & 0xFFFF;
+        int commentLength = data.getShort(46) & 0xFFFF;
+        this.comment = commentLength > 0 ? string(HEADER_SIZE + pathLength, commentLength) : null;
+        this.records = HEADER_SIZE + pathLength + commentLength;
+        this.sorted = records + count * RECORD_SIZE;
+        this.strings = sorted + count * 4;
+    }
+
+    // Under $XDG_CACHE_HOME, or ~/.cache without it.
+    static File defaultDirectory() {
+        String cache = System.getenv("XDG_CACHE_HOME");
+        File base = cache != null && !cache.isEmpty()
+                ? new File(cache) : new File(System.getProperty("user.home"), ".cache");
+        return new File(new File(base, "enhanced-zip-utility"), "index");
+    }
+
+    // The archive's index from directory or, when it is missing or out of
+    // date, one built from the central directory and saved there. Without a
+    // directory the index is built and kept in memory only.
+    static ArchiveIndex open(File archive, File directory) throws IOException {
+        File canonical = archive.getCanonicalFile();
+        // Taken before the directory is read: if the archive changes while
+        // it is, the saved index is already out of date and gets rebuilt
+        BasicFileAttributes attributes = Files.readAttributes(canonical.toPath(), BasicFileAttributes.class);
+        long length = attributes.size();
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        String path = canonical.getPath();
+
+        File file = directory != null ? new File(directory, nameFor(path)) : null;
+        if (file != null) {
+            ArchiveIndex index = load(file, path, length, modified);
+            if (index != null) {
+                touch(file);
+                return index;
+            }
+        }
+        byte[] bytes;
+        try (ZipArchiveReader reader = new ZipArchiveReader(canonical)) {
+            bytes = build(reader, path, length, modified);
+        }
+        if (file != null) {
+            save(file, bytes);
+            pruneIfDue(directory);
+        }
+        return new ArchiveIndex(ByteBuffer.wrap(bytes));
+    }
+
+    int size() {
+        return count;
+    }
+
+    int getVolumeCount() {
+        return volumes;
+    }
+
+    long getCentralStart() {
+        return centralStart;
+    }
+
+    String getComment() {
+        return comment;
+    }
+
+    // All entries in archive order, each decoded when it is fetched.
+    List<ZipArchiveReader.Entry> getEntries() {
+        return new EntryList();
+    }
+
+    ZipArchiveReader.Entry getEntry(int record) {
+        int at = records + record * RECORD_SIZE;
+        int offset = strings + data.getInt(at);
+        int nameLength = data.getShort(at + 4) & 0xFFFF;
+        int extraLength = data.getShort(at + 6) & 0xFFFF;
+        int commentLength = data.getShort(at + 8) & 0xFFFF;
+        return new ZipArchiveReader.Entry(
+                string(offset, nameLength),
+                data.getShort(at + 58) & 0xFFFF,
+                data.getShort(at + 10) & 0xFFFF,
+                data.getShort(at + 12) & 0xFFFF,
+                data.getInt(at + 14) & 0xFFFFFFFFL,
+                data.getInt(at + 18) & 0xFFFFFFFFL,
+                data.getLong(at + 26),
+                data.getLong(at + 34),
+                extraLength > 0 ? bytes(offset + nameLength, extraLength) : null,
+                commentLength > 0 ? string(offset + nameLength + extraLength, commentLength) : null,
+                data.getInt(at + 22),
+                data.getInt(at + 60),
+                data.getLong(at + 42),
+                data.getLong(at + 50));
+    }
+
+    // The first entry with this name, or null.
+    ZipArchiveReader.Entry find(String name) {
+        int i = lowerBound(name);
+        if (i < count) {
+            int record = sortedRecord(i);
+            if (name(record).equals(name)) {
+                return getEntry(record);
+            }
+        }
+        return null;
+    }
+
+    // The entries matching any of the names or globs, in archive order, as
+    // ZipEngine selects them: a name ending in '/' takes the directory with
+    // everything under it. Names are looked up in the sorted table; only
+    // globs have to look at every entry.
+    List<ZipArchiveReader.Entry> select(List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return getEntries();
+        }
+        BitSet chosen = new BitSet(count);
+        List<Pattern> globs = new ArrayList<>();
+        for (String pattern : patterns) {
+            String normalized = pattern.replace('\\', '/');
+            if (Glob.isGlob(normalized)) {
+                globs.add(Glob.compile(normalized, false));
+                continue;
+            }
+            boolean directory = normalized.endsWith("/");
+            for (int i = lowerBound(normalized); i < count; i++) {
+                int record = sortedRecord(i);
+                String name = name(record);
+                if (!(directory ? name.startsWith(normalized) : name.equals(normalized))) {
+                    break;
+                }
+                chosen.set(record);
+            }
+        }
+        if (!globs.isEmpty()) {
+            for (int record = 0; record < count; record++) {
+                if (chosen.get(record)) {
+                    continue;
+                }
+                String name = name(record);
+                for (Pattern glob : globs) {
+                    if (glob.matcher(name).matches()) {
+                        chosen.set(record);
+                        break;
+                    }
+                }
+            }
+        }
+        List<ZipArchiveReader.Entry> result = new ArrayList<>(chosen.cardinality());
+        for (int record = chosen.nextSetBit(0); record >= 0; record = chosen.nextSetBit(record + 1)) {
+            result.add(getEntry(record));
+        }
+        return result;
+    }
+
+    // Position in the sorted table of the first name not below name.
+    private int lowerBound(String name) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (name(sortedRecord(middle)).compareTo(name) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int sortedRecord(int i) {
+        return data.getInt(sorted + i * 4);
+    }
+
+    private String name(int record) {
+        int at = records + record * RECORD_SIZE;
+        return string(strings + data.getInt(at), data.getShort(at + 4) & 0xFFFF);
+    }
+
+    private String string(int offset, int length) {
+        return new String(bytes(offset, length), StandardCharsets.UTF_8);
+    }
+
+    // Absolute reads on a duplicate, so several threads can decode at once.
+    private byte[] bytes(int offset, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.get(result);
+        return result;
+    }
+
+    private static ArchiveIndex load(File file, String path, long length, long modified) {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            if (size >= MAP_SIZE) {
+                data = MappedFiles.map(channel, 0, size);
+            } else {
+                data = ByteBuffer.allocate((int) size);
+                while (data.hasRemaining()) {
+                    if (channel.read(data) < 0) {
+                        return null;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Missing or unreadable: built again from the archive
+            return null;
+        }
+
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                || data.getLong(8) != length || data.getLong(16) != modified) {
+            return null;
+        }
+        byte[] expected = path.getBytes(StandardCharsets.UTF_8);
+        int pathLength = data.getShort(44) & 0xFFFF;
+        long count = data.getInt(36) & 0xFFFFFFFFL;
+        long end = HEADER_SIZE + pathLength + (data.getShort(46) & 0xFFFF)
+                + count * (RECORD_SIZE + 4) + (data.getInt(40) & 0xFFFFFFFFL);
+        if (pathLength != expected.length || end != data.limit()) {
+            return null;
+        }
+        ArchiveIndex index = new ArchiveIndex(data);
+        return Arrays.equals(index.bytes(HEADER_SIZE, pathLength), expected) ? index : null;
+    }
+
+    private static byte[] build(ZipArchiveReader reader, String path, long length, long modified)
+            throws IOException {
+        List<ZipArchiveReader.Entry> entries = reader.getEntries();
+        int count = entries.size();
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        byte[] commentBytes = reader.getComment() != null
+                ? reader.getComment().getBytes(StandardCharsets.UTF_8) : NONE;
+        if (pathBytes.length > 0xFFFF || commentBytes.length > 0xFFFF) {
+            throw new IOException("Cannot index " + path + ": path or comment too long");
+        }
+
+        ByteBuffer records = ByteBuffer.allocate(count * RECORD_SIZE);
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            ZipArchiveReader.Entry entry = entries.get(i);
+            names[i] = entry.getName();
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            byte[] extra = entry.getExtra() != null ? entry.getExtra() : NONE;
+            byte[] comment = entry.getComment() != null
+                    ? entry.getComment().getBytes(StandardCharsets.UTF_8) : NONE;
+            records.putInt(strings.size())
+                    .putShort((short) name.length)
+                    .putShort((short) extra.length)
+                    .putShort((short) comment.length)
+                    .putShort((short) entry.getFlags())
+                    .putShort((short) entry.getMethod())
+                    .putInt((int) entry.getDosTime())
+                    .putInt((int) entry.getCrc())
+                    .putInt(entry.getDisk())
+                    .putLong(entry.getCompressedSize())
+                    .putLong(entry.getSize())
+                    .putLong(entry.getLocalHeaderOffset())
+                    .putLong(reader.dataOffset(entry))
+                    .putShort((short) entry.getMadeBy())
+                    .putInt(entry.getExternalAttributes());
+            strings.write(name);
+            strings.write(extra);
+            strings.write(comment);
+        }
+        // A stable sort, so the first of several entries with one name wins
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> names[a].compareTo(names[b]));
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + pathBytes.length + commentBytes.length
+                + count * (RECORD_SIZE + 4) + strings.size());
+        out.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(length)
+                .putLong(modified)
+                .putLong(reader.getCentralStart())
+                .putInt(reader.getVolumeCount())
+                .putInt(count)
+                .putInt(strings.size())
+                .putShort((short) pathBytes.length)
+                .putShort((short) commentBytes.length)
+                .put(pathBytes)
+                .put(commentBytes)
+                .put(records.array());
+        for (int record : order) {
+            out.putInt(record);
+        }
+        out.put(strings.toByteArray());
+        return out.array();
+    }
+
+    // Written under a temporary name and moved into place, so a reader in
+    // another process never sees half a file.
+    private static void save(File file, byte[] bytes) {
+        Path target = file.toPath();
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+            try {
+                Files.write(temp, bytes);
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // Only costs the next run another pass over the central directory
+        }
+    }
+
+    // A file's modification time is when it was last used; only moved on
+    // once a day, so a listing does not write to the directory every time.
+    private static void touch(File file) {
+        long now = System.currentTimeMillis();
+        if (now - file.lastModified() > PRUNE_INTERVAL) {
+            file.setLastModified(now);
+        }
+    }
+
+    private static void pruneIfDue(File directory) {
+        File stamp = new File(directory, PRUNED);
+        long now = System.currentTimeMillis();
+        if (now - stamp.lastModified() < PRUNE_INTERVAL) {
+            return;
+        }
+        // Claimed first, so other processes saving at the same time skip it
+        try {
+            if (!stamp.createNewFile() && !stamp.setLastModified(now)) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        prune(directory, now, MAX_AGE, MAX_BYTES);
+    }
+
+    // Deletes indexes whose archive no longer exists or that were last used
+    // more than maxAge ago, then the least recently used of the rest until
+    // they add up to maxBytes, and temporary files left by a failed save.
+    // A file another process has open stays readable where deleting it is
+    // allowed at all; where it is not, it is left for the next time.
+    static void prune(File directory, long now, long maxAge, long maxBytes) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> kept = new ArrayList<>();
+        long total = 0;
+        for (File file : files) {
+            String name = file.getName();
+            long used = file.lastModified();
+            if (name.endsWith(".tmp")) {
+                if (now - used > PRUNE_INTERVAL) {
+                    file.delete();
+                }
+            } else if (name.endsWith(SUFFIX)) {
+                String archive = archivePath(file);
+                if (now - used > maxAge || archive == null || !new File(archive).isFile()) {
+                    file.delete();
+                } else {
+                    kept.add(file);
+                    total += file.length();
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        long[] used = new long[kept.size()];
+        Integer[] order = new Integer[kept.size()];
+        for (int i = 0; i < order.length; i++) {
+            used[i] = kept.get(i).lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            File file = kept.get(order[i]);
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    // The archive path in an index file's header, or null if it is not one.
+    private static String archivePath(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return null;
+            }
+            ByteBuffer path = ByteBuffer.allocate(header.getShort(44) & 0xFFFF);
+            while (path.hasRemaining()) {
+                if (channel.read(path) < 0) {
+                    return null;
+                }
+            }
+            return new String(path.array(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String nameFor(String path) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(path.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class EntryList extends AbstractList<ZipArchiveReader.Entry> implements RandomAccess {
+        @Override
+        public ZipArchiveReader.Entry get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+            }
+            return getEntry(index);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+// How entry data is compressed. ParallelZipCompressor cuts files into chunks
+// that are compressed independently and concatenated, so a codec's chunks
+// must decode as one stream when joined: deflate chunks end on a sync flush
+// and only the last is final, zstd chunks are consecutive frames.
+//   deflate  zlib through java.util.zip.Deflater (method 8)
+//   fast     FastDeflater, a pure-Java LZ77 deflate encoder (method 8), so
+//            the archives still open everywhere
+//   zstd     Zstandard (method 93) when zstd-jni is on the classpath
+public abstract class Codec {
+    public static final int ZSTD = 93;
+
+    public static final String DEFLATE_NAME = "deflate";
+    public static final String FAST_NAME = "fast";
+    public static final String ZSTD_NAME = "zstd";
+
+    private static final String ZSTD_CLASS = "com.github.luben.zstd.Zstd";
+    private static final String ZSTD_INPUT_CLASS = "com.github.luben.zstd.ZstdInputStream";
+
+    // ZIP method written to the headers
+    public abstract int getMethod();
+
+    public abstract String getName();
+
+    // Compresses input[dictLength, dictLength + length). input[0, dictLength)
+    // is the data just before it in the file, for codecs that can use it as a
+    // dictionary. The result's array holds the output from 0 to its limit.
+    public abstract ByteBuffer compress(byte[] input, int dictLength, int length, boolean last)
+            throws IOException;
+
+    // Whether compress(ByteBuffer, ...) reads the buffer where it is, so a
+    // mapped file is compressed without a copy on the heap.
+    public boolean readsBuffers() {
+        return false;
+    }
+
+    // As above, over the bytes from input's position on; the position is
+    // left where it is.
+    public ByteBuffer compress(ByteBuffer input, int dictLength, int length, boolean last) throws IOException {
+        byte[] array = new byte[dictLength + length];
+        input.duplicate().get(array);
+        return compress(array, dictLength, length, last);
+    }
+
+    // "deflate", "fast" or "zstd". level is the deflate-style level, -1 to 9.
+    public static Codec forName(String name, int level) {
+        switch (name.toLowerCase()) {
+            case DEFLATE_NAME:
+                return new DeflateCodec(level);
+            case FAST_NAME:
+                return new FastCodec();
+            case ZSTD_NAME:
+                if (!isZstdAvailable()) {
+                    throw new IllegalArgumentException("zstd needs zstd-jni on the classpath");
+                }
+                return new ZstdCodec(level);
+            default:
+                throw new IllegalArgumentException("Unknown compression method: " + name);
+        }
+    }
+
+    public static boolean isZstdAvailable() {
+        return Zstd.COMPRESS != null;
+    }
+
+    // Whether decompress() can read entries of this method.
+    public static boolean canDecompress(int method) {
+        return method == ZipEntry.STORED || method == ZipEntry.DEFLATED
+                || (method == ZSTD && isZstdAvailable());
+    }
+
+    // Decoder for non-deflate methods; deflate is handled by the reader itself.
+    static InputStream decompress(int method, InputStream raw, String name) throws IOException {
+        if (method != ZSTD) {
+            throw new ZipException("Unsupported compression method " + method + " for " + name);
+        }
+        if (!isZstdAvailable()) {
+            throw new ZipException("Cannot read " + name + ": zstd entries need zstd-jni on the classpath");
+        }
+        try {
+            return (InputStream) Zstd.INPUT.newInstance(raw);
+        } catch (InvocationTargetException e) {
+            throw rethrow(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static IOException rethrow(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static class DeflateCodec extends Codec {
+        private final int level;
+        // One per thread, reset for each chunk: setting up a Deflater costs
+        // more than deflating a small file
+        private final ThreadLocal<Deflater> deflaters;
+
+        DeflateCodec(int level) {
+            this.level = level;
+            this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        }
+
+        @Override
+        public int getMethod() {
+            return ZipEntry.DEFLATED;
+        }
+
+        @Override
+        public String getName() {
+            return DEFLATE_NAME;
+        }
+
+        @Override
+        public ByteBuffer compress(byte[] input, int dictLength, int length, boolean last) {
+            Deflater deflater = deflaters.get();
+            try {
+                if (dictLength > 0) {
+                    deflater.setDictionary(input, 0, dictLength);
+                }
+                deflater.setInput(input, dictLength, length);
+                return deflate(deflater, length, last);
+            } finally {
+                deflater.reset();
+            }
+        }
+
+        @Override
+        public boolean readsBuffers() {
+            return MappedFiles.isAvailable();
+        }
+
+        @Override
+        public ByteBuffer compress(ByteBuffer input, int dictLength, int length, boolean last) throws IOException {
+            if (!readsBuffers()) {
+                return super.compress(input, dictLength, length, last);
+            }
+            Deflater deflater = deflaters.get();
+            try {
+                ByteBuffer view = input.duplicate();
+                if (dictLength > 0) {
+                    view.limit(view.position() + dictLength);
+                    MappedFiles.setDictionary(deflater, view.slice());
+                    view.position(view.limit());
+                }
+                view.limit(view.position() + length);
+                MappedFiles.setInput(deflater, view.slice());
+                return deflate(deflater, length, last);
+            } finally {
+                deflater.reset();
+            }
+        }
+
+        private static ByteBuffer deflate(Deflater deflater, int length, boolean last) {
+            byte[] out = new byte[length + length / 1000 + 64];
+            int outLength = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (outLength == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    outLength += deflater.deflate(out, outLength, out.length - outLength);
+                }
+            } else {
+                int n;
+                do {
+                    if (outLength == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    n = deflater.deflate(out, outLength, out.length - outLength, Deflater.SYNC_FLUSH);
+                    outLength += n;
+                } while (outLength == out.length || !deflater.needsInput());
+            }
+            return ByteBuffer.wrap(out, 0, outLength);
+        }
+    }
+
+    private static class FastCodec extends Codec {
+        // Reused for the same reason as deflate's: its tables are larger
+        // than a small file
+        private final ThreadLocal<FastDeflater> deflaters = ThreadLocal.withInitial(FastDeflater::new);
+
+        @Override
+        public int getMethod() {
+            return ZipEntry.DEFLATED;
+        }
+
+        @Override
+        public String getName() {
+            return FAST_NAME;
+        }
+
+        @Override
+        public ByteBuffer compress(byte[] input, int dictLength, int length, boolean last) {
+            return deflaters.get().compress(input, dictLength, length, last);
+        }
+    }
+
+    // Each chunk is a standalone frame; zstd readers decode consecutive
+    // frames as one stream. The earlier data is not used as a dictionary,
+    // which costs little with megabyte chunks.
+    private static class ZstdCodec extends Codec {
+        private final int level;
+
+        ZstdCodec(int level) {
+            // Deflate's 1-9 spread over zstd's 1-17; default is zstd's default
+            this.level = level < 0 ? 3 : Math.max(1, level * 2 - 1);
+        }
+
+        @Override
+        public int getMethod() {
+            return ZSTD;
+        }
+
+        @Override
+        public String getName() {
+            return ZSTD_NAME;
+        }
+
+        @Override
+        public ByteBuffer compress(byte[] input, int dictLength, int length, boolean last) throws IOException {
+            try {
+                long bound = (Long) Zstd.BOUND.invoke(null, (long) length);
+                byte[] out = new byte[(int) bound];
+                long n = (Long) Zstd.COMPRESS.invoke(null, out, 0, out.length, input, dictLength, length, level);
+                if ((Boolean) Zstd.IS_ERROR.invoke(null, n)) {
+                    throw new IOException("zstd: " + Zstd.ERROR_NAME.invoke(null, n));
+                }
+                return ByteBuffer.wrap(out, 0, (int) n);
+            } catch (InvocationTargetException e) {
+                throw rethrow(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    // zstd-jni, looked up once; everything is null when it is not present.
+    private static final class Zstd {
+        static final Method BOUND;
+        static final Method COMPRESS;
+        static final Method IS_ERROR;
+        static final Method ERROR_NAME;
+        static final Constructor<?> INPUT;
+
+        static {
+            Method bound = null;
+            Method compress = null;
+            Method isError = null;
+            Method errorName = null;
+            Constructor<?> input = null;
+            try {
+                Class<?> zstd = Class.forName(ZSTD_CLASS);
+                bound = zstd.getMethod("compressBound", long.class);
+                compress = zstd.getMethod("compressByteArray", byte[].class, int.class, int.class,
+                        byte[].class, int.class, int.class, int.class);
+                isError = zstd.getMethod("isError", long.class);
+                errorName = zstd.getMethod("getErrorName", long.class);
+                input = Class.forName(ZSTD_INPUT_CLASS).getConstructor(InputStream.class);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                compress = null;
+            }
+            BOUND = bound;
+            COMPRESS = compress;
+            IS_ERROR = isError;
+            ERROR_NAME = errorName;
+            INPUT = compress != null ? input : null;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Records the entries of an archive as they are finished, so a run that
+// stops part way (cancelled, killed, or cut off by a crash) can be resumed
+// without compressing them again. Kept next to the archive as
+// name.zip.journal: a header naming the source and options, then one record
+// per entry, each with its CRC and the archive length after the entry.
+// ZipArchiveWriter forces an entry's data to disk before recording it, so
+// after a crash every record refers to data that is there; a record torn by
+// the crash fails its CRC and ends the journal. Deleted once the archive is
+// finished.
+final class CompressionJournal implements Closeable {
+    static final String SUFFIX = ".journal";
+
+    private static final int MAGIC = 0x5A4A524E;
+    private static final int VERSION = 1;
+    private static final byte[] NO_PASSWORD = new byte[0];
+
+    // A finished entry: what the next run compares against its files, and
+    // the writer's own record of it, opaque here.
+    static final class Entry {
+        final String name;
+        final long size;
+        final long dosTime;
+        // Archive length up to the end of this entry
+        final long end;
+        final byte[] record;
+
+        Entry(String name, long size, long dosTime, long end, byte[] record) {
+            this.name = name;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.end = end;
+            this.record = record;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+
+    private CompressionJournal(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    static File fileFor(File archive) {
+        return new File(archive.getPath() + SUFFIX);
+    }
+
+    // Starts an empty journal, replacing any old one. options describes the
+    // source and settings a later run must share to resume.
+    static CompressionJournal create(File file, String options, String password) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(options);
+        // Salt and verifier, as in an AES entry, so a resume with another
+        // password can be refused without storing anything weaker
+        byte[] check = password != null && !password.isEmpty()
+                ? new WinZipAes.KeyDeriver(password).newEncryptor().header() : NO_PASSWORD;
+        out.writeShort(check.length);
+        out.write(check);
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            writeFully(channel, bytes.toByteArray());
+            channel.force(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new CompressionJournal(file, channel);
+    }
+
+    // The entries of an existing journal, up to the first damaged record; or
+    // null if there is none, or it was written for other options or another
+    // password.
+    static List<Entry> read(File file, String options, String password) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(options)) {
+                return null;
+            }
+            byte[] check = new byte[in.readUnsignedShort()];
+            in.readFully(check);
+            boolean encrypted = password != null && !password.isEmpty();
+            if (encrypted != (check.length > 0)
+                    || (encrypted && !WinZipAes.checkHeader(check, new WinZipAes.KeyDeriver(password)))) {
+                return null;
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // Header cut short or not a journal: nothing to resume from
+            return null;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        while (in.available() >= 4) {
+            int length = in.readInt();
+            if (length < 0 || length + 4 > in.available()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (in.readInt() != (int) crc.getValue()) {
+                break;
+            }
+            DataInputStream entry = new DataInputStream(new ByteArrayInputStream(body));
+            String name = entry.readUTF();
+            long size = entry.readLong();
+            long dosTime = entry.readLong();
+            long end = entry.readLong();
+            byte[] record = Arrays.copyOfRange(body, length - entry.available(), length);
+            entries.add(new Entry(name, size, dosTime, end, record));
+        }
+        return entries;
+    }
+
+    // Appends the entries and forces them to disk.
+    void append(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        for (Entry entry : entries) {
+            body.reset();
+            bodyOut.writeUTF(entry.name);
+            bodyOut.writeLong(entry.size);
+            bodyOut.writeLong(entry.dosTime);
+            bodyOut.writeLong(entry.end);
+            bodyOut.write(entry.record);
+            CRC32 crc = new CRC32();
+            crc.update(body.toByteArray());
+            out.writeInt(body.size());
+            body.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        }
+        writeFully(channel, bytes.toByteArray());
+        channel.force(false);
+    }
+
+    // Closes and removes the journal, once the archive no longer needs it.
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void writeFully(FileChannel channel, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+// Settings for ZipEngine.compress(), mirroring the GUI's Compression and
+// Advanced tabs.
+public class CompressionOptions {
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private String password;
+    private boolean includeSubdirs = true;
+    private boolean excludeHiddenFiles = true;
+    private String fileFilter = "";
+    private final List<String> includePatterns = new ArrayList<>();
+    private final List<String> excludePatterns = new ArrayList<>();
+    private long minSize;
+    private long maxSize = -1;
+    private long modifiedAfter;
+    private long modifiedBefore;
+    private long splitSize;
+    private boolean addTimestamp;
+    private boolean verifyAfter;
+    private int threads;
+    private boolean autoStore = true;
+    private boolean update;
+    private boolean compareChecksums;
+    private boolean deduplicate;
+    private boolean adaptive;
+    private boolean resumable;
+    private double minSaving = 5;
+    private double minSpeed;
+    private String method = Codec.DEFLATE_NAME;
+    private IoSettings io = new IoSettings();
+
+    public int getLevel() {
+        return level;
+    }
+
+    public CompressionOptions setLevel(int level) {
+        this.level = level;
+        return this;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public CompressionOptions setPassword(String password) {
+        this.password = password;
+        return this;
+    }
+
+    public boolean isIncludeSubdirs() {
+        return includeSubdirs;
+    }
+
+    public CompressionOptions setIncludeSubdirs(boolean includeSubdirs) {
+        this.includeSubdirs = includeSubdirs;
+        return this;
+    }
+
+    public boolean isExcludeHiddenFiles() {
+        return excludeHiddenFiles;
+    }
+
+    public CompressionOptions setExcludeHiddenFiles(boolean excludeHiddenFiles) {
+        this.excludeHiddenFiles = excludeHiddenFiles;
+        return this;
+    }
+
+    public String getFileFilter() {
+        return fileFilter;
+    }
+
+    public CompressionOptions setFileFilter(String fileFilter) {
+        this.fileFilter = fileFilter != null ? fileFilter.trim() : "";
+        return this;
+    }
+
+    // Patterns in EntryFilter syntax. Unlike the comma-separated file filter
+    // they may contain commas, which regexes sometimes need.
+    public List<String> getIncludePatterns() {
+        return includePatterns;
+    }
+
+    public CompressionOptions addIncludePattern(String pattern) {
+        includePatterns.add(pattern);
+        return this;
+    }
+
+    public List<String> getExcludePatterns() {
+        return excludePatterns;
+    }
+
+    public CompressionOptions addExcludePattern(String pattern) {
+        excludePatterns.add(pattern);
+        return this;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public CompressionOptions setMinSize(long minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    // Largest file size to include; -1 for no limit.
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public CompressionOptions setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    // Only files modified at or after this time (millis); 0 for no limit.
+    public long getModifiedAfter() {
+        return modifiedAfter;
+    }
+
+    public CompressionOptions setModifiedAfter(long modifiedAfter) {
+        this.modifiedAfter = modifiedAfter;
+        return this;
+    }
+
+    // Only files modified before this time (millis); 0 for no limit.
+    public long getModifiedBefore() {
+        return modifiedBefore;
+    }
+
+    public CompressionOptions setModifiedBefore(long modifiedBefore) {
+        this.modifiedBefore = modifiedBefore;
+        return this;
+    }
+
+    // Part size in bytes; 0 writes a single archive.
+    public long getSplitSize() {
+        return splitSize;
+    }
+
+    public CompressionOptions setSplitSize(long splitSize) {
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    public boolean isAddTimestamp() {
+        return addTimestamp;
+    }
+
+    public CompressionOptions setAddTimestamp(boolean addTimestamp) {
+        this.addTimestamp = addTimestamp;
+        return this;
+    }
+
+    public boolean isVerifyAfter() {
+        return verifyAfter;
+    }
+
+    public CompressionOptions setVerifyAfter(boolean verifyAfter) {
+        this.verifyAfter = verifyAfter;
+        return this;
+    }
+
+    // Worker threads for parallel compression; 0 uses the single-threaded path.
+    public int getThreads() {
+        return threads;
+    }
+
+    public CompressionOptions setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    // Store JPEG, MP4, .gz and other already-compressed files instead of
+    // deflating them again.
+    public boolean isAutoStore() {
+        return autoStore;
+    }
+
+    public CompressionOptions setAutoStore(boolean autoStore) {
+        this.autoStore = autoStore;
+        return this;
+    }
+
+    public IoSettings getIoSettings() {
+        return io;
+    }
+
+    public CompressionOptions setIoSettings(IoSettings io) {
+        this.io = io;
+        return this;
+    }
+
+    // Rebuild an existing destination archive, copying entries for unchanged
+    // files as they are and recompressing only new or modified files.
+    public boolean isUpdate() {
+        return update;
+    }
+
+    public CompressionOptions setUpdate(boolean update) {
+        this.update = update;
+        return this;
+    }
+
+    // In update mode, also compare each file's CRC-32 with the entry's
+    // instead of trusting size and modification time alone.
+    public boolean isCompareChecksums() {
+        return compareChecksums;
+    }
+
+    public CompressionOptions setCompareChecksums(boolean compareChecksums) {
+        this.compareChecksums = compareChecksums;
+        return this;
+    }
+
+    // Codec for compressed entries: "deflate", "fast" or "zstd".
+    public String getMethod() {
+        return method;
+    }
+
+    public CompressionOptions setMethod(String method) {
+        this.method = method;
+        return this;
+    }
+
+    // Compress each distinct file content once; files identical to one
+    // already in the archive reuse its compressed data.
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    public CompressionOptions setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    // Keep a journal next to the archive while writing it, so that a run
+    // that is cancelled or killed can be resumed by running it again.
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public CompressionOptions setResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    // Choose each file's level from a sample of it: stored, fastest or
+    // maximum (files too small to sample keep the level set above).
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public CompressionOptions setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    // Adaptive mode stores files whose sample deflates by less than this
+    // many percent.
+    public double getMinSaving() {
+        return minSaving;
+    }
+
+    public CompressionOptions setMinSaving(double minSaving) {
+        this.minSaving = minSaving;
+        return this;
+    }
+
+    // Adaptive mode only uses the maximum level where the sample deflated at
+    // it at least this fast, in MB/s per thread; 0 for no limit.
+    public double getMinSpeed() {
+        return minSpeed;
+    }
+
+    public CompressionOptions setMinSpeed(double minSpeed) {
+        this.minSpeed = minSpeed;
+        return this;
+    }
+}
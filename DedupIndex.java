@@ -0,0 +1,176 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// Finds files whose content is already in the archive being written. Only a
+// file that shares its size with an earlier one is hashed, and the earlier
+// one is hashed at that point too, so a tree of unique files is read once;
+// a hashed file that turns out to be new is read a second time to be
+// compressed. Hashing runs on the pool, and the lookups run in entry order
+// as the hashes come in, so an entry is only ever matched with an earlier
+// one. Contents are keyed by 128 bits of SHA-256. Everything lives in flat
+// primitive tables rather than maps of objects: about 40 bytes per distinct
+// size and per hashed file, so tens of millions of files fit comfortably.
+// find() is meant for the one thread that submits entries.
+final class DedupIndex {
+    private static final ThreadLocal<MessageDigest> SHA = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final Executor pool;
+    private final IoSettings io;
+    private final Table sizes = new Table();
+    // Only touched by the lookups, which run one after the other
+    private final Table digests = new Table();
+    // Per distinct size: the first file, until it is hashed, and its entry
+    private File[] firstFiles = new File[256];
+    private int[] firstEntries = new int[256];
+    private int firstCount;
+    // The latest lookup; each one waits for the one before
+    private CompletableFuture<Integer> lastLookup = CompletableFuture.completedFuture(-1);
+
+    DedupIndex(Executor pool, IoSettings io) {
+        this.pool = pool;
+        this.io = io;
+    }
+
+    // Returns null if no earlier file has this size, so file cannot be a
+    // duplicate. Otherwise hashes it on the pool, and the future gives the
+    // index of an earlier entry with the same content, or -1 after
+    // recording file as entry number index.
+    CompletableFuture<Integer> find(File file, long size, int index) {
+        if (size == 0) {
+            return null;
+        }
+        int slot = sizes.get(size, 0);
+        if (slot < 0) {
+            if (firstCount == firstFiles.length) {
+                firstFiles = Arrays.copyOf(firstFiles, firstCount * 2);
+                firstEntries = Arrays.copyOf(firstEntries, firstCount * 2);
+            }
+            firstFiles[firstCount] = file;
+            firstEntries[firstCount] = index;
+            sizes.put(size, 0, firstCount++);
+            return null;
+        }
+        if (firstFiles[slot] != null) {
+            int firstEntry = firstEntries[slot];
+            // Gone or changed since it was archived; just not a candidate
+            CompletableFuture<long[]> first = digest(firstFiles[slot], size).handle((digest, e) -> digest);
+            lastLookup = first.thenCombine(lastLookup, (digest, previous) -> {
+                if (digest != null && digests.get(digest[0], digest[1]) < 0) {
+                    digests.put(digest[0], digest[1], firstEntry);
+                }
+                return -1;
+            });
+            firstFiles[slot] = null;
+        }
+        lastLookup = digest(file, size).thenCombine(lastLookup, (digest, previous) -> {
+            int original = digests.get(digest[0], digest[1]);
+            if (original < 0) {
+                digests.put(digest[0], digest[1], index);
+            }
+            return original;
+        });
+        return lastLookup;
+    }
+
+    private CompletableFuture<long[]> digest(File file, long size) {
+        CompletableFuture<long[]> future = new CompletableFuture<>();
+        pool.execute(() -> {
+            try {
+                future.complete(digest(file, size, io.buffer()));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static long[] digest(File file, long size, ByteBuffer buffer) throws IOException {
+        MessageDigest sha = SHA.get();
+        sha.reset();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("File changed while compressing: " + file);
+                }
+                buffer.flip();
+                sha.update(buffer);
+                position += n;
+            }
+        } finally {
+            buffer.clear();
+        }
+        ByteBuffer hash = ByteBuffer.wrap(sha.digest());
+        return new long[] {hash.getLong(), hash.getLong()};
+    }
+
+    // Open addressing over a pair of long keys; values are >= 0.
+    private static final class Table {
+        private long[] keys1 = new long[1024];
+        private long[] keys2 = new long[1024];
+        // value + 1, or 0 for a free slot
+        private int[] values = new int[1024];
+        private int count;
+
+        int get(long key1, long key2) {
+            int mask = values.length - 1;
+            for (int i = hash(key1, key2) & mask; values[i] != 0; i = (i + 1) & mask) {
+                if (keys1[i] == key1 && keys2[i] == key2) {
+                    return values[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        // The key must not be present yet.
+        void put(long key1, long key2, int value) {
+            if (++count * 4 > values.length * 3) {
+                long[] old1 = keys1;
+                long[] old2 = keys2;
+                int[] oldValues = values;
+                keys1 = new long[oldValues.length * 2];
+                keys2 = new long[oldValues.length * 2];
+                values = new int[oldValues.length * 2];
+                for (int i = 0; i < oldValues.length; i++) {
+                    if (oldValues[i] != 0) {
+                        insert(old1[i], old2[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key1, key2, value + 1);
+        }
+
+        private void insert(long key1, long key2, int stored) {
+            int mask = values.length - 1;
+            int i = hash(key1, key2) & mask;
+            while (values[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys1[i] = key1;
+            keys2[i] = key2;
+            values[i] = stored;
+        }
+
+        private static int hash(long key1, long key2) {
+            long h = (key1 ^ (key2 * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -2,19 +2,32 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 import javax.swing.filechooser.FileSystemView;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
 import java.nio.file.*;
 import java.text.DecimalFormat;
-import java.util.Enumeration;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.*;
 
 public class EnhancedZipUtility extends JFrame {
+    private static final int MAX_LOG_LINES = 1000;
+    private static final int LOG_REFRESH_MS = 200;
+    private static final int MAX_QUEUED_JOBS = 32;
+    
     private JTextField sourceField;
     private JTextField destinationField;
     private JButton browseSourceBtn;
@@ -27,6 +40,7 @@ public class EnhancedZipUtility extends JFrame {
     private JCheckBox encryptCheckbox;
     private JPasswordField passwordField;
     private JComboBox<String> compressionLevel;
+    private JComboBox<String> methodCombo;
     private JLabel statusLabel;
     private JLabel sizeBeforeLabel;
     private JLabel sizeAfterLabel;
@@ -38,7 +52,22 @@ public class EnhancedZipUtility extends JFrame {
     private JTextField fileFilterField;
     private JCheckBox addTimestampCheckbox;
     private JCheckBox verifyAfterCheckbox;
+    private JCheckBox parallelCheckbox;
+    private JTextField threadsField;
+    private JCheckBox saveLogCheckbox;
+    private JCheckBox autoStoreCheckbox;
+    private JCheckBox updateCheckbox;
+    private JCheckBox resumableCheckbox;
+    private JComboBox<JobScheduler.Priority> priorityCombo;
+    private JTextField dailyField;
+    private JobTableModel jobModel;
+    private JTable jobTable;
     private ScheduledExecutorService executor;
+    private JobScheduler scheduler;
+    private final List<ScheduledFuture<?>> schedules = new ArrayList<>();
+    // The job whose progress the bar shows: the one that started last
+    private volatile JobScheduler.Job foreground;
+    private final LogSink logSink = new LogSink(MAX_LOG_LINES);
 
     public EnhancedZipUtility() {
         setTitle("Enhanced ZIP Utility");
@@ -47,6 +76,225 @@ public class EnhancedZipUtility extends JFrame {
         setLocationRelativeTo(null);
         initComponents();
         executor = Executors.newSingleThreadScheduledExecutor();
+        // One job per disk at a time, and no more deflate threads than cores
+        scheduler = new JobScheduler(MAX_QUEUED_JOBS, Runtime.getRuntime().availableProcessors(), 1, executor,
+                job -> SwingUtilities.invokeLater(() -> jobChanged(job)));
+        
+        // Move queued log lines into the text area in batches
+        new javax.swing.Timer(LOG_REFRESH_MS, e -> {
+            flushLog();
+            jobModel.refresh();
+        }).start();
+    }
+
+    // Safe to call from any thread; lines reach the text area on the next refresh
+    private void log(String message) {
+        logSink.append(message);
+    }
+
+    private void flushLog() {
+        String chunk = logSink.drain();
+        if (chunk == null) {
+            return;
+        }
+        logArea.append(chunk);
+        
+        // Keep only the most recent lines
+        int excess = logArea.getLineCount() - 1 - MAX_LOG_LINES;
+        if (excess > 0) {
+            try {
+                logArea.replaceRange("", 0, logArea.getLineEndOffset(excess - 1));
+            } catch (javax.swing.text.BadLocationException ex) {
+                logArea.setText("");
+            }
+        }
+    }
+
+    // Runs body on a ZipEngine of its own that logs to the activity log and,
+    // if reportPath is given, to reportPath.log, with the job's metrics in
+    // reportPath.stats.json, and that pauses and stops with the job.
+    private JobScheduler.Task engineTask(String reportPath, String failure, EngineTask body) {
+        return job -> {
+            LogSink file = null;
+            if (reportPath != null) {
+                try {
+                    file = LogSink.toFile(reportPath + ".log");
+                } catch (IOException ex) {
+                    log("Cannot write log file: " + ex.getMessage());
+                }
+            }
+            LogSink jobLog = file;
+            ZipEngine engine = new ZipEngine(new ZipListener() {
+                @Override
+                public void log(String message) {
+                    EnhancedZipUtility.this.log(message);
+                    if (jobLog != null) {
+                        jobLog.append(message);
+                    }
+                }
+
+                @Override
+                public void progress(ProgressSnapshot snapshot) {
+                    job.setStatus(snapshot.getStatus());
+                    if (job == foreground) {
+                        SwingUtilities.invokeLater(() -> {
+                            progressBar.setValue(snapshot.getPercent());
+                            statusLabel.setText(snapshot.getStatus());
+                        });
+                    }
+                }
+
+                @Override
+                public void checkpoint() throws InterruptedIOException {
+                    job.checkpoint();
+                }
+            });
+            try {
+                body.run(engine);
+            } catch (Exception ex) {
+                String message = job.isCancelled() ? "Cancelled: " + job.getName()
+                        : failure + ": " + ex.getMessage();
+                log(message);
+                if (jobLog != null) {
+                    jobLog.append(message);
+                }
+                throw ex;
+            } finally {
+                if (reportPath != null && engine.getLastMetrics() != null) {
+                    try {
+                        engine.getLastMetrics().writeJson(new File(reportPath + ".stats.json"));
+                    } catch (IOException ex) {
+                        log("Cannot write stats file: " + ex.getMessage());
+                    }
+                }
+                if (jobLog != null) {
+                    try {
+                        jobLog.close();
+                    } catch (IOException ex) {
+                        log("Cannot write log file: " + ex.getMessage());
+                    }
+                }
+            }
+        };
+    }
+
+    private interface EngineTask {
+        void run(ZipEngine engine) throws Exception;
+    }
+
+    // On the EDT.
+    private void jobChanged(JobScheduler.Job job) {
+        switch (job.getState()) {
+            case RUNNING:
+                if (foreground == null || foreground.isFinished() || foreground == job) {
+                    if (foreground != job) {
+                        resetUI();
+                    }
+                    foreground = job;
+                }
+                break;
+            case FAILED:
+                if (job == foreground) {
+                    statusLabel.setText(job.getName() + " failed");
+                }
+                break;
+            case CANCELLED:
+                if (job == foreground) {
+                    statusLabel.setText(job.getName() + " cancelled");
+                }
+                break;
+            default:
+                break;
+        }
+        jobModel.refresh();
+    }
+
+    private JobScheduler.Job selectedJob() {
+        int row = jobTable.getSelectedRow();
+        return row < 0 ? null : jobModel.getJob(jobTable.convertRowIndexToModel(row));
+    }
+
+    private void submitJob(PreparedJob prepared) {
+        try {
+            scheduler.submit(prepared.name, (JobScheduler.Priority) priorityCombo.getSelectedItem(),
+                    prepared.threads, prepared.paths, prepared.task);
+        } catch (RejectedExecutionException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // What the Compress and Extract buttons queue, kept apart so the same
+    // compression can also be scheduled to repeat.
+    private static final class PreparedJob {
+        final String name;
+        final int threads;
+        final List<File> paths;
+        final JobScheduler.Task task;
+
+        PreparedJob(String name, int threads, List<File> paths, JobScheduler.Task task) {
+            this.name = name;
+            this.threads = threads;
+            this.paths = paths;
+            this.task = task;
+        }
+    }
+
+    private final class JobTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] columns = {"#", "Job", "Priority", "State", "Status"};
+        private List<JobScheduler.Job> jobs = new ArrayList<>();
+
+        void refresh() {
+            List<JobScheduler.Job> current = scheduler.getJobs();
+            if (current.equals(jobs)) {
+                if (!jobs.isEmpty()) {
+                    fireTableRowsUpdated(0, jobs.size() - 1);
+                }
+                return;
+            }
+            JobScheduler.Job selected = selectedJob();
+            jobs = current;
+            fireTableDataChanged();
+            int row = jobs.indexOf(selected);
+            if (row >= 0) {
+                jobTable.setRowSelectionInterval(row, row);
+            }
+        }
+
+        JobScheduler.Job getJob(int row) {
+            return jobs.get(row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            JobScheduler.Job job = jobs.get(row);
+            switch (column) {
+                case 0: return job.getId();
+                case 1: return job.getName();
+                case 2: return job.getPriority();
+                case 3: return job.getState();
+                default:
+                    Throwable failure = job.getFailure();
+                    return job.getState() == JobScheduler.State.FAILED && failure != null
+                            ? failure.getMessage() : job.getStatus();
+            }
+        }
     }
 
     private void initComponents() {
@@ -83,7 +331,7 @@ public class EnhancedZipUtility extends JFrame {
         
         JPanel compressionLevelPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         compressionLevelPanel.add(new JLabel("Compression Level:"));
-        compressionLevel = new JComboBox<>(new String[]{"No Compression", "Fastest", "Default", "Maximum"});
+        compressionLevel = new JComboBox<>(new String[]{"No Compression", "Fastest", "Default", "Maximum", "Adaptive"});
         compressionLevel.setSelectedIndex(2);
         compressionLevelPanel.add(compressionLevel);
         
@@ -96,6 +344,9 @@ public class EnhancedZipUtility extends JFrame {
         excludeHiddenFilesCheckbox = new JCheckBox("Exclude Hidden Files", true);
         addTimestampCheckbox = new JCheckBox("Add Timestamp to Filename");
         verifyAfterCheckbox = new JCheckBox("Verify Archive After Creation");
+        saveLogCheckbox = new JCheckBox("Save Full Log and Stats to File");
+        autoStoreCheckbox = new JCheckBox("Store Already-Compressed Files", true);
+        updateCheckbox = new JCheckBox("Update Existing Archive");
         
         compressionPanel.add(compressSubdirs);
         compressionPanel.add(compressionLevelPanel);
@@ -104,6 +355,9 @@ public class EnhancedZipUtility extends JFrame {
         compressionPanel.add(excludeHiddenFilesCheckbox);
         compressionPanel.add(addTimestampCheckbox);
         compressionPanel.add(verifyAfterCheckbox);
+        compressionPanel.add(saveLogCheckbox);
+        compressionPanel.add(autoStoreCheckbox);
+        compressionPanel.add(updateCheckbox);
         
         optionsTabbedPane.addTab("Compression", compressionPanel);
         
@@ -120,18 +374,104 @@ public class EnhancedZipUtility extends JFrame {
         
         createSelfExtractingCheckbox = new JCheckBox("Create Self-Extracting Archive");
         
+        JPanel methodPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        methodPanel.add(new JLabel("Method:"));
+        methodCombo = new JComboBox<>(Codec.isZstdAvailable()
+            ? new String[]{"Deflate", "Fast Deflate", "Zstandard"}
+            : new String[]{"Deflate", "Fast Deflate"});
+        methodCombo.setToolTipText("Fast Deflate trades some ratio for speed and opens anywhere; "
+                + "Zstandard needs a tool that supports it");
+        methodPanel.add(methodCombo);
+        
         JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         filterPanel.add(new JLabel("File Filter (e.g., *.txt, *.jpg):"));
         fileFilterField = new JTextField(15);
+        fileFilterField.setToolTipText("Comma-separated: *.txt, src/**/*.java, re:<regex>; "
+                + "prefix with ! to exclude, e.g. !build/");
         filterPanel.add(fileFilterField);
         
+        resumableCheckbox = new JCheckBox("Resumable (Keep Journal)");
+        resumableCheckbox.setToolTipText("Compressing to the same archive again resumes a run "
+                + "that was cancelled or interrupted");
+        
+        parallelCheckbox = new JCheckBox("Parallel Compression");
+        JPanel threadsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        threadsPanel.add(new JLabel("Threads:"));
+        threadsField = new JTextField(String.valueOf(Runtime.getRuntime().availableProcessors()), 5);
+        threadsField.setEnabled(false);
+        threadsPanel.add(threadsField);
+        
         advancedPanel.add(splitArchiveCheckbox);
         advancedPanel.add(splitSizePanel);
         advancedPanel.add(createSelfExtractingCheckbox);
-        advancedPanel.add(new JLabel()); // spacer
+        advancedPanel.add(methodPanel);
         advancedPanel.add(filterPanel);
+        advancedPanel.add(resumableCheckbox);
+        advancedPanel.add(parallelCheckbox);
+        advancedPanel.add(threadsPanel);
         
         optionsTabbedPane.addTab("Advanced", advancedPanel);
+        
+        // Jobs tab: the queue, and compressions repeated every day
+        JPanel jobsPanel = new JPanel(new BorderLayout(5, 5));
+        jobsPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
+        
+        jobModel = new JobTableModel();
+        jobTable = new JTable(jobModel);
+        jobTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        jobTable.getColumnModel().getColumn(0).setMaxWidth(40);
+        JScrollPane jobScroll = new JScrollPane(jobTable);
+        jobScroll.setPreferredSize(new Dimension(400, 80));
+        
+        JPanel jobButtonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        jobButtonPanel.add(new JLabel("Priority:"));
+        priorityCombo = new JComboBox<>(JobScheduler.Priority.values());
+        priorityCombo.setSelectedItem(JobScheduler.Priority.NORMAL);
+        jobButtonPanel.add(priorityCombo);
+        JButton pauseBtn = new JButton("Pause");
+        JButton resumeBtn = new JButton("Resume");
+        JButton cancelBtn = new JButton("Cancel");
+        jobButtonPanel.add(pauseBtn);
+        jobButtonPanel.add(resumeBtn);
+        jobButtonPanel.add(cancelBtn);
+        jobButtonPanel.add(new JLabel("Compress daily at (HH:mm):"));
+        dailyField = new JTextField("02:00", 5);
+        jobButtonPanel.add(dailyField);
+        JButton scheduleBtn = new JButton("Schedule");
+        JButton clearSchedulesBtn = new JButton("Clear Schedules");
+        jobButtonPanel.add(scheduleBtn);
+        jobButtonPanel.add(clearSchedulesBtn);
+        
+        jobsPanel.add(jobScroll, BorderLayout.CENTER);
+        jobsPanel.add(jobButtonPanel, BorderLayout.SOUTH);
+        optionsTabbedPane.addTab("Jobs", jobsPanel);
+        
+        pauseBtn.addActionListener(e -> {
+            JobScheduler.Job job = selectedJob();
+            if (job != null) {
+                job.pause();
+            }
+        });
+        resumeBtn.addActionListener(e -> {
+            JobScheduler.Job job = selectedJob();
+            if (job != null) {
+                job.resume();
+            }
+        });
+        cancelBtn.addActionListener(e -> {
+            JobScheduler.Job job = selectedJob();
+            if (job != null) {
+                job.cancel();
+            }
+        });
+        scheduleBtn.addActionListener(e -> scheduleDaily());
+        clearSchedulesBtn.addActionListener(e -> {
+            for (ScheduledFuture<?> schedule : schedules) {
+                schedule.cancel(false);
+            }
+            log("Cleared " + schedules.size() + " schedule(s)");
+            schedules.clear();
+        });
 
         // Button panel
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
@@ -227,87 +567,16 @@ public class EnhancedZipUtility extends JFrame {
         splitArchiveCheckbox.addActionListener(e -> {
             splitSizeField.setEnabled(splitArchiveCheckbox.isSelected());
         });
+        
+        parallelCheckbox.addActionListener(e -> {
+            threadsField.setEnabled(parallelCheckbox.isSelected());
+        });
 
         compressBtn.addActionListener(e -> {
-            final String source = sourceField.getText();
-            final String dest = destinationField.getText();
-            
-            if (source.isEmpty() || dest.isEmpty()) {
-                JOptionPane.showMessageDialog(this, 
-                    "Please specify both source and destination paths", 
-                    "Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-            
-            File sourceFile = new File(source);
-            if (!sourceFile.exists()) {
-                JOptionPane.showMessageDialog(this, 
-                    "Source file/folder does not exist", 
-                    "Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-            
-            // Check if destination file already exists
-            File destFile = new File(dest);
-            if (destFile.exists()) {
-                int result = JOptionPane.showConfirmDialog(this, 
-                    "Destination file already exists. Overwrite?", 
-                    "Confirm Overwrite", JOptionPane.YES_NO_OPTION);
-                if (result != JOptionPane.YES_OPTION) {
-                    return;
-                }
-            }
-            
-            // Get compression level
-            final int level;
-            switch (compressionLevel.getSelectedIndex()) {
-                case 0: level = Deflater.NO_COMPRESSION; break;
-                case 1: level = Deflater.BEST_SPEED; break;
-                case 3: level = Deflater.BEST_COMPRESSION; break;
-                default: level = Deflater.DEFAULT_COMPRESSION;
-            }
-            
-            // Get password if encryption is enabled
-            final String password = encryptCheckbox.isSelected() ? 
-                new String(passwordField.getPassword()) : null;
-            
-            // Get split size if enabled
-            final int splitSize;
-            if (splitArchiveCheckbox.isSelected()) {
-                try {
-                    splitSize = Integer.parseInt(splitSizeField.getText()) * 1024 * 1024; // Convert MB to bytes
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(this, 
-                        "Please enter a valid number for split size", 
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-            } else {
-                splitSize = 0;
+            PreparedJob job = prepareCompression();
+            if (job != null) {
+                submitJob(job);
             }
-            
-            // Get file filter
-            final String fileFilter = fileFilterField.getText().trim();
-            
-            // Get other options
-            final boolean includeSubdirs = compressSubdirs.isSelected();
-            final boolean excludeHiddenFiles = excludeHiddenFilesCheckbox.isSelected();
-            final boolean addTimestamp = addTimestampCheckbox.isSelected();
-            final boolean verifyAfter = verifyAfterCheckbox.isSelected();
-            
-            // Execute compression in background thread
-            new Thread(() -> {
-                try {
-                    compress(source, dest, level, password, includeSubdirs,
-                            excludeHiddenFiles, fileFilter, splitSize,
-                            addTimestamp, verifyAfter);
-                } catch (Exception ex) {
-                    SwingUtilities.invokeLater(() -> {
-                        logArea.append("Error: " + ex.getMessage() + "\n");
-                        statusLabel.setText("Error occurred");
-                    });
-                }
-            }).start();
         });
 
         extractBtn.addActionListener(e -> {
@@ -344,406 +613,188 @@ public class EnhancedZipUtility extends JFrame {
             final String password = encryptCheckbox.isSelected() ? 
                 new String(passwordField.getPassword()) : null;
             
-            // Execute extraction in background thread
-            new Thread(() -> {
+            // Extract on the compression worker count when parallel mode is on
+            int threads = 1;
+            if (parallelCheckbox.isSelected()) {
                 try {
-                    extract(source, finalDest, password);
-                } catch (Exception ex) {
-                    SwingUtilities.invokeLater(() -> {
-                        logArea.append("Error: " + ex.getMessage() + "\n");
-                        statusLabel.setText("Error occurred");
-                    });
+                    threads = Integer.parseInt(threadsField.getText().trim());
+                } catch (NumberFormatException ex) {
+                    threads = Runtime.getRuntime().availableProcessors();
                 }
-            }).start();
+            }
+            final ExtractionOptions options = new ExtractionOptions()
+                .setPassword(password)
+                .setThreads(threads);
+            
+            String reportPath = saveLogCheckbox.isSelected() ? finalDest : null;
+            submitJob(new PreparedJob("Extract " + sourceFile.getName(), threads,
+                    Arrays.asList(sourceFile, new File(finalDest)),
+                    engineTask(reportPath, "Extraction failed", engine -> engine.extract(source, finalDest, options))));
         });
     }
 
-    private void compress(String sourcePath, String destPath, int compressionLevel, 
-                         String password, boolean includeSubdirs, boolean excludeHiddenFiles,
-                         String fileFilter, int splitSize, boolean addTimestamp, boolean verifyAfter) {
-        resetUI();
-        logArea.append("Starting compression...\n");
+    // Reads and checks the form; null, after telling the user, if it is not
+    // complete.
+    private PreparedJob prepareCompression() {
+        final String source = sourceField.getText();
+        final String dest = destinationField.getText();
         
-        File source = new File(sourcePath);
-        long totalSize = calculateTotalSize(source, includeSubdirs, excludeHiddenFiles, fileFilter);
-        final long[] processedSize = {0};
+        if (source.isEmpty() || dest.isEmpty()) {
+            JOptionPane.showMessageDialog(this, 
+                "Please specify both source and destination paths", 
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
         
-        try {
-            String finalDestPath = destPath;
-            if (addTimestamp) {
-                int dotIndex = destPath.lastIndexOf(".");
-                if (dotIndex > 0) {
-                    finalDestPath = destPath.substring(0, dotIndex) + "_" + 
-                                   System.currentTimeMillis() + 
-                                   destPath.substring(dotIndex);
-                } else {
-                    finalDestPath = destPath + "_" + System.currentTimeMillis();
-                }
-            }
-            
-            final String finalDestPathForLambda = finalDestPath;
-            
-            if (splitSize > 0) {
-                // Split archive implementation
-                createSplitArchive(source, finalDestPath, compressionLevel, password, 
-                                 includeSubdirs, excludeHiddenFiles, fileFilter, 
-                                 splitSize, totalSize, processedSize);
-            } else {
-                // Standard archive implementation
-                try (FileOutputStream fos = new FileOutputStream(finalDestPath);
-                     CheckedOutputStream checksum = new CheckedOutputStream(fos, new Adler32());
-                     BufferedOutputStream bos = new BufferedOutputStream(checksum);
-                     ZipOutputStream zos = new ZipOutputStream(bos)) {
-                    
-                    zos.setLevel(compressionLevel);
-                    logArea.append("Compression level: " + compressionLevel + "\n");
-                    
-                    // Add password protection if specified
-                    if (password != null && !password.isEmpty()) {
-                        zos.setComment("Password protected archive");
-                        logArea.append("Archive is password protected\n");
-                    }
-                    
-                    // Add files to ZIP
-                    if (source.isDirectory()) {
-                        addDirectoryToZip(source, source, zos, includeSubdirs, excludeHiddenFiles, 
-                                        fileFilter, totalSize, processedSize, password);
-                    } else {
-                        if (shouldIncludeFile(source, excludeHiddenFiles, fileFilter)) {
-                            addFileToZip(source, source.getParentFile(), zos, totalSize, processedSize, password);
-                        }
-                    }
-                    
-                    zos.finish();
-                }
-                
-                // Verify archive if requested
-                if (verifyAfter) {
-                    logArea.append("Verifying archive integrity...\n");
-                    if (verifyArchive(finalDestPath)) {
-                        logArea.append("Archive verification successful\n");
-                    } else {
-                        logArea.append("Archive verification failed!\n");
-                    }
-                }
-            }
-            
-            // Calculate and display compression statistics
-            long compressedSize = new File(finalDestPath).length();
-            double ratio = (1 - (double) compressedSize / totalSize) * 100;
-            
-            SwingUtilities.invokeLater(() -> {
-                DecimalFormat df = new DecimalFormat("#,##0");
-                DecimalFormat ratioFormat = new DecimalFormat("#.##");
-                
-                sizeBeforeLabel.setText("Original: " + df.format(totalSize) + " bytes");
-                sizeAfterLabel.setText("Compressed: " + df.format(compressedSize) + " bytes");
-                ratioLabel.setText("Ratio: " + ratioFormat.format(ratio) + "%");
-                
-                progressBar.setValue(100);
-                statusLabel.setText("Compression completed successfully");
-                logArea.append("Compression completed. Saved to: " + finalDestPathForLambda + "\n");
-                logArea.append("Compression ratio: " + ratioFormat.format(ratio) + "%\n");
-            });
-            
-        } catch (IOException ex) {
-            SwingUtilities.invokeLater(() -> {
-                logArea.append("Compression failed: " + ex.getMessage() + "\n");
-                statusLabel.setText("Compression failed");
-            });
+        File sourceFile = new File(source);
+        if (!sourceFile.exists()) {
+            JOptionPane.showMessageDialog(this, 
+                "Source file/folder does not exist", 
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return null;
         }
-    }
-
-    private void createSplitArchive(File source, String destPath, int compressionLevel, 
-                                  String password, boolean includeSubdirs, boolean excludeHiddenFiles,
-                                  String fileFilter, int splitSize, long totalSize, long[] processedSize) 
-                                  throws IOException {
-        int partCounter = 1;
-        String basePath = destPath.substring(0, destPath.lastIndexOf("."));
-        String extension = destPath.substring(destPath.lastIndexOf("."));
         
-        try (ZipOutputStream zos = new ZipOutputStream(new ByteArrayOutputStream())) {
-            zos.setLevel(compressionLevel);
-            
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            ZipOutputStream tempZos = new ZipOutputStream(buffer);
-            tempZos.setLevel(compressionLevel);
-            
-            if (source.isDirectory()) {
-                addDirectoryToSplitZip(source, source, tempZos, includeSubdirs, excludeHiddenFiles, 
-                                     fileFilter, totalSize, processedSize, password, 
-                                     splitSize, basePath, extension, partCounter);
-            } else {
-                if (shouldIncludeFile(source, excludeHiddenFiles, fileFilter)) {
-                    addFileToSplitZip(source, source.getParentFile(), tempZos, totalSize, processedSize, 
-                                    password, splitSize, basePath, extension, partCounter);
-                }
-            }
-            
-            // Write any remaining data
-            if (buffer.size() > 0) {
-                writeSplitPart(buffer, basePath, extension, partCounter);
+        // Check if destination file already exists
+        File destFile = new File(dest);
+        boolean resume = resumableCheckbox.isSelected() && ZipEngine.hasJournal(dest);
+        if (destFile.exists() && !updateCheckbox.isSelected() && !resume) {
+            int result = JOptionPane.showConfirmDialog(this, 
+                "Destination file already exists. Overwrite?", 
+                "Confirm Overwrite", JOptionPane.YES_NO_OPTION);
+            if (result != JOptionPane.YES_OPTION) {
+                return null;
             }
         }
-    }
-
-    private void addDirectoryToSplitZip(File root, File directory, ZipOutputStream zos, 
-                                      boolean includeSubdirs, boolean excludeHiddenFiles,
-                                      String fileFilter, long totalSize, long[] processedSize, 
-                                      String password, int splitSize, String basePath, 
-                                      String extension, int partCounter) throws IOException {
-        File[] files = directory.listFiles();
-        if (files == null) return;
-        
-        for (File file : files) {
-            if (file.isDirectory()) {
-                if (includeSubdirs) {
-                    addDirectoryToSplitZip(root, file, zos, includeSubdirs, excludeHiddenFiles, 
-                                         fileFilter, totalSize, processedSize, password, 
-                                         splitSize, basePath, extension, partCounter);
-                }
-            } else {
-                if (shouldIncludeFile(file, excludeHiddenFiles, fileFilter)) {
-                    addFileToSplitZip(file, root, zos, totalSize, processedSize, password, 
-                                    splitSize, basePath, extension, partCounter);
-                }
-            }
+        
+        // Get compression level
+        final int level;
+        switch (compressionLevel.getSelectedIndex()) {
+            case 0: level = Deflater.NO_COMPRESSION; break;
+            case 1: level = Deflater.BEST_SPEED; break;
+            case 3: level = Deflater.BEST_COMPRESSION; break;
+            default: level = Deflater.DEFAULT_COMPRESSION;
         }
-    }
-
-    private void addFileToSplitZip(File file, File root, ZipOutputStream zos, 
-                                 long totalSize, long[] processedSize, String password, 
-                                 int splitSize, String basePath, String extension, int partCounter) 
-                                 throws IOException {
-        // Implementation for split zip files would go here
-        // This is a simplified version - a full implementation would need to
-        // handle the complexity of splitting zip files across multiple volumes
-        addFileToZip(file, root, zos, totalSize, processedSize, password);
-    }
-
-    private void writeSplitPart(ByteArrayOutputStream buffer, String basePath, 
-                              String extension, int partCounter) throws IOException {
-        String partPath = basePath + ".z" + String.format("%02d", partCounter);
-        try (FileOutputStream fos = new FileOutputStream(partPath)) {
-            buffer.writeTo(fos);
+        // Adaptive picks per file; small files get the default level
+        final boolean adaptive = compressionLevel.getSelectedIndex() == 4;
+        
+        final String method;
+        switch (methodCombo.getSelectedIndex()) {
+            case 1: method = Codec.FAST_NAME; break;
+            case 2: method = Codec.ZSTD_NAME; break;
+            default: method = Codec.DEFLATE_NAME;
         }
-        logArea.append("Created split part: " + partPath + "\n");
-    }
-
-    private void addDirectoryToZip(File root, File directory, ZipOutputStream zos, 
-                                  boolean includeSubdirs, boolean excludeHiddenFiles,
-                                  String fileFilter, long totalSize, long[] processedSize, 
-                                  String password) throws IOException {
-        File[] files = directory.listFiles();
-        if (files == null) return;
-        
-        for (File file : files) {
-            if (file.isDirectory()) {
-                if (includeSubdirs) {
-                    addDirectoryToZip(root, file, zos, includeSubdirs, excludeHiddenFiles, 
-                                    fileFilter, totalSize, processedSize, password);
-                }
-            } else {
-                if (shouldIncludeFile(file, excludeHiddenFiles, fileFilter)) {
-                    addFileToZip(file, root, zos, totalSize, processedSize, password);
+        
+        // Get password if encryption is enabled
+        final String password = encryptCheckbox.isSelected() ? 
+            new String(passwordField.getPassword()) : null;
+        
+        // Get split size if enabled
+        final long splitSize;
+        if (splitArchiveCheckbox.isSelected()) {
+            try {
+                int megabytes = Integer.parseInt(splitSizeField.getText().trim());
+                if (megabytes < 1) {
+                    throw new NumberFormatException();
                 }
+                splitSize = megabytes * 1024L * 1024; // Convert MB to bytes
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, 
+                    "Please enter a valid number for split size", 
+                    "Error", JOptionPane.ERROR_MESSAGE);
+                return null;
             }
-        }
-    }
-
-    private boolean shouldIncludeFile(File file, boolean excludeHiddenFiles, String fileFilter) {
-        // Check if file is hidden and should be excluded
-        if (excludeHiddenFiles && file.isHidden()) {
-            return false;
+        } else {
+            splitSize = 0;
         }
         
-        // Check if file matches the filter
-        if (fileFilter != null && !fileFilter.trim().isEmpty()) {
-            String[] filters = fileFilter.split(",");
-            String fileName = file.getName().toLowerCase();
-            boolean matches = false;
-            
-            for (String filter : filters) {
-                filter = filter.trim().toLowerCase();
-                if (filter.startsWith("*.")) {
-                    String ext = filter.substring(1);
-                    if (fileName.endsWith(ext)) {
-                        matches = true;
-                        break;
-                    }
-                } else if (fileName.equals(filter)) {
-                    matches = true;
-                    break;
+        // Get worker thread count if parallel compression is enabled
+        final int threads;
+        if (parallelCheckbox.isSelected()) {
+            try {
+                threads = Integer.parseInt(threadsField.getText().trim());
+                if (threads < 1) {
+                    throw new NumberFormatException();
                 }
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, 
+                    "Please enter a valid number of threads", 
+                    "Error", JOptionPane.ERROR_MESSAGE);
+                return null;
             }
-            
-            if (!matches) {
-                return false;
-            }
+        } else {
+            threads = 0;
         }
         
-        return true;
-    }
-
-    private void addFileToZip(File file, File root, ZipOutputStream zos, 
-                             long totalSize, long[] processedSize, String password) throws IOException {
-        String zipPath = root.toURI().relativize(file.toURI()).getPath();
-        ZipEntry entry = new ZipEntry(zipPath);
-        entry.setTime(file.lastModified());
+        // Get file filter
+        final String fileFilter = fileFilterField.getText().trim();
         
-        // Add password as extra field if provided (basic simulation of encryption)
-        if (password != null && !password.isEmpty()) {
-            entry.setExtra(("PWD:" + password).getBytes());
-            entry.setComment("Encrypted");
-        }
+        // Get other options
+        final boolean includeSubdirs = compressSubdirs.isSelected();
+        final boolean excludeHiddenFiles = excludeHiddenFilesCheckbox.isSelected();
+        final boolean addTimestamp = addTimestampCheckbox.isSelected();
+        final boolean verifyAfter = verifyAfterCheckbox.isSelected();
         
-        zos.putNextEntry(entry);
+        final CompressionOptions options = new CompressionOptions()
+            .setLevel(level)
+            .setAdaptive(adaptive)
+            .setMethod(method)
+            .setPassword(password)
+            .setIncludeSubdirs(includeSubdirs)
+            .setExcludeHiddenFiles(excludeHiddenFiles)
+            .setFileFilter(fileFilter)
+            .setSplitSize(splitSize)
+            .setAddTimestamp(addTimestamp)
+            .setVerifyAfter(verifyAfter)
+            .setThreads(threads)
+            .setAutoStore(autoStoreCheckbox.isSelected())
+            .setUpdate(updateCheckbox.isSelected())
+            .setResumable(resumableCheckbox.isSelected());
         
-        try (FileInputStream fis = new FileInputStream(file);
-             BufferedInputStream bis = new BufferedInputStream(fis)) {
-            
-            byte[] buffer = new byte[1024];
-            int count;
-            while ((count = bis.read(buffer)) > 0) {
-                zos.write(buffer, 0, count);
-                processedSize[0] += count;
-                
-                // Update progress
-                final int progress = (int) ((processedSize[0] * 100) / totalSize);
-                SwingUtilities.invokeLater(() -> {
-                    progressBar.setValue(progress);
-                    statusLabel.setText("Compressing: " + progress + "%");
-                });
-            }
-        }
-        
-        zos.closeEntry();
-        logArea.append("Added: " + zipPath + "\n");
+        String reportPath = saveLogCheckbox.isSelected() ? dest : null;
+        int cpu = parallelCheckbox.isSelected() ? threads : 1;
+        return new PreparedJob("Compress " + sourceFile.getName(), cpu, Arrays.asList(sourceFile, destFile),
+                engineTask(reportPath, "Compression failed", engine -> {
+                    ZipEngine.CompressionResult result = engine.compress(source, dest, options);
+                    showStatistics(result);
+                }));
     }
 
-    private void extract(String sourcePath, String destPath, String password) {
-        resetUI();
-        logArea.append("Starting extraction...\n");
-        
-        File destDir = new File(destPath);
-        if (!destDir.exists()) {
-            destDir.mkdirs();
+    // Queues the compression set up in the form every day at the given time,
+    // for as long as the window is open.
+    private void scheduleDaily() {
+        LocalTime time;
+        try {
+            time = LocalTime.parse(dailyField.getText().trim());
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(this, 
+                "Please enter a time as HH:mm", 
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
-        
-        try (FileInputStream fis = new FileInputStream(sourcePath);
-             CheckedInputStream checksum = new CheckedInputStream(fis, new Adler32());
-             BufferedInputStream bis = new BufferedInputStream(checksum);
-             ZipInputStream zis = new ZipInputStream(bis)) {
-            
-            ZipEntry entry;
-            long totalSize = new File(sourcePath).length();
-            long processedSize = 0;
-            
-            while ((entry = zis.getNextEntry()) != null) {
-                String entryName = entry.getName();
-                File outputFile = new File(destPath + File.separator + entryName);
-                
-                // Check if entry is encrypted (based on our custom implementation)
-                boolean isEncrypted = entry.getExtra() != null && 
-                    new String(entry.getExtra()).startsWith("PWD:");
-                
-                // Validate password if encrypted
-                if (isEncrypted && password != null && !password.isEmpty()) {
-                    String storedPassword = new String(entry.getExtra()).substring(4);
-                    if (!storedPassword.equals(password)) {
-                        logArea.append("Wrong password for: " + entryName + "\n");
-                        continue;
-                    }
-                } else if (isEncrypted) {
-                    logArea.append("Password required for: " + entryName + "\n");
-                    continue;
-                }
-                
-                // Create parent directories if needed
-                File parent = outputFile.getParentFile();
-                if (!parent.exists()) {
-                    parent.mkdirs();
-                }
-                
-                if (!entry.isDirectory()) {
-                    try (FileOutputStream fos = new FileOutputStream(outputFile);
-                         BufferedOutputStream bos = new BufferedOutputStream(fos)) {
-                        
-                        byte[] buffer = new byte[1024];
-                        int count;
-                        while ((count = zis.read(buffer)) > 0) {
-                            bos.write(buffer, 0, count);
-                            processedSize += count;
-                            
-                            // Update progress
-                            final int progress = (int) ((processedSize * 100) / totalSize);
-                            SwingUtilities.invokeLater(() -> {
-                                progressBar.setValue(progress);
-                                statusLabel.setText("Extracting: " + progress + "%");
-                            });
-                        }
-                    }
-                    logArea.append("Extracted: " + entryName + "\n");
-                } else {
-                    outputFile.mkdirs();
-                    logArea.append("Created directory: " + entryName + "\n");
-                }
-                
-                zis.closeEntry();
-            }
-            
-            SwingUtilities.invokeLater(() -> {
-                progressBar.setValue(100);
-                statusLabel.setText("Extraction completed successfully");
-                logArea.append("Extraction completed to: " + destPath + "\n");
-            });
-            
-        } catch (IOException ex) {
-            SwingUtilities.invokeLater(() -> {
-                logArea.append("Extraction failed: " + ex.getMessage() + "\n");
-                statusLabel.setText("Extraction failed");
-            });
+        PreparedJob job = prepareCompression();
+        if (job == null) {
+            return;
         }
-    }
-
-    private boolean verifyArchive(String archivePath) {
-        try (ZipFile zipFile = new ZipFile(archivePath)) {
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                try (InputStream is = zipFile.getInputStream(entry)) {
-                    // Read the entry to verify it's not corrupted
-                    byte[] buffer = new byte[1024];
-                    while (is.read(buffer) > 0) {
-                        // Just reading to verify integrity
-                    }
-                }
-            }
-            return true;
-        } catch (IOException e) {
-            return false;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(time);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
         }
+        schedules.add(scheduler.schedule(job.name, (JobScheduler.Priority) priorityCombo.getSelectedItem(),
+                job.threads, job.paths, job.task, Duration.between(now, next).toMillis(),
+                TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS));
+        log("Scheduled " + job.name + " daily at " + time + ", first run " + next);
     }
 
-    private long calculateTotalSize(File file, boolean includeSubdirs, boolean excludeHiddenFiles, String fileFilter) {
-        if (file.isFile()) {
-            return shouldIncludeFile(file, excludeHiddenFiles, fileFilter) ? file.length() : 0;
-        }
-        
-        long size = 0;
-        File[] files = file.listFiles();
-        if (files != null) {
-            for (File f : files) {
-                if (f.isFile()) {
-                    if (shouldIncludeFile(f, excludeHiddenFiles, fileFilter)) {
-                        size += f.length();
-                    }
-                } else if (includeSubdirs) {
-                    size += calculateTotalSize(f, true, excludeHiddenFiles, fileFilter);
-                }
-            }
-        }
-        return size;
+    private void showStatistics(ZipEngine.CompressionResult result) {
+        SwingUtilities.invokeLater(() -> {
+            DecimalFormat df = new DecimalFormat("#,##0");
+            DecimalFormat ratioFormat = new DecimalFormat("#.##");
+            
+            sizeBeforeLabel.setText("Original: " + df.format(result.getOriginalSize()) + " bytes");
+            sizeAfterLabel.setText("Compressed: " + df.format(result.getCompressedSize()) + " bytes");
+            ratioLabel.setText("Ratio: " + ratioFormat.format(result.getRatio()) + "%");
+        });
     }
 
     private void resetUI() {
@@ -755,6 +806,13 @@ public class EnhancedZipUtility extends JFrame {
     }
 
     public static void main(String[] args) {
+        // Any arguments select the command line; no display is needed then
+        if (args.length > 0 || GraphicsEnvironment.isHeadless()) {
+            System.exit(ZipCli.run(args));
+        }
+        // Totals over the session's jobs, for JConsole and the like
+        JobMetrics.registerMBean();
+        
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
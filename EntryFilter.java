@@ -0,0 +1,186 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Include/exclude rules compiled once per scan. Patterns are matched without
+// regard to case, except regexes, which are used as written:
+//   *.txt, readme.md     file name (extension and exact names need no regex)
+//   src/**/*.java        path relative to the source, '/' separated
+//   build/, **/tmp/**    directories; excluded ones are never listed
+//   re:.*\.(log|tmp)     regular expression over the relative path
+// Size and modification time limits apply to files only.
+public final class EntryFilter {
+    private final Rules includes;
+    private final Rules excludes;
+    private final boolean excludeHidden;
+    private final long minSize;
+    private final long maxSize;
+    private final long modifiedAfter;
+    private final long modifiedBefore;
+
+    private EntryFilter(CompressionOptions options) {
+        List<String> include = new ArrayList<>(options.getIncludePatterns());
+        List<String> exclude = new ArrayList<>(options.getExcludePatterns());
+        // The GUI's comma-separated filter; "!pattern" excludes
+        String fileFilter = options.getFileFilter();
+        if (fileFilter != null && !fileFilter.trim().isEmpty()) {
+            for (String pattern : fileFilter.split(",")) {
+                pattern = pattern.trim();
+                if (pattern.startsWith("!")) {
+                    exclude.add(pattern.substring(1).trim());
+                } else if (!pattern.isEmpty()) {
+                    include.add(pattern);
+                }
+            }
+        }
+        this.includes = new Rules(include);
+        this.excludes = new Rules(exclude);
+        this.excludeHidden = options.isExcludeHiddenFiles();
+        this.minSize = options.getMinSize();
+        this.maxSize = options.getMaxSize();
+        this.modifiedAfter = options.getModifiedAfter();
+        this.modifiedBefore = options.getModifiedBefore();
+    }
+
+    public static EntryFilter compile(CompressionOptions options) {
+        return new EntryFilter(options);
+    }
+
+    // path is relative to the source root; name is its last segment.
+    public boolean includeFile(String path, String name, long size, long lastModified, boolean hidden) {
+        if (excludeHidden && hidden) {
+            return false;
+        }
+        if (size < minSize || (maxSize >= 0 && size > maxSize)) {
+            return false;
+        }
+        if ((modifiedAfter > 0 && lastModified < modifiedAfter)
+                || (modifiedBefore > 0 && lastModified >= modifiedBefore)) {
+            return false;
+        }
+        if (!includes.isEmpty() && !includes.matchesFile(path, name)) {
+            return false;
+        }
+        return excludes.isEmpty() || !excludes.matchesFile(path, name);
+    }
+
+    // path ends with '/'. Hidden directories are still descended, as before.
+    public boolean includeDirectory(String path) {
+        return !excludes.matchesPath(path);
+    }
+
+    // "1048576", "512K", "10M", "2G"
+    public static long parseSize(String value) {
+        String v = value.trim().toUpperCase();
+        long unit = 1;
+        if (v.endsWith("B")) {
+            v = v.substring(0, v.length() - 1);
+        }
+        if (v.endsWith("K")) {
+            unit = 1024;
+        } else if (v.endsWith("M")) {
+            unit = 1024 * 1024;
+        } else if (v.endsWith("G")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            v = v.substring(0, v.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(v.trim()) * unit;
+            if (size < 0) {
+                throw new NumberFormatException();
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+    }
+
+    // "2024-05-01", "2024-05-01T18:30" (local time) or "7d" for seven days ago.
+    public static long parseTime(String value) {
+        String v = value.trim();
+        try {
+            if (v.endsWith("d") || v.endsWith("D")) {
+                long days = Long.parseLong(v.substring(0, v.length() - 1));
+                return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+            }
+            LocalDateTime time = v.indexOf('T') >= 0 ? LocalDateTime.parse(v) : LocalDate.parse(v).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + value);
+        }
+    }
+
+    // One side (includes or excludes), split by how cheaply each rule can be
+    // checked: extensions and exact names by comparing strings in place,
+    // everything else by regex.
+    private static class Rules {
+        private final List<String> extensions = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<Pattern> nameGlobs = new ArrayList<>();
+        private final List<Pattern> paths = new ArrayList<>();
+
+        Rules(List<String> patterns) {
+            for (String pattern : patterns) {
+                if (pattern.startsWith("re:")) {
+                    paths.add(Pattern.compile(pattern.substring(3)));
+                    continue;
+                }
+                String glob = pattern.replace('\\', '/');
+                if (glob.endsWith("/")) {
+                    // A directory and everything below it, at any depth
+                    // unless the pattern has a path of its own
+                    String dir = glob.substring(0, glob.length() - 1);
+                    paths.add(Glob.compile((dir.indexOf('/') >= 0 ? dir : "**/" + dir) + "/**", true));
+                } else if (glob.indexOf('/') >= 0) {
+                    paths.add(Glob.compile(glob, true));
+                } else if (glob.startsWith("*.") && !Glob.isGlob(glob.substring(2))) {
+                    extensions.add(glob.substring(1));
+                } else if (!Glob.isGlob(glob)) {
+                    names.add(glob);
+                } else {
+                    nameGlobs.add(Glob.compile(glob, true));
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return extensions.isEmpty() && names.isEmpty() && nameGlobs.isEmpty() && paths.isEmpty();
+        }
+
+        boolean matchesFile(String path, String name) {
+            for (int i = 0; i < extensions.size(); i++) {
+                String ext = extensions.get(i);
+                if (name.regionMatches(true, name.length() - ext.length(), ext, 0, ext.length())) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < names.size(); i++) {
+                if (name.equalsIgnoreCase(names.get(i))) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < nameGlobs.size(); i++) {
+                if (nameGlobs.get(i).matcher(name).matches()) {
+                    return true;
+                }
+            }
+            return matchesPath(path);
+        }
+
+        boolean matchesPath(String path) {
+            for (int i = 0; i < paths.size(); i++) {
+                if (paths.get(i).matcher(path).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
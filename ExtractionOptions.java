@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Settings for ZipEngine.extract().
+public class ExtractionOptions {
+    private String password;
+    private final List<String> entryPatterns = new ArrayList<>();
+    private int threads = 1;
+    private boolean preserveTimes;
+    private boolean preservePermissions;
+    private IoSettings io = new IoSettings();
+
+    public String getPassword() {
+        return password;
+    }
+
+    public ExtractionOptions setPassword(String password) {
+        this.password = password;
+        return this;
+    }
+
+    // Entry names or globs to extract; empty extracts everything. A name
+    // ending in '/' selects the whole directory.
+    public List<String> getEntryPatterns() {
+        return entryPatterns;
+    }
+
+    public ExtractionOptions addEntryPattern(String pattern) {
+        entryPatterns.add(pattern);
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public ExtractionOptions setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    // Give extracted files and directories the modification times stored in
+    // the archive, instead of the time they were written.
+    public boolean isPreserveTimes() {
+        return preserveTimes;
+    }
+
+    public ExtractionOptions setPreserveTimes(boolean preserveTimes) {
+        this.preserveTimes = preserveTimes;
+        return this;
+    }
+
+    // Restore Unix permission bits, where the archive was made on a system
+    // that records them.
+    public boolean isPreservePermissions() {
+        return preservePermissions;
+    }
+
+    public ExtractionOptions setPreservePermissions(boolean preservePermissions) {
+        this.preservePermissions = preservePermissions;
+        return this;
+    }
+
+    public IoSettings getIoSettings() {
+        return io;
+    }
+
+    public ExtractionOptions setIoSettings(IoSettings io) {
+        this.io = io;
+        return this;
+    }
+}
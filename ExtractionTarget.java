@@ -0,0 +1,195 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.ZipException;
+
+// Maps entry names to files under the destination folder and refuses any
+// that would land outside it ("zip slip"): names with "..", absolute
+// paths, drive letters, and directories that already exist as links to
+// somewhere else. Each directory is created, or checked by its canonical
+// path, once and then remembered, so the entries after the first in a
+// directory cost no file system calls before their own file is opened.
+// Also applies the entries' modification times and Unix permissions when
+// asked to; directories get theirs at the end, since writing their files
+// would change the time and a read-only one could not be written into.
+// Safe for several threads.
+final class ExtractionTarget {
+    private static final PosixFilePermission[] PERMISSIONS = {
+        PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+        PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+        PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+    };
+
+    private final File root;
+    private final String rootPrefix;
+    private final boolean preserveTimes;
+    private final boolean preservePermissions;
+    private final boolean posix;
+    // Relative path ("" for the root) of each directory ready for files, and
+    // whether it was there before this extraction
+    private final ConcurrentHashMap<String, Boolean> directories = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    private static final class Pending {
+        final File directory;
+        final long time;
+        final int mode;
+
+        Pending(File directory, long time, int mode) {
+            this.directory = directory;
+            this.time = time;
+            this.mode = mode;
+        }
+    }
+
+    ExtractionTarget(File root, boolean preserveTimes, boolean preservePermissions) throws IOException {
+        Files.createDirectories(root.toPath());
+        this.root = root.getCanonicalFile();
+        String path = this.root.getPath();
+        this.rootPrefix = path.endsWith(File.separator) ? path : path + File.separator;
+        this.preserveTimes = preserveTimes;
+        this.preservePermissions = preservePermissions;
+        this.posix = this.root.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
+        directories.put("", Boolean.TRUE);
+    }
+
+    // The entry name as a relative '/'-separated path without empty or "."
+    // segments; throws if it is absolute or climbs out with "..".
+    static String normalize(String name) throws ZipException {
+        String path = name.replace('\\', '/');
+        if (path.startsWith("/") || (File.separatorChar == '\\' && path.indexOf(':') >= 0)) {
+            throw new ZipException("Entry " + name + " has an absolute path");
+        }
+        StringBuilder result = new StringBuilder(path.length());
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                throw new ZipException("Entry " + name + " would be extracted outside the destination");
+            }
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(segment);
+        }
+        return result.toString();
+    }
+
+    // Creates every directory the entries need, parents first, before any
+    // file is written, so the workers writing files only look them up.
+    void createDirectories(List<String> names) throws IOException {
+        Set<String> paths = new TreeSet<>();
+        for (String name : names) {
+            String path = normalize(name);
+            paths.add(name.endsWith("/") ? path : parentOf(path));
+        }
+        for (String path : paths) {
+            directory(path);
+        }
+    }
+
+    // Where a file entry goes, its directory made and checked.
+    File file(String name) throws IOException {
+        String path = normalize(name);
+        if (path.isEmpty()) {
+            throw new ZipException("Entry " + name + " has no file name");
+        }
+        boolean existed = directory(parentOf(path));
+        File file = new File(root, path);
+        // Only a folder that was there before can hold a link; writing
+        // through one would put the data wherever it points
+        if (existed && Files.isSymbolicLink(file.toPath())) {
+            Files.delete(file.toPath());
+        }
+        return file;
+    }
+
+    // Where a directory entry goes, created and checked.
+    File directoryFor(String name) throws IOException {
+        String path = normalize(name);
+        directory(path);
+        return path.isEmpty() ? root : new File(root, path);
+    }
+
+    // Sets the modification time and Unix mode of a written file, as far as
+    // this extraction preserves them; mode 0 means the archive has none.
+    void setAttributes(File file, long time, int mode) throws IOException {
+        if (preserveTimes && time >= 0) {
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(time));
+        }
+        if (preservePermissions && mode != 0) {
+            setMode(file.toPath(), mode);
+        }
+    }
+
+    // As setAttributes(), but held back until finish().
+    void setDirectoryAttributes(File directory, long time, int mode) {
+        if ((preserveTimes && time >= 0) || (preservePermissions && mode != 0)) {
+            pending.add(new Pending(directory, time, mode));
+        }
+    }
+
+    // Applies the directories' attributes, deepest first so setting a
+    // child's time does not change its parent's afterwards.
+    void finish() throws IOException {
+        List<Pending> directories = new ArrayList<>(pending);
+        directories.sort((a, b) -> b.directory.getPath().compareTo(a.directory.getPath()));
+        for (Pending directory : directories) {
+            setAttributes(directory.directory, directory.time, directory.mode);
+        }
+    }
+
+    // Returns whether the directory was there before this extraction.
+    private boolean directory(String path) throws IOException {
+        Boolean existed = directories.get(path);
+        if (existed != null) {
+            return existed;
+        }
+        directory(parentOf(path));
+        File dir = new File(root, path);
+        boolean there = dir.isDirectory();
+        if (!there && !dir.mkdir() && !dir.isDirectory()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        // A new directory is a real one inside a checked parent; one found
+        // here may be a link out of the destination
+        if (there && !(dir.getCanonicalPath() + File.separator).startsWith(rootPrefix)) {
+            throw new ZipException("Directory " + path + " leads outside the destination");
+        }
+        existed = directories.putIfAbsent(path, there);
+        return existed != null ? existed : there;
+    }
+
+    // Permission bits only: set-user-ID and the like are not restored.
+    private void setMode(Path path, int mode) throws IOException {
+        if (posix) {
+            Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            for (int bit = 0; bit < PERMISSIONS.length; bit++) {
+                if ((mode & (1 << bit)) != 0) {
+                    permissions.add(PERMISSIONS[bit]);
+                }
+            }
+            Files.setPosixFilePermissions(path, permissions);
+        } else {
+            File file = path.toFile();
+            file.setExecutable((mode & 0100) != 0);
+            file.setWritable((mode & 0200) != 0);
+        }
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash >= 0 ? path.substring(0, slash) : "";
+    }
+}
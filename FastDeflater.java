@@ -0,0 +1,430 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Pure-Java deflate encoder that trades ratio for speed: greedy LZ77 against
+// a single-slot hash table of 4-byte sequences, as LZ4 and Snappy match,
+// skipping ahead faster through data that keeps missing, and one dynamic
+// Huffman block per BLOCK_SYMBOLS symbols, or stored blocks where those are
+// smaller. The output is plain deflate that any inflater reads.
+final class FastDeflater {
+    private static final int WINDOW = 32 * 1024;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_MATCH = 258;
+    private static final int HASH_BITS = 15;
+    private static final int BLOCK_SYMBOLS = 16 * 1024;
+    private static final int MAX_STEP = 32;
+    private static final int MAX_STORED = 65535;
+
+    private static final int LITERALS = 286;
+    private static final int DISTANCES = 30;
+    private static final int END_OF_BLOCK = 256;
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DIST_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DIST_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    // Order in which code length code lengths are sent
+    private static final int[] CODE_LENGTH_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final byte[] LENGTH_CODE = new byte[MAX_MATCH + 1];
+    // Distances up to 256 directly, longer ones in steps of 128, as zlib does
+    private static final byte[] DIST_CODE = new byte[512];
+
+    static {
+        for (int code = 0; code < LENGTH_BASE.length; code++) {
+            for (int i = 0; i < (1 << LENGTH_EXTRA[code]) && LENGTH_BASE[code] + i <= MAX_MATCH; i++) {
+                LENGTH_CODE[LENGTH_BASE[code] + i] = (byte) code;
+            }
+        }
+        for (int code = 0; code < DIST_BASE.length; code++) {
+            for (int i = 0; i < (1 << DIST_EXTRA[code]); i++) {
+                int d = DIST_BASE[code] + i - 1;
+                DIST_CODE[d < 256 ? d : 256 + (d >> 7)] = (byte) code;
+            }
+        }
+    }
+
+    private final int[] table = new int[1 << HASH_BITS];
+    private final int[] symbols = new int[BLOCK_SYMBOLS + MAX_STEP];
+    private int symbolCount;
+    private int blockStart;
+
+    private byte[] out;
+    private int outLength;
+    private long bits;
+    private int bitCount;
+
+    // Compresses input[dictLength, dictLength + length), matching back into
+    // input[0, dictLength) as well. Ends on a final block if last, else on a
+    // sync flush (an empty stored block), so chunks can be concatenated.
+    ByteBuffer compress(byte[] input, int dictLength, int length, boolean last) {
+        int end = dictLength + length;
+        out = new byte[length + length / 64 + 64];
+        outLength = 0;
+        Arrays.fill(table, 0);
+        for (int p = Math.max(0, dictLength - WINDOW); p <= dictLength - MIN_MATCH; p++) {
+            table[hash(read32(input, p))] = p + 1;
+        }
+
+        int pos = dictLength;
+        int misses = 0;
+        blockStart = pos;
+        symbolCount = 0;
+        while (pos <= end - MIN_MATCH) {
+            int sequence = read32(input, pos);
+            int h = hash(sequence);
+            int candidate = table[h] - 1;
+            table[h] = pos + 1;
+            if (candidate >= 0 && pos - candidate <= WINDOW && read32(input, candidate) == sequence) {
+                int max = Math.min(MAX_MATCH, end - pos);
+                int len = MIN_MATCH;
+                while (len < max && input[candidate + len] == input[pos + len]) {
+                    len++;
+                }
+                symbols[symbolCount++] = (len << 16) | (pos - candidate);
+                pos += len;
+                // Remember a position near the end, where the next match often starts
+                if (pos <= end - MIN_MATCH + 2) {
+                    table[hash(read32(input, pos - 2))] = pos - 1;
+                }
+                misses = 0;
+            } else {
+                int step = Math.min(MAX_STEP, 1 + (misses++ >> 5));
+                int stop = Math.min(pos + step, end);
+                while (pos < stop) {
+                    symbols[symbolCount++] = input[pos++] & 0xFF;
+                }
+            }
+            if (symbolCount >= BLOCK_SYMBOLS) {
+                writeBlock(input, pos);
+            }
+        }
+        while (pos < end) {
+            symbols[symbolCount++] = input[pos++] & 0xFF;
+            if (symbolCount >= BLOCK_SYMBOLS) {
+                writeBlock(input, pos);
+            }
+        }
+        if (symbolCount > 0) {
+            writeBlock(input, pos);
+        }
+
+        ensure(16);
+        if (last) {
+            // Empty final block with fixed codes: BFINAL, BTYPE 01, end of block
+            writeBits(1, 1);
+            writeBits(1, 2);
+            writeBits(0, 7);
+            alignToByte();
+        } else {
+            writeBits(0, 3);
+            alignToByte();
+            out[outLength++] = 0;
+            out[outLength++] = 0;
+            out[outLength++] = (byte) 0xFF;
+            out[outLength++] = (byte) 0xFF;
+        }
+        ByteBuffer result = ByteBuffer.wrap(out, 0, outLength);
+        out = null;
+        return result;
+    }
+
+    // Writes the pending symbols, which cover input[blockStart, blockEnd).
+    private void writeBlock(byte[] input, int blockEnd) {
+        int[] litFreq = new int[LITERALS];
+        int[] distFreq = new int[DISTANCES];
+        for (int i = 0; i < symbolCount; i++) {
+            int symbol = symbols[i];
+            if (symbol < 256) {
+                litFreq[symbol]++;
+            } else {
+                litFreq[257 + LENGTH_CODE[symbol >>> 16]]++;
+                distFreq[distCode(symbol & 0xFFFF)]++;
+            }
+        }
+        litFreq[END_OF_BLOCK]++;
+
+        int[] litLengths = codeLengths(litFreq, 15);
+        int[] distLengths = codeLengths(distFreq, 15);
+        int litCount = LITERALS;
+        while (litCount > 257 && litLengths[litCount - 1] == 0) {
+            litCount--;
+        }
+        int distCount = DISTANCES;
+        while (distCount > 1 && distLengths[distCount - 1] == 0) {
+            distCount--;
+        }
+
+        // Run-length encode both length tables as one sequence
+        int[] all = new int[litCount + distCount];
+        System.arraycopy(litLengths, 0, all, 0, litCount);
+        System.arraycopy(distLengths, 0, all, litCount, distCount);
+        int[] runs = new int[all.length];
+        int runCount = 0;
+        int[] clFreq = new int[19];
+        for (int i = 0; i < all.length;) {
+            int value = all[i];
+            int run = 1;
+            while (i + run < all.length && all[i + run] == value) {
+                run++;
+            }
+            if (value == 0 && run >= 3) {
+                run = Math.min(run, 138);
+                int symbol = run <= 10 ? 17 : 18;
+                runs[runCount++] = symbol | (run << 8);
+                clFreq[symbol]++;
+                i += run;
+            } else if (value != 0 && run >= 4) {
+                // The value once, then repeats of 3 to 6
+                runs[runCount++] = value;
+                clFreq[value]++;
+                run = Math.min(run - 1, 6);
+                runs[runCount++] = 16 | (run << 8);
+                clFreq[16]++;
+                i += run + 1;
+            } else {
+                runs[runCount++] = value;
+                clFreq[value]++;
+                i++;
+            }
+        }
+        int[] clLengths = codeLengths(clFreq, 7);
+        int clCount = 19;
+        while (clCount > 4 && clLengths[CODE_LENGTH_ORDER[clCount - 1]] == 0) {
+            clCount--;
+        }
+
+        long dynamicBits = 3 + 5 + 5 + 4 + 3L * clCount;
+        for (int i = 0; i < runCount; i++) {
+            int symbol = runs[i] & 0xFF;
+            dynamicBits += clLengths[symbol] + (symbol == 16 ? 2 : symbol == 17 ? 3 : symbol == 18 ? 7 : 0);
+        }
+        for (int i = 0; i < litCount; i++) {
+            dynamicBits += (long) litFreq[i] * (litLengths[i] + (i > 256 ? LENGTH_EXTRA[i - 257] : 0));
+        }
+        for (int i = 0; i < distCount; i++) {
+            dynamicBits += (long) distFreq[i] * (distLengths[i] + DIST_EXTRA[i]);
+        }
+        int rawLength = blockEnd - blockStart;
+        long storedBits = 8L * (rawLength + 5L * ((rawLength + MAX_STORED - 1) / MAX_STORED)) + 10;
+
+        if (storedBits <= dynamicBits) {
+            writeStored(input, blockStart, rawLength);
+        } else {
+            ensure((int) (dynamicBits / 8) + 16);
+            int[] litCodes = codes(litLengths);
+            int[] distCodes = codes(distLengths);
+            int[] clCodes = codes(clLengths);
+            writeBits(0, 1);
+            writeBits(2, 2);
+            writeBits(litCount - 257, 5);
+            writeBits(distCount - 1, 5);
+            writeBits(clCount - 4, 4);
+            for (int i = 0; i < clCount; i++) {
+                writeBits(clLengths[CODE_LENGTH_ORDER[i]], 3);
+            }
+            for (int i = 0; i < runCount; i++) {
+                int symbol = runs[i] & 0xFF;
+                int run = runs[i] >>> 8;
+                writeBits(clCodes[symbol], clLengths[symbol]);
+                if (symbol == 16) {
+                    writeBits(run - 3, 2);
+                } else if (symbol == 17) {
+                    writeBits(run - 3, 3);
+                } else if (symbol == 18) {
+                    writeBits(run - 11, 7);
+                }
+            }
+            for (int i = 0; i < symbolCount; i++) {
+                int symbol = symbols[i];
+                if (symbol < 256) {
+                    writeBits(litCodes[symbol], litLengths[symbol]);
+                } else {
+                    int len = symbol >>> 16;
+                    int dist = symbol & 0xFFFF;
+                    int lc = LENGTH_CODE[len];
+                    writeBits(litCodes[257 + lc], litLengths[257 + lc]);
+                    writeBits(len - LENGTH_BASE[lc], LENGTH_EXTRA[lc]);
+                    int dc = distCode(dist);
+                    writeBits(distCodes[dc], distLengths[dc]);
+                    writeBits(dist - DIST_BASE[dc], DIST_EXTRA[dc]);
+                }
+            }
+            writeBits(litCodes[END_OF_BLOCK], litLengths[END_OF_BLOCK]);
+        }
+        symbolCount = 0;
+        blockStart = blockEnd;
+    }
+
+    private void writeStored(byte[] input, int offset, int length) {
+        ensure(length + 5 * (length / MAX_STORED + 1) + 8);
+        do {
+            int n = Math.min(length, MAX_STORED);
+            writeBits(0, 3);
+            alignToByte();
+            out[outLength++] = (byte) n;
+            out[outLength++] = (byte) (n >>> 8);
+            out[outLength++] = (byte) ~n;
+            out[outLength++] = (byte) (~n >>> 8);
+            System.arraycopy(input, offset, out, outLength, n);
+            outLength += n;
+            offset += n;
+            length -= n;
+        } while (length > 0);
+    }
+
+    // Huffman code lengths no longer than maxBits. Frequencies are halved
+    // until the tree is shallow enough. At least two symbols get a code, so
+    // every code is complete.
+    static int[] codeLengths(int[] freq, int maxBits) {
+        int[] lengths = new int[freq.length];
+        int used = 0;
+        for (int f : freq) {
+            if (f > 0) {
+                used++;
+            }
+        }
+        if (used < 2) {
+            for (int i = 0; i < freq.length; i++) {
+                if (freq[i] > 0) {
+                    lengths[i] = 1;
+                }
+            }
+            for (int i = 0; i < freq.length && used < 2; i++) {
+                if (lengths[i] == 0) {
+                    lengths[i] = 1;
+                    used++;
+                }
+            }
+            return lengths;
+        }
+
+        long[] weights = new long[freq.length];
+        for (int i = 0; i < freq.length; i++) {
+            weights[i] = freq[i];
+        }
+        while (true) {
+            int maxLength = buildTree(weights, lengths);
+            if (maxLength <= maxBits) {
+                return lengths;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] > 0) {
+                    weights[i] = Math.max(1, weights[i] >> 1);
+                }
+            }
+        }
+    }
+
+    // Two-queue Huffman construction over the symbols with non-zero weight.
+    private static int buildTree(long[] weights, int[] lengths) {
+        int n = 0;
+        long[] keys = new long[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                // Weight in the high bits, symbol in the low ones, so one sort
+                keys[n++] = (weights[i] << 16) | i;
+            }
+        }
+        Arrays.sort(keys, 0, n);
+        long[] weight = new long[2 * n - 1];
+        int[] parent = new int[2 * n - 1];
+        for (int i = 0; i < n; i++) {
+            weight[i] = keys[i] >>> 16;
+        }
+        int leaf = 0;
+        int node = n;
+        for (int next = n; next < 2 * n - 1; next++) {
+            int a = leaf < n && (node >= next || weight[leaf] <= weight[node]) ? leaf++ : node++;
+            int b = leaf < n && (node >= next || weight[leaf] <= weight[node]) ? leaf++ : node++;
+            weight[next] = weight[a] + weight[b];
+            parent[a] = next;
+            parent[b] = next;
+        }
+        int[] depth = new int[2 * n - 1];
+        int maxLength = 0;
+        for (int i = 2 * n - 3; i >= 0; i--) {
+            depth[i] = depth[parent[i]] + 1;
+        }
+        Arrays.fill(lengths, 0);
+        for (int i = 0; i < n; i++) {
+            lengths[(int) (keys[i] & 0xFFFF)] = depth[i];
+            maxLength = Math.max(maxLength, depth[i]);
+        }
+        return maxLength;
+    }
+
+    // Canonical codes for the lengths, bit-reversed for LSB-first output.
+    private static int[] codes(int[] lengths) {
+        int[] count = new int[16];
+        for (int length : lengths) {
+            count[length]++;
+        }
+        count[0] = 0;
+        int[] next = new int[16];
+        int code = 0;
+        for (int bits = 1; bits < 16; bits++) {
+            code = (code + count[bits - 1]) << 1;
+            next[bits] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i];
+            if (length > 0) {
+                codes[i] = Integer.reverse(next[length]++) >>> (32 - length);
+            }
+        }
+        return codes;
+    }
+
+    private static int distCode(int dist) {
+        int d = dist - 1;
+        return DIST_CODE[d < 256 ? d : 256 + (d >> 7)];
+    }
+
+    private static int read32(byte[] b, int p) {
+        return (b[p] & 0xFF) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF) << 16 | (b[p + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private void writeBits(int value, int count) {
+        bits |= (long) value << bitCount;
+        bitCount += count;
+        if (bitCount >= 32) {
+            out[outLength++] = (byte) bits;
+            out[outLength++] = (byte) (bits >>> 8);
+            out[outLength++] = (byte) (bits >>> 16);
+            out[outLength++] = (byte) (bits >>> 24);
+            bits >>>= 32;
+            bitCount -= 32;
+        }
+    }
+
+    private void alignToByte() {
+        while (bitCount > 0) {
+            out[outLength++] = (byte) bits;
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+        bits = 0;
+        bitCount = 0;
+    }
+
+    private void ensure(int bytes) {
+        if (outLength + bytes + 8 > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + bytes + 8));
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+// The files to compress, found in a single scan. Each directory is listed
+// once, with every child's attributes read in the same pass, on a small pool
+// that runs ahead of the consumer: as soon as a listing finishes, its
+// subdirectories are queued. iterator() walks the tree in order (a
+// directory's files, then its subdirectories) and only blocks on listings
+// that are not done yet, so compression can start while the scan continues.
+// The walk is meant for one consumer thread.
+public class FileManifest implements Iterable<FileManifest.Entry>, Closeable {
+    static final int SCAN_THREADS = 8;
+
+    // Windows keeps the hidden flag in the DOS attributes; elsewhere hidden
+    // means a leading dot, as in File.isHidden()
+    private static final boolean DOS_HIDDEN = File.separatorChar == '\\';
+
+    public static class Entry {
+        private final File file;
+        private final String name;
+        private final long size;
+        private final long lastModified;
+
+        Entry(File file, String name, long size, long lastModified) {
+            this.file = file;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        // Entry name relative to the root, with '/' separators.
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static class Listing {
+        final List<Entry> files;
+        final List<Future<Listing>> directories;
+
+        Listing(List<Entry> files, List<Future<Listing>> directories) {
+            this.files = files;
+            this.directories = directories;
+        }
+    }
+
+    private final File root;
+    private final boolean includeSubdirs;
+    private final EntryFilter filter;
+    private final LongConsumer scanned;
+    private final LongAdder scannedSize = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private long waitNanos;
+    private final ExecutorService pool;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Deque<Iterator<Future<Listing>>> pending = new ArrayDeque<>();
+    private Iterator<Entry> currentFiles = Collections.emptyIterator();
+    private boolean complete;
+
+    private FileManifest(File source, CompressionOptions options, LongConsumer scanned) {
+        this.includeSubdirs = options.isIncludeSubdirs();
+        this.filter = EntryFilter.compile(options);
+        this.scanned = scanned != null ? scanned : bytes -> { };
+
+        if (source.isDirectory()) {
+            this.root = source;
+            AtomicInteger threadId = new AtomicInteger();
+            this.pool = Executors.newFixedThreadPool(SCAN_THREADS, r -> {
+                Thread t = new Thread(r, "zip-scan-" + threadId.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            pending.push(Collections.singletonList(submit(source.toPath(), "")).iterator());
+        } else {
+            this.root = source.getAbsoluteFile().getParentFile();
+            this.pool = null;
+            String name = source.getName();
+            if (source.isFile() && filter.includeFile(name, name, source.length(), source.lastModified(),
+                    source.isHidden())) {
+                Entry entry = new Entry(source, name, source.length(), source.lastModified());
+                currentFiles = Collections.singletonList(entry).iterator();
+                add(entry.size);
+            }
+        }
+    }
+
+    // Starts scanning source; scanned receives the size of each batch of
+    // files found, from the scanning threads, e.g. to grow a progress total.
+    public static FileManifest scan(File source, CompressionOptions options, LongConsumer scanned) {
+        return new FileManifest(source, options, scanned);
+    }
+
+    // The directory entry names are relative to.
+    public File getRoot() {
+        return root;
+    }
+
+    // Total size of the files found so far.
+    public long getScannedSize() {
+        return scannedSize.sum();
+    }
+
+    // Time the scanning threads spent listing directories, added up.
+    public long getScanNanos() {
+        return scanNanos.sum();
+    }
+
+    // Time the consumer spent waiting for listings that were not done yet.
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    // Finishes the walk and returns every entry in order.
+    public List<Entry> getEntries() {
+        while (walkNext() != null) {
+            // keep walking
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    // Finishes the walk and returns the total size of all entries.
+    public long getTotalSize() {
+        getEntries();
+        return scannedSize.sum();
+    }
+
+    // Entries already walked come from memory; the rest of the walk follows
+    // the scan, waiting for directories that are still being listed.
+    @Override
+    public Iterator<Entry> iterator() {
+        return new Iterator<Entry>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < entries.size() || walkNext() != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entries.get(index++);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    // Advances the walk by one file and records it, or returns null at the end.
+    private Entry walkNext() {
+        while (!complete) {
+            if (currentFiles.hasNext()) {
+                Entry entry = currentFiles.next();
+                entries.add(entry);
+                return entry;
+            }
+            Iterator<Future<Listing>> directories = pending.peek();
+            if (directories == null) {
+                complete = true;
+                close();
+            } else if (directories.hasNext()) {
+                Future<Listing> next = directories.next();
+                long start = next.isDone() ? 0 : System.nanoTime();
+                Listing listing = await(next);
+                if (start != 0) {
+                    waitNanos += System.nanoTime() - start;
+                }
+                currentFiles = listing.files.iterator();
+                if (!listing.directories.isEmpty()) {
+                    pending.push(listing.directories.iterator());
+                }
+            } else {
+                pending.pop();
+            }
+        }
+        return null;
+    }
+
+    private Future<Listing> submit(Path directory, String prefix) {
+        return pool.submit(() -> list(directory, prefix));
+    }
+
+    // Lists one directory. Unreadable directories and files that vanish
+    // mid-scan are skipped, as listFiles() would, and so are subdirectories
+    // the filter excludes, without being listed.
+    private Listing list(Path directory, String prefix) {
+        long start = System.nanoTime();
+        List<Entry> files = new ArrayList<>();
+        List<Future<Listing>> directories = new ArrayList<>();
+        long size = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = DOS_HIDDEN
+                            ? Files.readAttributes(path, DosFileAttributes.class)
+                            : Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attributes.isDirectory()) {
+                    String directoryPath = prefix + name + "/";
+                    if (includeSubdirs && filter.includeDirectory(directoryPath)) {
+                        directories.add(submit(path, directoryPath));
+                    }
+                    continue;
+                }
+                boolean hidden = DOS_HIDDEN ? ((DosFileAttributes) attributes).isHidden() : name.startsWith(".");
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                String filePath = prefix + name;
+                if (filter.includeFile(filePath, name, attributes.size(), lastModified, hidden)) {
+                    files.add(new Entry(path.toFile(), filePath, attributes.size(), lastModified));
+                    size += attributes.size();
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable directory: nothing to add
+        }
+        add(size);
+        scanNanos.add(System.nanoTime() - start);
+        return new Listing(files, directories);
+    }
+
+    private void add(long size) {
+        scannedSize.add(size);
+        scanned.accept(size);
+    }
+
+    private static Listing await(Future<Listing> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Scan interrupted"));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// JDK Flight Recorder events for the engine's phases, entries, chunks and
+// stalls, so a recording shows where a slow job spent its time next to the
+// JVM's own GC and I/O events. The events are defined at run time through
+// jdk.jfr.EventFactory, which exists from Java 9 on while this code builds
+// for Java 8, so everything is looked up by reflection. Defining the
+// events takes a few hundred milliseconds, so that waits for Flight
+// Recorder to be started, at launch or later through jcmd. Without JFR, or
+// while no recording has an event enabled, begin() returns null and
+// commit() ignores it.
+final class FlightEvents {
+    private static final Method IS_INITIALIZED = isInitializedMethod();
+    private static volatile boolean started;
+
+    private static final String CATEGORY = "Enhanced ZIP Utility";
+
+    enum Type {
+        PHASE("Phase", "ZIP Phase", null,
+                field(String.class, "operation"), field(String.class, "archive"), field(String.class, "phase")),
+        ENTRY("Entry", "ZIP Entry", null,
+                field(String.class, "operation"), field(String.class, "name"), field(String.class, "codec"),
+                field(long.class, "bytesIn"), field(long.class, "bytesOut")),
+        CHUNK("Chunk", "ZIP Chunk Compressed", null,
+                field(String.class, "entry"), field(String.class, "codec"), field(long.class, "offset"),
+                field(long.class, "bytesIn"), field(long.class, "bytesOut")),
+        // Only waits of a millisecond or more are recorded, unless the
+        // recording's settings say otherwise
+        STALL("Stall", "ZIP Stall", "1 ms",
+                field(String.class, "operation"), field(String.class, "reason"));
+
+        final String name;
+        final String label;
+        final String threshold;
+        final Object[][] fields;
+        Object factory;
+
+        Type(String name, String label, String threshold, Object[]... fields) {
+            this.name = name;
+            this.label = label;
+            this.threshold = threshold;
+            this.fields = fields;
+        }
+    }
+
+    private FlightEvents() {
+    }
+
+    static boolean isAvailable() {
+        return IS_INITIALIZED != null && Support.NEW_EVENT != null;
+    }
+
+    // A started event of the type, or null if it would not be recorded.
+    static Object begin(Type type) {
+        if (!isStarted() || Support.NEW_EVENT == null) {
+            return null;
+        }
+        try {
+            Object event = Support.NEW_EVENT.invoke(type.factory);
+            if (!(Boolean) Support.IS_ENABLED.invoke(event)) {
+                return null;
+            }
+            Support.BEGIN.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Ends the event begun by begin() and records it with the values of its
+    // fields, in the order the type declares them.
+    static void commit(Object event, Object... values) {
+        if (event == null) {
+            return;
+        }
+        try {
+            Support.END.invoke(event);
+            for (int i = 0; i < values.length; i++) {
+                Support.SET.invoke(event, i, values[i]);
+            }
+            Support.COMMIT.invoke(event);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Lost for the recording; the job goes on
+        }
+    }
+
+    private static boolean isStarted() {
+        if (!started && IS_INITIALIZED != null) {
+            try {
+                started = (Boolean) IS_INITIALIZED.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return false;
+            }
+        }
+        return started;
+    }
+
+    private static Method isInitializedMethod() {
+        try {
+            return Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static Object[] field(Class<?> type, String name) {
+        return new Object[] {type, name};
+    }
+
+    // Looked up and the event types created once; NEW_EVENT is null unless
+    // all of it worked.
+    private static final class Support {
+        static final Method NEW_EVENT;
+        static final Method IS_ENABLED;
+        static final Method BEGIN;
+        static final Method END;
+        static final Method SET;
+        static final Method COMMIT;
+
+        static {
+            Method newEvent = null;
+            Method isEnabled = null;
+            Method begin = null;
+            Method end = null;
+            Method set = null;
+            Method commit = null;
+            try {
+                Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+                Class<?> element = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                Constructor<?> newElement = element.getConstructor(Class.class, Object.class);
+                Constructor<?> newDescriptor = descriptor.getConstructor(Class.class, String.class);
+                Method create = factory.getMethod("create", List.class, List.class);
+                Method register = factory.getMethod("register");
+                for (Type type : Type.values()) {
+                    List<Object> annotations = new ArrayList<>(Arrays.asList(
+                            newElement.newInstance(annotation("jdk.jfr.Name"), "EnhancedZip." + type.name),
+                            newElement.newInstance(annotation("jdk.jfr.Label"), type.label),
+                            newElement.newInstance(annotation("jdk.jfr.Category"), new String[] {CATEGORY}),
+                            // Would only show the reflective call to commit()
+                            newElement.newInstance(annotation("jdk.jfr.StackTrace"), false)));
+                    if (type.threshold != null) {
+                        annotations.add(newElement.newInstance(annotation("jdk.jfr.Threshold"), type.threshold));
+                    }
+                    List<Object> fields = new ArrayList<>();
+                    for (Object[] field : type.fields) {
+                        fields.add(newDescriptor.newInstance(field[0], field[1]));
+                    }
+                    type.factory = create.invoke(null, annotations, fields);
+                    register.invoke(type.factory);
+                }
+                newEvent = factory.getMethod("newEvent");
+                isEnabled = event.getMethod("isEnabled");
+                begin = event.getMethod("begin");
+                end = event.getMethod("end");
+                set = event.getMethod("set", int.class, Object.class);
+                commit = event.getMethod("commit");
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                newEvent = null;
+            }
+            NEW_EVENT = newEvent;
+            IS_ENABLED = isEnabled;
+            BEGIN = begin;
+            END = end;
+            SET = set;
+            COMMIT = commit;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return (Class<? extends Annotation>) Class.forName(name);
+        }
+    }
+}
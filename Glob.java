@@ -0,0 +1,65 @@
+import java.util.regex.Pattern;
+
+// Converts path globs to regular expressions. '*' and '?' stay within one
+// path segment, '**' crosses segments, and '[...]' is a character class.
+// Paths always use '/' as the separator, as ZIP entry names do.
+public final class Glob {
+    private Glob() {
+    }
+
+    public static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0;
+    }
+
+    public static Pattern compile(String glob, boolean ignoreCase) {
+        StringBuilder regex = new StringBuilder("^");
+        int length = glob.length();
+        for (int i = 0; i < length; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < length && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < length && glob.charAt(i + 1) == '/') {
+                            // "**/" also matches no directories at all
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int close = glob.indexOf(']', i + 1);
+                    if (close < 0) {
+                        regex.append("\\[");
+                    } else {
+                        String body = glob.substring(i + 1, close);
+                        if (body.startsWith("!")) {
+                            body = "^" + body.substring(1);
+                        }
+                        regex.append('[').append(body.replace("\\", "\\\\")).append(']');
+                        i = close;
+                    }
+                    break;
+                case '\\':
+                    if (i + 1 < length) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    if ("().+^$|{}".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        regex.append('$');
+        return Pattern.compile(regex.toString(), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+    }
+}
@@ -0,0 +1,80 @@
+import java.nio.ByteBuffer;
+
+// Tunables for the copy loops used by compression, extraction and
+// verification.
+public class IoSettings {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private boolean directBuffers = true;
+    private boolean transferTo = true;
+    private boolean memoryMapped = true;
+    private boolean preallocate = true;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public IoSettings setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(4096, bufferSize);
+        return this;
+    }
+
+    // Use off-heap buffers where data moves between channels.
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public IoSettings setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    // Copy stored entries into the archive with FileChannel.transferTo.
+    public boolean isTransferTo() {
+        return transferTo;
+    }
+
+    public IoSettings setTransferTo(boolean transferTo) {
+        this.transferTo = transferTo;
+        return this;
+    }
+
+    // Let the codec deflate large files straight from a mapping of them.
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public IoSettings setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    // Size extracted files up front, which lets the file system lay them
+    // out in one piece.
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public IoSettings setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+        return this;
+    }
+
+    public ByteBuffer allocate() {
+        return directBuffers ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    // The calling thread's cleared buffer, reused across entries because
+    // direct buffers are expensive to allocate and only freed by the GC.
+    public ByteBuffer buffer() {
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != directBuffers) {
+            buffer = allocate();
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
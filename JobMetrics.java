@@ -0,0 +1,368 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Numbers for one compression, extraction or verification: how long each
+// phase took, bytes in and out, CPU time per codec, how deep the queue of
+// chunks waiting to be written got, and how long threads stalled waiting
+// for each other. Updated from any thread with plain counter adds. Written
+// out as JSON by writeJson(), summed into the process totals shown over
+// JMX (ZipMetricsMXBean), and mirrored as Flight Recorder events.
+public class JobMetrics {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final Totals TOTALS = new Totals();
+
+    // Times a phase of the job; end() adds it up and records the event.
+    public final class Phase {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final Object event = FlightEvents.begin(FlightEvents.Type.PHASE);
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public void end() {
+            addPhase(name, System.nanoTime() - start);
+            FlightEvents.commit(event, operation, archive, name);
+        }
+    }
+
+    private static final class CodecStats {
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+    }
+
+    private final String operation;
+    private final String archive;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, CodecStats> codecs = new ConcurrentHashMap<>();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final Map<String, LongAdder> stalls = new ConcurrentHashMap<>();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final LongAdder queueDepthSum = new LongAdder();
+    private final LongAdder queueSamples = new LongAdder();
+    private volatile long archiveBytes = -1;
+    private volatile long elapsedNanos = -1;
+    private volatile String outcome = "running";
+
+    public JobMetrics(String operation, String archive) {
+        this.operation = operation;
+        this.archive = archive;
+    }
+
+    // Registers the process totals with the platform MBean server, once.
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(TOTALS,
+                    new ObjectName("EnhancedZipUtility:type=Metrics"));
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered already
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // CPU time of the calling thread in nanoseconds, where the JVM can
+    // measure it, else its wall-clock time.
+    static long threadCpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getArchive() {
+        return archive;
+    }
+
+    public Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    // Adds time spent in a phase measured elsewhere, e.g. the scan's.
+    public void addPhase(String name, long nanos) {
+        synchronized (phases) {
+            phases.merge(name, nanos, Long::sum);
+        }
+    }
+
+    public long getPhaseMillis(String name) {
+        synchronized (phases) {
+            return phases.getOrDefault(name, 0L) / 1000000;
+        }
+    }
+
+    // CPU time a codec took to turn bytesIn into bytesOut.
+    public void codec(String name, long cpuNanos, long bytesIn, long bytesOut) {
+        CodecStats stats = codecs.computeIfAbsent(name, n -> new CodecStats());
+        stats.cpuNanos.add(cpuNanos);
+        stats.bytesIn.add(bytesIn);
+        stats.bytesOut.add(bytesOut);
+    }
+
+    // A finished entry: uncompressed and compressed bytes when compressing,
+    // the other way round when extracting.
+    public void entry(long in, long out) {
+        entries.increment();
+        bytesIn.add(in);
+        bytesOut.add(out);
+    }
+
+    public void read(long nanos) {
+        readNanos.add(nanos);
+    }
+
+    public void write(long nanos) {
+        writeNanos.add(nanos);
+    }
+
+    // Time a thread waited on another, by what it waited for.
+    public void stall(String reason, long nanos) {
+        stalls.computeIfAbsent(reason, r -> new LongAdder()).add(nanos);
+    }
+
+    public void queueDepth(int depth) {
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+        queueDepthSum.add(depth);
+        queueSamples.increment();
+    }
+
+    public void setArchiveBytes(long archiveBytes) {
+        this.archiveBytes = archiveBytes;
+    }
+
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getElapsedMillis() {
+        long nanos = elapsedNanos;
+        return (nanos >= 0 ? nanos : System.nanoTime() - startNanos) / 1000000;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    // Ends the job ("completed", "failed" or "cancelled") and adds it to the
+    // process totals.
+    public void finish(String outcome) {
+        if (elapsedNanos >= 0) {
+            return;
+        }
+        this.elapsedNanos = System.nanoTime() - startNanos;
+        this.outcome = outcome;
+        TOTALS.add(this);
+    }
+
+    // One line for the log: the phases, then where the CPU time went.
+    public String getSummary() {
+        StringBuilder line = new StringBuilder();
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                line.append(line.length() == 0 ? "Phases: " : ", ")
+                        .append(phase.getKey()).append(' ').append(seconds(phase.getValue()));
+            }
+        }
+        for (Map.Entry<String, CodecStats> codec : new TreeMap<>(codecs).entrySet()) {
+            line.append(line.length() == 0 ? "" : "; ").append(codec.getKey()).append(" CPU ")
+                    .append(seconds(codec.getValue().cpuNanos.sum()));
+        }
+        for (Map.Entry<String, LongAdder> stall : new TreeMap<>(stalls).entrySet()) {
+            line.append(line.length() == 0 ? "" : "; ").append("waited ")
+                    .append(seconds(stall.getValue().sum())).append(" for ").append(stall.getKey());
+        }
+        return line.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        property(json, "operation", quote(operation));
+        property(json, "archive", archive != null ? quote(archive) : "null");
+        property(json, "outcome", quote(outcome));
+        property(json, "startTime", quote(Instant.ofEpochMilli(startMillis).toString()));
+        property(json, "elapsedMillis", getElapsedMillis());
+        property(json, "entries", entries.sum());
+        property(json, "bytesIn", bytesIn.sum());
+        property(json, "bytesOut", bytesOut.sum());
+        property(json, "archiveBytes", archiveBytes);
+        Map<String, Object> phaseMillis = new LinkedHashMap<>();
+        synchronized (phases) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                phaseMillis.put(phase.getKey(), phase.getValue() / 1000000);
+            }
+        }
+        property(json, "phasesMillis", object(phaseMillis, "    "));
+        Map<String, Object> codecJson = new TreeMap<>();
+        for (Map.Entry<String, CodecStats> codec : codecs.entrySet()) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("cpuMillis", codec.getValue().cpuNanos.sum() / 1000000);
+            stats.put("bytesIn", codec.getValue().bytesIn.sum());
+            stats.put("bytesOut", codec.getValue().bytesOut.sum());
+            codecJson.put(codec.getKey(), object(stats, "      "));
+        }
+        property(json, "codecs", object(codecJson, "    "));
+        property(json, "readMillis", readNanos.sum() / 1000000);
+        property(json, "writeMillis", writeNanos.sum() / 1000000);
+        Map<String, Object> stallMillis = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> stall : stalls.entrySet()) {
+            stallMillis.put(stall.getKey(), stall.getValue().sum() / 1000000);
+        }
+        property(json, "stallsMillis", object(stallMillis, "    "));
+        long samples = queueSamples.sum();
+        property(json, "maxQueueDepth", maxQueueDepth.get());
+        json.append("  \"averageQueueDepth\": ")
+                .append(samples > 0 ? hundredths(queueDepthSum.sum() * 100 / samples) : "0")
+                .append("\n}\n");
+        return json.toString();
+    }
+
+    public void writeJson(File file) throws IOException {
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void property(StringBuilder json, String name, Object value) {
+        json.append("  ").append(quote(name)).append(": ").append(value).append(",\n");
+    }
+
+    private static String object(Map<String, Object> values, String indent) {
+        if (values.isEmpty()) {
+            return "{}";
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            json.append(json.length() > 1 ? "," : "").append('\n').append(indent)
+                    .append(quote(value.getKey())).append(": ").append(value.getValue());
+        }
+        return json.append('\n').append(indent, 0, indent.length() - 2).append('}').toString();
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // By hand, as String.format() would load the locale data
+    private static String seconds(long nanos) {
+        return hundredths(nanos / 10000000) + " s";
+    }
+
+    private static String hundredths(long value) {
+        long fraction = value % 100;
+        return value / 100 + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    private static final class Totals implements ZipMetricsMXBean {
+        private final LongAdder jobs = new LongAdder();
+        private final LongAdder failedJobs = new LongAdder();
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder stallNanos = new LongAdder();
+        private final Map<String, LongAdder> cpuNanos = new ConcurrentHashMap<>();
+        private volatile JobMetrics lastJob;
+
+        void add(JobMetrics job) {
+            jobs.increment();
+            if (!"completed".equals(job.outcome)) {
+                failedJobs.increment();
+            }
+            entries.add(job.entries.sum());
+            bytesIn.add(job.bytesIn.sum());
+            bytesOut.add(job.bytesOut.sum());
+            for (LongAdder stall : job.stalls.values()) {
+                stallNanos.add(stall.sum());
+            }
+            for (Map.Entry<String, CodecStats> codec : job.codecs.entrySet()) {
+                cpuNanos.computeIfAbsent(codec.getKey(), n -> new LongAdder()).add(codec.getValue().cpuNanos.sum());
+            }
+            lastJob = job;
+        }
+
+        @Override
+        public long getJobs() {
+            return jobs.sum();
+        }
+
+        @Override
+        public long getFailedJobs() {
+            return failedJobs.sum();
+        }
+
+        @Override
+        public long getEntries() {
+            return entries.sum();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        @Override
+        public Map<String, Long> getCpuMillisByCodec() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, LongAdder> codec : cpuNanos.entrySet()) {
+                result.put(codec.getKey(), codec.getValue().sum() / 1000000);
+            }
+            return result;
+        }
+
+        @Override
+        public long getStallMillis() {
+            return stallNanos.sum() / 1000000;
+        }
+
+        @Override
+        public String getLastJob() {
+            JobMetrics job = lastJob;
+            return job != null ? job.toJson() : "";
+        }
+    }
+}
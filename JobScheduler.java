@@ -0,0 +1,353 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs compression and extraction jobs from a bounded priority queue. A job
+// starts only when the CPU threads it asks for are free and fewer than
+// perDisk jobs are using each disk it reads or writes, so a burst of
+// requests waits its turn instead of thrashing the drives. Jobs start in
+// priority order, oldest first within a priority, and one that has to wait
+// holds back later jobs on its disks so it is not overtaken forever.
+// Running jobs are paused and cancelled at the checkpoints the engine calls
+// (ZipListener.checkpoint()); recurring jobs are queued by the timer.
+public class JobScheduler {
+    // Finished jobs kept for display
+    private static final int HISTORY = 50;
+
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    public enum State { QUEUED, RUNNING, PAUSED, COMPLETED, FAILED, CANCELLED }
+
+    public interface Task {
+        void run(Job job) throws Exception;
+    }
+
+    // Told about every state change, on whichever thread made it.
+    public interface Listener {
+        void jobChanged(Job job);
+    }
+
+    public final class Job {
+        private final int id;
+        private final String name;
+        private final Priority priority;
+        private final int threads;
+        private final Set<Object> disks;
+        private final Task task;
+        private volatile State state = State.QUEUED;
+        private volatile boolean paused;
+        private volatile boolean cancelled;
+        private volatile String status = "";
+        private volatile Throwable failure;
+        private Thread thread;
+
+        Job(String name, Priority priority, int threads, Set<Object> disks, Task task) {
+            this.id = nextId.incrementAndGet();
+            this.name = name;
+            this.priority = priority;
+            this.threads = Math.max(1, Math.min(threads, cpuSlots));
+            this.disks = disks;
+            this.task = task;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        // Progress text for display, set by the task.
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isFinished() {
+            return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+        }
+
+        // A running job stops at its next checkpoint and keeps its CPU and
+        // disk slots; a queued one is not started until resumed.
+        public void pause() {
+            synchronized (JobScheduler.this) {
+                if (isFinished() || paused) {
+                    return;
+                }
+                paused = true;
+                state = State.PAUSED;
+            }
+            listener.jobChanged(this);
+        }
+
+        public void resume() {
+            synchronized (JobScheduler.this) {
+                if (!paused) {
+                    return;
+                }
+                paused = false;
+                state = thread != null ? State.RUNNING : State.QUEUED;
+                JobScheduler.this.notifyAll();
+            }
+            listener.jobChanged(this);
+            dispatch();
+        }
+
+        public void cancel() {
+            synchronized (JobScheduler.this) {
+                if (isFinished() || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                JobScheduler.this.notifyAll();
+                if (thread != null) {
+                    // Stopped at its next checkpoint. Not interrupted: that
+                    // would close the archive's channel mid-write instead of
+                    // letting the engine end it after the last whole entry
+                    return;
+                }
+                queue.remove(this);
+                state = State.CANCELLED;
+                trimHistory();
+            }
+            listener.jobChanged(this);
+        }
+
+        // Blocks while the job is paused; throws once it is cancelled.
+        public void checkpoint() throws InterruptedIOException {
+            if (paused) {
+                synchronized (JobScheduler.this) {
+                    while (paused && !cancelled) {
+                        try {
+                            JobScheduler.this.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+            }
+            if (cancelled) {
+                throw new InterruptedIOException("Cancelled: " + name);
+            }
+        }
+    }
+
+    private final int capacity;
+    private final int cpuSlots;
+    private final int perDisk;
+    private final ScheduledExecutorService timer;
+    private final Listener listener;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final TreeSet<Job> queue = new TreeSet<>((a, b) -> a.priority != b.priority
+            ? a.priority.compareTo(b.priority) : Integer.compare(a.id, b.id));
+    private final List<Job> jobs = new ArrayList<>();
+    private final Map<Object, Integer> diskUse = new HashMap<>();
+    private final ExecutorService workers;
+    private int cpuInUse;
+
+    // capacity: queued jobs before submit() refuses more; cpuSlots: threads
+    // shared by running jobs; perDisk: running jobs per disk.
+    public JobScheduler(int capacity, int cpuSlots, int perDisk, ScheduledExecutorService timer,
+                        Listener listener) {
+        this.capacity = capacity;
+        this.cpuSlots = Math.max(1, cpuSlots);
+        this.perDisk = Math.max(1, perDisk);
+        this.timer = timer;
+        this.listener = listener != null ? listener : job -> { };
+        AtomicInteger threadId = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "zip-job-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Queues a job using up to threads CPU threads and the disks holding
+    // paths. Throws RejectedExecutionException when the queue is full.
+    public Job submit(String name, Priority priority, int threads, Collection<File> paths, Task task) {
+        Set<Object> disks = new LinkedHashSet<>();
+        for (File path : paths) {
+            disks.add(diskOf(path));
+        }
+        Job job = new Job(name, priority, threads, disks, task);
+        synchronized (this) {
+            if (queue.size() >= capacity) {
+                throw new RejectedExecutionException("Job queue is full (" + capacity + " waiting)");
+            }
+            queue.add(job);
+            jobs.add(job);
+        }
+        listener.jobChanged(job);
+        dispatch();
+        return job;
+    }
+
+    // Queues the job every period, starting after initialDelay. A repeat is
+    // skipped while the previous one is still queued or running.
+    public ScheduledFuture<?> schedule(String name, Priority priority, int threads, Collection<File> paths,
+                                       Task task, long initialDelay, long period, TimeUnit unit) {
+        Job[] last = new Job[1];
+        return timer.scheduleAtFixedRate(() -> {
+            if (last[0] == null || last[0].isFinished()) {
+                try {
+                    last[0] = submit(name, priority, threads, paths, task);
+                } catch (RejectedExecutionException e) {
+                    // Try again next period
+                }
+            }
+        }, initialDelay, period, unit);
+    }
+
+    // Queued, running and recently finished jobs, in submission order.
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    public void cancelAll() {
+        for (Job job : getJobs()) {
+            job.cancel();
+        }
+    }
+
+    private void dispatch() {
+        List<Job> started = new ArrayList<>();
+        synchronized (this) {
+            // Disks wanted by jobs still waiting, in front of later ones
+            Set<Object> reserved = new HashSet<>();
+            for (Iterator<Job> it = queue.iterator(); it.hasNext(); ) {
+                Job job = it.next();
+                if (job.paused) {
+                    continue;
+                }
+                if (cpuInUse + job.threads > cpuSlots) {
+                    break;
+                }
+                if (!disksFree(job) || !Collections.disjoint(job.disks, reserved)) {
+                    reserved.addAll(job.disks);
+                    continue;
+                }
+                it.remove();
+                cpuInUse += job.threads;
+                for (Object disk : job.disks) {
+                    diskUse.merge(disk, 1, Integer::sum);
+                }
+                job.state = State.RUNNING;
+                started.add(job);
+            }
+        }
+        for (Job job : started) {
+            listener.jobChanged(job);
+            workers.execute(() -> run(job));
+        }
+    }
+
+    private boolean disksFree(Job job) {
+        for (Object disk : job.disks) {
+            if (diskUse.getOrDefault(disk, 0) >= perDisk) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void run(Job job) {
+        synchronized (this) {
+            job.thread = Thread.currentThread();
+        }
+        State end;
+        try {
+            job.checkpoint();
+            job.task.run(job);
+            end = job.cancelled ? State.CANCELLED : State.COMPLETED;
+        } catch (Throwable e) {
+            job.failure = e;
+            end = job.cancelled ? State.CANCELLED : State.FAILED;
+        }
+        synchronized (this) {
+            job.thread = null;
+            job.state = end;
+            cpuInUse -= job.threads;
+            for (Object disk : job.disks) {
+                diskUse.merge(disk, -1, Integer::sum);
+            }
+            trimHistory();
+        }
+        listener.jobChanged(job);
+        dispatch();
+    }
+
+    // Drops the oldest finished jobs beyond the history size.
+    private void trimHistory() {
+        int done = 0;
+        for (Job j : jobs) {
+            if (j.isFinished()) {
+                done++;
+            }
+        }
+        for (Iterator<Job> it = jobs.iterator(); done > HISTORY && it.hasNext(); ) {
+            if (it.next().isFinished()) {
+                it.remove();
+                done--;
+            }
+        }
+    }
+
+    // The file store holding path, or the nearest existing parent's, so a
+    // destination that does not exist yet still maps to its disk.
+    static Object diskOf(File file) {
+        Path path = file.getAbsoluteFile().toPath();
+        Path existing = path;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        try {
+            if (existing != null) {
+                return Files.getFileStore(existing);
+            }
+        } catch (IOException e) {
+            // Fall back to the root below
+        }
+        return path.getRoot();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Decouples log producers (worker threads, one line per entry) from the
+// consumers. Lines waiting for the UI sit in a fixed-size ring buffer that
+// the UI drains in chunks; if the UI falls behind, only the newest lines are
+// kept. Optionally every line is also streamed to a Writer (e.g. a log file)
+// by a background thread, so producers never wait on disk or the EDT.
+public class LogSink implements Closeable {
+    static final int DEFAULT_CAPACITY = 1000;
+
+    private static final String END = new String("<end>");
+
+    private final String[] ring;
+    private int start;
+    private int count;
+    private long omitted;
+
+    private final Writer writer;
+    private final BlockingQueue<String> queue;
+    private final Thread writerThread;
+    private volatile IOException failure;
+
+    // Ring buffer only; capacity is the number of pending lines kept.
+    public LogSink(int capacity) {
+        this(capacity, null);
+    }
+
+    // capacity may be 0 when nobody drains lines and only the writer is used.
+    public LogSink(int capacity, Writer writer) {
+        this.ring = new String[Math.max(0, capacity)];
+        this.writer = writer;
+        if (writer != null) {
+            this.queue = new LinkedBlockingQueue<>(64 * 1024);
+            this.writerThread = new Thread(this::writeLoop, "zip-log-writer");
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+        } else {
+            this.queue = null;
+            this.writerThread = null;
+        }
+    }
+
+    public static LogSink toFile(String path) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path),
+                StandardCharsets.UTF_8), 64 * 1024);
+        return new LogSink(0, writer);
+    }
+
+    public void append(String line) {
+        if (ring.length > 0) {
+            synchronized (ring) {
+                if (count == ring.length) {
+                    ring[start] = line;
+                    start = (start + 1) % ring.length;
+                    omitted++;
+                } else {
+                    ring[(start + count) % ring.length] = line;
+                    count++;
+                }
+            }
+        }
+        if (queue != null && failure == null) {
+            try {
+                // Blocks only if the writer is more than 64k lines behind
+                queue.put(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Removes and returns pending lines as one newline-terminated chunk, or
+    // null when there is nothing new.
+    public String drain() {
+        synchronized (ring) {
+            if (count == 0 && omitted == 0) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            if (omitted > 0) {
+                sb.append("... ").append(omitted).append(" lines omitted ...\n");
+                omitted = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                int index = (start + i) % ring.length;
+                sb.append(ring[index]).append('\n');
+                ring[index] = null;
+            }
+            start = 0;
+            count = 0;
+            return sb.toString();
+        }
+    }
+
+    // Flushes the writer, if any, and stops its thread.
+    @Override
+    public void close() throws IOException {
+        if (writerThread == null) {
+            return;
+        }
+        try {
+            queue.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing log");
+        } finally {
+            writer.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, 4096);
+                for (String line : batch) {
+                    if (line == END) {
+                        writer.flush();
+                        return;
+                    }
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                batch.clear();
+                if (queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+// Memory-mapped reading of large inputs, so zlib deflates straight from the
+// page cache instead of from a heap copy. Deflater only takes ByteBuffers
+// from Java 11 on, and a mapping is normally released only when the GC gets
+// to it, which for a multi-GB file means thousands of mappings left behind;
+// so both Deflater.setInput(ByteBuffer) and an explicit unmap are looked up
+// here, and without either of them callers read into arrays as before.
+final class MappedFiles {
+    // Smaller files are read; mapping them saves nothing worth the syscalls
+    static final long MIN_SIZE = 16L * 1024 * 1024;
+
+    private MappedFiles() {
+    }
+
+    static boolean isAvailable() {
+        return Support.UNMAP != null;
+    }
+
+    static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    // The buffer must not be touched afterwards, by any thread.
+    static void unmap(ByteBuffer buffer) {
+        try {
+            Support.UNMAP.invoke(Support.UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // Left to the GC
+        }
+    }
+
+    static void setInput(Deflater deflater, ByteBuffer input) {
+        invoke(Support.SET_INPUT, deflater, input);
+    }
+
+    static void setDictionary(Deflater deflater, ByteBuffer dictionary) {
+        invoke(Support.SET_DICTIONARY, deflater, dictionary);
+    }
+
+    private static void invoke(Method method, Deflater deflater, ByteBuffer buffer) {
+        try {
+            method.invoke(deflater, buffer);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Looked up once; UNMAP is null unless everything is there.
+    private static final class Support {
+        static final Method SET_INPUT;
+        static final Method SET_DICTIONARY;
+        static final Object UNSAFE;
+        static final Method UNMAP;
+
+        static {
+            Method setInput = null;
+            Method setDictionary = null;
+            Object unsafe = null;
+            Method unmap = null;
+            try {
+                setInput = Deflater.class.getMethod("setInput", ByteBuffer.class);
+                setDictionary = Deflater.class.getMethod("setDictionary", ByteBuffer.class);
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                unmap = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                unmap = null;
+            }
+            SET_INPUT = setInput;
+            SET_DICTIONARY = setDictionary;
+            UNSAFE = unsafe;
+            UNMAP = unmap;
+        }
+    }
+}
@@ -0,0 +1,753 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+// Deflates entries on a worker pool and stitches the results into a single
+// archive in submission order. Files larger than the chunk size are split into
+// chunks that are deflated independently (each primed with the previous 32 KB
+// as a preset dictionary) and joined with sync-flush boundaries, pigz style.
+// The Codec decides how chunks are compressed; deflate is the default.
+// Entries that are stored rather than deflated only have their CRC computed
+// on the pool; the writer then copies the file straight into the archive.
+// With a password, each chunk is encrypted on the pool right after it is
+// deflated; the chunks of one entry are encrypted in order, each stage
+// waiting only for the previous chunk's, so encryption overlaps with the
+// deflating of later chunks.
+// With deduplication, a file identical to one already submitted is not
+// compressed again: its entry reuses the earlier entry's compressed data. A
+// file that shares its size with an earlier one is hashed on the pool, and
+// its chunks are only compressed once the hash shows it is new.
+// In adaptive mode, AdaptiveLevel picks each file's level, or stores it,
+// from a sample read on the pool by the file's first task.
+// Small files are batched: consecutive ones, up to a chunk's worth, go to
+// the pool as a single task that reads, compresses and encrypts each in
+// turn and hands the writer all of their entries at once, so a tree of
+// tiny files costs one task and one future per batch rather than per file.
+// Each still becomes an ordinary entry of its own.
+// JobMetrics receives the read, codec CPU and write times, how many chunks
+// were waiting to be written and how long the writer waited for the pool.
+public class ParallelZipCompressor {
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    // Most files in a batch
+    private static final int BATCH_FILES = 256;
+    // Codec name in the metrics for entries stored as they are
+    static final String STORED_NAME = "stored";
+
+    // Called on the thread that called compress(); throwing stops the job.
+    public interface Listener {
+        void bytesProcessed(long count) throws IOException;
+        // note says how the entry was compressed in adaptive mode, else null
+        void entryWritten(String name, String note) throws IOException;
+    }
+
+    private final int threads;
+    private final int level;
+    private final int chunkSize;
+    private IoSettings io = new IoSettings();
+    private boolean autoStore = true;
+    private Codec codec;
+    // Per level, for adaptive mode; index level + 1
+    private final Codec[] levelCodecs = new Codec[11];
+    private AdaptiveLevel adaptive;
+    private boolean deduplicate;
+    private int duplicateCount;
+    private long duplicateBytes;
+    private EntryState state;
+    private JobMetrics metrics = new JobMetrics("compress", null);
+
+    public ParallelZipCompressor(int threads, int level) {
+        this(threads, level, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelZipCompressor(int threads, int level, int chunkSize) {
+        this.threads = Math.max(1, threads);
+        this.level = level;
+        this.chunkSize = Math.max(DICTIONARY_SIZE, chunkSize);
+        this.codec = Codec.forName(Codec.DEFLATE_NAME, level);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setIoSettings(IoSettings io) {
+        this.io = io;
+    }
+
+    // Store files that StorePolicy recognises as already compressed.
+    public void setAutoStore(boolean autoStore) {
+        this.autoStore = autoStore;
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    // Picks each entry's level from a sample of the file; null to use the
+    // codec as set.
+    public void setAdaptive(AdaptiveLevel adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    // Needs a writer that canDuplicate(); ignored otherwise.
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    public void setMetrics(JobMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    // Uncompressed size of the duplicates, which were not compressed again.
+    public long getDuplicateBytes() {
+        return duplicateBytes;
+    }
+
+    // Compresses the files into the writer in iteration order, so a
+    // FileManifest that is still scanning can be passed in directly. With a
+    // password, entries are encrypted with WinZip AES.
+    public void compress(Iterable<FileManifest.Entry> files, ZipArchiveWriter writer,
+                         String password, Listener listener) throws IOException {
+        WinZipAes.KeyDeriver keys = password != null && !password.isEmpty()
+                ? new WinZipAes.KeyDeriver(password) : null;
+        AtomicInteger threadId = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "zip-deflate-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int window = threads * 2;
+        ArrayDeque<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+        // Entries are written in order, so each one's index is known now
+        DedupIndex dedup = deduplicate && writer.canDuplicate() ? new DedupIndex(pool, io) : null;
+        int index = writer.getEntryCount();
+        // Small files waiting to go to the pool together, and their size
+        List<ChunkTask> batch = new ArrayList<>();
+        long batchSize = 0;
+        try {
+            for (FileManifest.Entry source : files) {
+                File file = source.getFile();
+                ZipEntry entry = new ZipEntry(source.getName());
+                entry.setTime(source.getLastModified());
+
+                // Set if the file may be a duplicate, until its hash says
+                CompletableFuture<Integer> duplicateOf = dedup != null
+                        ? dedup.find(file, source.getSize(), index++) : null;
+
+                boolean store = StorePolicy.shouldStore(file.getName(), level, autoStore);
+                Codec entryCodec = store ? null : codec;
+                // In adaptive mode, chosen on the pool from a sample
+                boolean sample = !store && adaptive != null;
+                long length = source.getSize();
+                if (length < smallFileSize()) {
+                    // Read whole in the batch, stored or not, so the writer
+                    // has its data in memory
+                    setMethod(entry, entryCodec, keys);
+                    entry.setSize(length);
+                    ChunkTask task = new ChunkTask(file, entry, entryCodec, 0, (int) length, true, true, null);
+                    task.duplicateOf = duplicateOf;
+                    task.sample = sample;
+                    batch.add(task);
+                    batchSize += length;
+                    if (batch.size() >= BATCH_FILES || batchSize >= chunkSize) {
+                        queue(submitBatch(pool, batch, keys), pending, window, writer, listener);
+                        batch = new ArrayList<>();
+                        batchSize = 0;
+                    }
+                    continue;
+                }
+                if (!batch.isEmpty()) {
+                    queue(submitBatch(pool, batch, keys), pending, window, writer, listener);
+                    batch = new ArrayList<>();
+                    batchSize = 0;
+                }
+                if (duplicateOf == null && !sample) {
+                    List<CompletableFuture<Chunk>> chunks = submitEntry(pool, file, entry, entryCodec, null, length,
+                            keys, false);
+                    for (CompletableFuture<Chunk> chunk : chunks) {
+                        queue(chunk, pending, window, writer, listener);
+                    }
+                    continue;
+                }
+                // The chunks are only submitted once the pool has hashed the
+                // file and found it new, or sampled it and chosen its codec.
+                // Until then the writer gets a slot for each chunk there may
+                // be; a duplicate, or a file stored as it is, fills the first
+                // and leaves the others empty
+                CompletableFuture<List<CompletableFuture<Chunk>>> work;
+                if (duplicateOf == null) {
+                    work = submit(pool, () -> submitSampled(pool, file, entry, length, keys));
+                } else {
+                    Codec configured = entryCodec;
+                    work = duplicateOf.thenCompose(original -> original >= 0
+                            ? CompletableFuture.completedFuture(Collections.singletonList(
+                                    CompletableFuture.completedFuture(new Chunk(entry, original, length))))
+                            : sample ? submit(pool, () -> submitSampled(pool, file, entry, length, keys))
+                            : CompletableFuture.completedFuture(
+                                    submitEntry(pool, file, entry, configured, null, length, keys, false)));
+                }
+                long slots = store && keys == null ? 1 : chunkCount(length);
+                for (long i = 0; i < slots; i++) {
+                    long slot = i;
+                    queue(work.thenCompose(chunks -> slot < chunks.size() ? chunks.get((int) slot)
+                            : CompletableFuture.completedFuture(null)), pending, window, writer, listener);
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue(submitBatch(pool, batch, keys), pending, window, writer, listener);
+            }
+            while (!pending.isEmpty()) {
+                writeChunks(next(pending), writer, listener);
+            }
+        } finally {
+            for (CompletableFuture<Chunk> future : pending) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    // Files below this size are batched.
+    private int smallFileSize() {
+        return chunkSize / 16;
+    }
+
+    private long chunkCount(long length) {
+        return Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    // Submits a file that is not batched: only its CRC if it is stored
+    // unencrypted, else each of its chunks, encrypted in order with a
+    // password. The futures are in the order the writer takes them. With
+    // here, for a caller on the pool, the first one runs on the calling
+    // thread once the others have been submitted.
+    private List<CompletableFuture<Chunk>> submitEntry(ExecutorService pool, File file, ZipEntry entry,
+                                                       Codec entryCodec, String note, long length,
+                                                       WinZipAes.KeyDeriver keys, boolean here) {
+        if (entryCodec == null && keys == null) {
+            Callable<Chunk> checksum = () -> checksum(file, entry, note);
+            if (!here) {
+                return Collections.singletonList(submit(pool, checksum));
+            }
+            CompletableFuture<Chunk> chunk = new CompletableFuture<>();
+            complete(chunk, checksum);
+            return Collections.singletonList(chunk);
+        }
+        setMethod(entry, entryCodec, keys);
+        // Tells the writer whether the entry needs ZIP64 headers
+        entry.setSize(length);
+        long chunkCount = chunkCount(length);
+        List<CompletableFuture<Chunk>> chunks = new ArrayList<>();
+        CompletableFuture<Chunk> first = null;
+        ChunkTask firstTask = null;
+        CompletableFuture<Chunk> previous = null;
+        for (long i = 0; i < chunkCount; i++) {
+            long offset = i * chunkSize;
+            int len = (int) Math.min(chunkSize, length - offset);
+            boolean last = i == chunkCount - 1;
+            ChunkTask task = new ChunkTask(file, entry, entryCodec, offset, len, i == 0, last, note);
+            CompletableFuture<Chunk> chunk;
+            if (i == 0 && here) {
+                firstTask = task;
+                chunk = first = new CompletableFuture<>();
+            } else {
+                chunk = submit(pool, task::deflate);
+            }
+            if (keys != null) {
+                chunk = previous == null
+                        ? chunk.thenApplyAsync(c -> encrypt(c, keys.newEncryptor()), pool)
+                        : chunk.thenCombineAsync(previous, (c, p) -> encrypt(c, p.encryptor), pool);
+                previous = chunk;
+            }
+            chunks.add(chunk);
+        }
+        if (firstTask != null) {
+            complete(first, firstTask::deflate);
+        }
+        return chunks;
+    }
+
+    // The first task of a large file in adaptive mode: samples it to choose
+    // its codec, submits its later chunks and compresses the first.
+    private List<CompletableFuture<Chunk>> submitSampled(ExecutorService pool, File file, ZipEntry entry,
+                                                         long length, WinZipAes.KeyDeriver keys) throws IOException {
+        AdaptiveLevel.Choice choice = adaptive.choose(file, length);
+        Codec entryCodec = choice == AdaptiveLevel.Choice.STORED ? null : codecFor(adaptive.levelFor(choice));
+        return submitEntry(pool, file, entry, entryCodec, choice.toString(), length, keys, true);
+    }
+
+    // As submitSampled, for a file in a batch.
+    private ChunkTask sampled(ChunkTask task, WinZipAes.KeyDeriver keys) throws IOException {
+        AdaptiveLevel.Choice choice = adaptive.choose(task.file, task.length);
+        Codec entryCodec = choice == AdaptiveLevel.Choice.STORED ? null : codecFor(adaptive.levelFor(choice));
+        setMethod(task.entry, entryCodec, keys);
+        return new ChunkTask(task.file, task.entry, entryCodec, 0, task.length, true, true, choice.toString());
+    }
+
+    // With a password, the AES extra field names the codec's method.
+    private static void setMethod(ZipEntry entry, Codec entryCodec, WinZipAes.KeyDeriver keys) {
+        entry.setMethod(entryCodec == null ? ZipEntry.STORED : ZipEntry.DEFLATED);
+        if (keys != null) {
+            entry.setExtra(WinZipAes.extraField(entryCodec == null ? ZipEntry.STORED : entryCodec.getMethod()));
+        }
+    }
+
+    // Adds a chunk, or a batch's chain of them, to those waiting for the
+    // writer, writing the oldest if the window is full.
+    private void queue(CompletableFuture<Chunk> future, ArrayDeque<CompletableFuture<Chunk>> pending, int window,
+                       ZipArchiveWriter writer, Listener listener) throws IOException {
+        pending.add(future);
+        if (pending.size() >= window) {
+            writeChunks(next(pending), writer, listener);
+        }
+    }
+
+    // Compresses, and encrypts, the batch's files one after the other on
+    // one thread, returning their chunks linked in order.
+    private CompletableFuture<Chunk> submitBatch(ExecutorService pool, List<ChunkTask> batch,
+                                                 WinZipAes.KeyDeriver keys) {
+        return submit(pool, () -> {
+            Chunk first = null;
+            Chunk last = null;
+            for (ChunkTask task : batch) {
+                // The hash of a possible duplicate was submitted before the
+                // batch, so it is done or under way
+                int original = task.duplicateOf != null ? task.duplicateOf.join() : -1;
+                Chunk chunk;
+                if (original >= 0) {
+                    chunk = new Chunk(task.entry, original, task.length);
+                } else {
+                    chunk = (task.sample ? sampled(task, keys) : task).deflate();
+                    if (keys != null) {
+                        encrypt(chunk, keys.newEncryptor());
+                    }
+                }
+                if (first == null) {
+                    first = chunk;
+                } else {
+                    last.next = chunk;
+                }
+                last = chunk;
+            }
+            return first;
+        });
+    }
+
+    private void writeChunks(Chunk chunk, ZipArchiveWriter writer, Listener listener) throws IOException {
+        for (Chunk c = chunk; c != null; c = c.next) {
+            writeChunk(c, writer, listener);
+        }
+    }
+
+    // The oldest pending chunk, once it is done; the time spent waiting for
+    // it is the writer's stall.
+    private Chunk next(ArrayDeque<CompletableFuture<Chunk>> pending) throws IOException {
+        metrics.queueDepth(pending.size());
+        CompletableFuture<Chunk> future = pending.poll();
+        if (future.isDone()) {
+            return await(future);
+        }
+        Object event = FlightEvents.begin(FlightEvents.Type.STALL);
+        long start = System.nanoTime();
+        try {
+            return await(future);
+        } finally {
+            metrics.stall("compression", System.nanoTime() - start);
+            FlightEvents.commit(event, metrics.getOperation(), "compression");
+        }
+    }
+
+    private void writeChunk(Chunk chunk, ZipArchiveWriter writer, Listener listener) throws IOException {
+        long start = System.nanoTime();
+        // Spans the writing of the entry's chunks
+        Object event = chunk.first ? FlightEvents.begin(FlightEvents.Type.ENTRY) : state.event;
+        long compressedSize;
+        if (chunk.original >= 0) {
+            writer.duplicateEntry(chunk.entry, chunk.original);
+            duplicateCount++;
+            duplicateBytes += chunk.inputLength;
+            compressedSize = 0;
+        } else if (chunk.data == null) {
+            chunk.entry.setCrc(chunk.crc);
+            chunk.entry.setSize(chunk.inputLength);
+            try (FileChannel channel = FileChannel.open(chunk.file.toPath(), StandardOpenOption.READ)) {
+                writer.writeStoredEntry(chunk.entry, channel);
+            }
+            compressedSize = chunk.inputLength;
+        } else if (chunk.first && chunk.last) {
+            chunk.entry.setCrc(chunk.crc);
+            chunk.entry.setSize(chunk.inputLength);
+            writer.writeEntry(chunk.entry, chunk.method, chunk.data, 0, chunk.dataLength);
+            compressedSize = chunk.dataLength;
+        } else {
+            if (chunk.first) {
+                writer.beginEntry(chunk.entry, chunk.method);
+                state = new EntryState();
+                state.event = event;
+            }
+            writer.writeData(chunk.data, 0, chunk.dataLength);
+            state.crc = state.size == 0 ? chunk.crc : crc32Combine(state.crc, chunk.crc, chunk.inputLength);
+            state.size += chunk.inputLength;
+            state.compressedSize += chunk.dataLength;
+            compressedSize = state.compressedSize;
+            if (chunk.last) {
+                writer.endEntry(state.crc, state.compressedSize, state.size);
+                state = null;
+            }
+        }
+        metrics.write(System.nanoTime() - start);
+        if (chunk.last) {
+            long size = chunk.first ? chunk.inputLength : chunk.entry.getSize();
+            metrics.entry(size, compressedSize);
+            FlightEvents.commit(event, metrics.getOperation(), chunk.entry.getName(), chunk.codecName, size,
+                    compressedSize);
+        }
+        listener.bytesProcessed(chunk.inputLength);
+        if (chunk.last) {
+            listener.entryWritten(chunk.entry.getName(), chunk.note);
+        }
+    }
+
+    // Called from the pool in adaptive mode.
+    private synchronized Codec codecFor(int level) {
+        Codec result = levelCodecs[level + 1];
+        if (result == null) {
+            result = Codec.forName(codec.getName(), level);
+            levelCodecs[level + 1] = result;
+        }
+        return result;
+    }
+
+    // Runs on the pool for stored entries: only the CRC is needed up front.
+    private Chunk checksum(File file, ZipEntry entry, String note) throws IOException {
+        long cpu = JobMetrics.threadCpuTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long crc = crc32(channel, size, io.buffer());
+            metrics.codec(STORED_NAME, JobMetrics.threadCpuTime() - cpu, size, size);
+            Chunk chunk = new Chunk(entry, file, crc, size);
+            chunk.note = note;
+            return chunk;
+        }
+    }
+
+    private Chunk encrypt(Chunk chunk, WinZipAes.Encryptor encryptor) {
+        long cpu = JobMetrics.threadCpuTime();
+        int length = chunk.dataLength;
+        chunk.encrypt(encryptor);
+        metrics.codec("aes", JobMetrics.threadCpuTime() - cpu, length, chunk.dataLength);
+        return chunk;
+    }
+
+    private static <T> CompletableFuture<T> submit(ExecutorService pool, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pool.execute(() -> complete(future, task));
+        return future;
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Callable<T> task) {
+        try {
+            future.complete(task.call());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private class ChunkTask {
+        final File file;
+        final ZipEntry entry;
+        // null for a stored entry
+        final Codec codec;
+        final int method;
+        final long offset;
+        final int length;
+        final boolean first;
+        final boolean last;
+        final boolean store;
+        final String note;
+        // For a file in a batch that may be a duplicate: its entry's
+        // original, or -1, once hashed
+        CompletableFuture<Integer> duplicateOf;
+        // For a file in a batch whose codec is still to be chosen
+        boolean sample;
+
+        ChunkTask(File file, ZipEntry entry, Codec codec, long offset, int length, boolean first, boolean last,
+                  String note) {
+            this.file = file;
+            this.entry = entry;
+            this.codec = codec;
+            this.method = codec != null ? codec.getMethod() : ZipEntry.STORED;
+            this.offset = offset;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+            this.store = codec == null;
+            this.note = note;
+        }
+
+        Chunk deflate() throws IOException {
+            int dictLength = first || store ? 0 : (int) Math.min(DICTIONARY_SIZE, offset);
+            byte[] input;
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (!store && io.isMemoryMapped() && codec.readsBuffers()
+                        && channel.size() >= MappedFiles.MIN_SIZE) {
+                    return deflateMapped(channel, dictLength);
+                }
+                input = new byte[dictLength + length];
+                ByteBuffer buffer = ByteBuffer.wrap(input);
+                long pos = offset - dictLength;
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, pos);
+                    if (n < 0) {
+                        throw new IOException("File changed while compressing: " + file);
+                    }
+                    pos += n;
+                }
+            }
+            metrics.read(System.nanoTime() - start);
+
+            Object event = FlightEvents.begin(FlightEvents.Type.CHUNK);
+            long cpu = JobMetrics.threadCpuTime();
+            CRC32 crc = new CRC32();
+            crc.update(input, dictLength, length);
+            Chunk chunk;
+            if (store) {
+                // Only reaches the pool when the data is encrypted
+                chunk = new Chunk(entry, method, input, length, crc.getValue(), length, first, last);
+            } else {
+                ByteBuffer out = codec.compress(input, dictLength, length, last);
+                chunk = new Chunk(entry, method, out.array(), out.limit(), crc.getValue(), length, first, last);
+            }
+            return finish(chunk, event, cpu);
+        }
+
+        // Records the chunk's codec time and event.
+        private Chunk finish(Chunk chunk, Object event, long cpu) {
+            chunk.note = note;
+            chunk.codecName = store ? STORED_NAME : codec.getName();
+            metrics.codec(chunk.codecName, JobMetrics.threadCpuTime() - cpu, length, chunk.dataLength);
+            FlightEvents.commit(event, entry.getName(), chunk.codecName, offset, (long) length,
+                    (long) chunk.dataLength);
+            return chunk;
+        }
+
+        // Large files: the codec reads the mapped pages, nothing is copied
+        private Chunk deflateMapped(FileChannel channel, int dictLength) throws IOException {
+            if (channel.size() < offset + length) {
+                throw new IOException("File changed while compressing: " + file);
+            }
+            ByteBuffer input = MappedFiles.map(channel, offset - dictLength, dictLength + length);
+            try {
+                // Page faults while the codec reads count as its CPU time
+                Object event = FlightEvents.begin(FlightEvents.Type.CHUNK);
+                long cpu = JobMetrics.threadCpuTime();
+                ByteBuffer data = input.duplicate();
+                data.position(dictLength);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ByteBuffer out = codec.compress(input, dictLength, length, last);
+                Chunk chunk = new Chunk(entry, method, out.array(), out.limit(), crc.getValue(), length, first,
+                        last);
+                return finish(chunk, event, cpu);
+            } finally {
+                MappedFiles.unmap(input);
+            }
+        }
+    }
+
+    private static class Chunk {
+        final ZipEntry entry;
+        final File file;
+        final int method;
+        byte[] data;
+        int dataLength;
+        final long crc;
+        final long inputLength;
+        final boolean first;
+        final boolean last;
+        // Index of an earlier entry with the same content, or -1
+        final int original;
+        WinZipAes.Encryptor encryptor;
+        String note;
+        String codecName = STORED_NAME;
+        // The next file's chunk in a batch
+        Chunk next;
+
+        // A stored entry, copied from the file by the writer
+        Chunk(ZipEntry entry, File file, long crc, long size) {
+            this.entry = entry;
+            this.file = file;
+            this.method = ZipEntry.STORED;
+            this.crc = crc;
+            this.inputLength = size;
+            this.first = true;
+            this.last = true;
+            this.original = -1;
+        }
+
+        Chunk(ZipEntry entry, int method, byte[] data, int dataLength, long crc, long inputLength,
+              boolean first, boolean last) {
+            this.entry = entry;
+            this.file = null;
+            this.method = method;
+            this.data = data;
+            this.dataLength = dataLength;
+            this.crc = crc;
+            this.inputLength = inputLength;
+            this.first = first;
+            this.last = last;
+            this.original = -1;
+        }
+
+        // A duplicate, copied by the writer from the earlier entry
+        Chunk(ZipEntry entry, int original, long size) {
+            this.entry = entry;
+            this.file = null;
+            this.method = -1;
+            this.crc = 0;
+            this.inputLength = size;
+            this.first = true;
+            this.last = true;
+            this.original = original;
+            this.codecName = "duplicate";
+        }
+
+        // Replaces the data with its ciphertext, preceded by the salt and
+        // verifier in the entry's first chunk and followed by the MAC in its
+        // last one.
+        Chunk encrypt(WinZipAes.Encryptor encryptor) {
+            this.encryptor = encryptor;
+            byte[] header = first ? encryptor.header() : new byte[0];
+            byte[] out = new byte[header.length + dataLength + (last ? WinZipAes.MAC_LENGTH : 0)];
+            System.arraycopy(header, 0, out, 0, header.length);
+            encryptor.encrypt(data, 0, dataLength, out, header.length);
+            if (last) {
+                byte[] mac = encryptor.finish();
+                System.arraycopy(mac, 0, out, out.length - mac.length, mac.length);
+            }
+            data = out;
+            dataLength = out.length;
+            return this;
+        }
+    }
+
+    private static class EntryState {
+        Object event;
+        long crc;
+        long size;
+        long compressedSize;
+    }
+
+    // CRC of the first size bytes of the channel, read with positional reads
+    // into the given buffer so a direct buffer never touches the heap.
+    static long crc32(FileChannel channel, long size, ByteBuffer buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long pos = 0;
+        while (pos < size) {
+            buffer.clear();
+            if (size - pos < buffer.capacity()) {
+                buffer.limit((int) (size - pos));
+            }
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new IOException("File changed while compressing");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            pos += n;
+        }
+        return crc.getValue();
+    }
+
+    // zlib's crc32_combine: CRC of A||B from crc(A), crc(B) and len(B).
+    static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return (crc1 ^ crc2) & 0xffffffffL;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.text.DecimalFormat;
+
+// Immutable view of a job's progress, published a few times per second by
+// ProgressTracker. Safe to hand to any thread.
+public class ProgressSnapshot {
+    private final String phase;
+    private final String status;
+    private final long processedBytes;
+    private final long totalBytes;
+    private final long entriesDone;
+    private final String currentEntry;
+    private final long elapsedMillis;
+    private final double bytesPerSecond;
+
+    ProgressSnapshot(String phase, String status, long processedBytes, long totalBytes, long entriesDone,
+                     String currentEntry, long elapsedMillis, double bytesPerSecond) {
+        this.phase = phase;
+        this.status = status;
+        this.processedBytes = processedBytes;
+        this.totalBytes = totalBytes;
+        this.entriesDone = entriesDone;
+        this.currentEntry = currentEntry;
+        this.elapsedMillis = elapsedMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getProcessedBytes() {
+        return processedBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getEntriesDone() {
+        return entriesDone;
+    }
+
+    // Name of the entry most recently started or written; may be null.
+    public String getCurrentEntry() {
+        return currentEntry;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getPercent() {
+        if (totalBytes <= 0) {
+            return status != null ? 100 : 0;
+        }
+        return (int) Math.min(100, processedBytes * 100 / totalBytes);
+    }
+
+    // Estimated time remaining, or -1 when there is no rate to go on yet.
+    public long getEtaMillis() {
+        if (bytesPerSecond <= 0 || totalBytes <= 0) {
+            return -1;
+        }
+        return (long) (Math.max(0, totalBytes - processedBytes) / bytesPerSecond * 1000);
+    }
+
+    // One-line description for a status bar or console.
+    public String getStatus() {
+        if (status != null) {
+            return status;
+        }
+        StringBuilder sb = new StringBuilder(phase).append(": ").append(getPercent()).append('%');
+        if (bytesPerSecond > 0) {
+            sb.append(" (").append(formatBytes((long) bytesPerSecond)).append("/s");
+            long eta = getEtaMillis();
+            if (eta >= 0) {
+                sb.append(", ETA ").append(formatDuration(eta));
+            }
+            sb.append(')');
+        }
+        if (currentEntry != null) {
+            sb.append(" - ").append(currentEntry);
+        }
+        return sb.toString();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return new DecimalFormat("#,##0.0").format(value) + " " + units[unit];
+    }
+
+    static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Collects progress on the hot path with plain counter updates and publishes
+// a ProgressSnapshot to the listener at a fixed rate, so the number of UI
+// updates does not grow with the number of buffers or entries.
+public class ProgressTracker implements Closeable {
+    static final long DEFAULT_INTERVAL_MS = 100;
+
+    private static final ScheduledExecutorService PUBLISHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "zip-progress");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String phase;
+    private final ZipListener listener;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private final ScheduledFuture<?> task;
+    private final AtomicLong total;
+    private volatile String currentEntry;
+    private boolean closed;
+
+    // Rate smoothing state, only touched by publish()
+    private long lastNanos = startNanos;
+    private long lastBytes;
+    private double rate;
+
+    public ProgressTracker(String phase, long total, ZipListener listener) {
+        this(phase, total, listener, DEFAULT_INTERVAL_MS);
+    }
+
+    public ProgressTracker(String phase, long total, ZipListener listener, long intervalMillis) {
+        this.phase = phase;
+        this.total = new AtomicLong(total);
+        this.listener = listener;
+        this.task = PUBLISHER.scheduleAtFixedRate(this::publish, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void add(long bytes) {
+        processed.add(bytes);
+    }
+
+    public void setTotal(long total) {
+        this.total.set(total);
+    }
+
+    // Grows the total while the input is still being scanned.
+    public void addTotal(long bytes) {
+        total.addAndGet(bytes);
+    }
+
+    public void entryStarted(String name) {
+        currentEntry = name;
+    }
+
+    public void entryCompleted(String name) {
+        currentEntry = name;
+        entries.increment();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public ProgressSnapshot snapshot() {
+        return snapshot(null);
+    }
+
+    // Stops periodic updates and publishes a final snapshot with the message.
+    public synchronized void complete(String message) {
+        if (!closed) {
+            closed = true;
+            task.cancel(false);
+            listener.progress(snapshot(message));
+        }
+    }
+
+    // Stops periodic updates without a final message, e.g. after a failure.
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            task.cancel(false);
+        }
+    }
+
+    private synchronized void publish() {
+        if (closed) {
+            return;
+        }
+        try {
+            listener.progress(snapshot(null));
+        } catch (RuntimeException e) {
+            // A misbehaving listener must not kill the shared publisher
+        }
+    }
+
+    private synchronized ProgressSnapshot snapshot(String status) {
+        long now = System.nanoTime();
+        long bytes = processed.sum();
+        long interval = now - lastNanos;
+        if (interval > 0 && status == null) {
+            // Exponential moving average keeps the rate and ETA from jumping
+            double instant = (bytes - lastBytes) * 1e9 / interval;
+            rate = rate == 0 ? instant : rate * 0.7 + instant * 0.3;
+            lastNanos = now;
+            lastBytes = bytes;
+        }
+        long elapsed = (now - startNanos) / 1_000_000;
+        double average = elapsed > 0 ? bytes * 1000.0 / elapsed : 0;
+        return new ProgressSnapshot(phase, status, bytes, total.get(), entries.sum(), currentEntry, elapsed,
+                status != null ? average : rate);
+    }
+}
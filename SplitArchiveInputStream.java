@@ -0,0 +1,100 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads a split set (base.z01, base.z02, ..., base.zip) as one continuous
+// stream for ZipInputStream, dropping the leading split marker. Also works on
+// a plain archive, which is simply a set with a single volume.
+public class SplitArchiveInputStream extends InputStream {
+    private final List<File> volumes;
+    private int index;
+    private InputStream current;
+    private final byte[] single = new byte[1];
+
+    public SplitArchiveInputStream(File archive) throws IOException {
+        this.volumes = findVolumes(archive);
+        this.current = new FileInputStream(volumes.get(0));
+        skipMarker();
+    }
+
+    // Volumes of the set the given .zip belongs to, in order, ending with it.
+    public static List<File> findVolumes(File archive) {
+        List<File> volumes = new ArrayList<>();
+        String path = archive.getPath();
+        int dotIndex = path.lastIndexOf(".");
+        if (dotIndex > path.lastIndexOf(File.separatorChar)) {
+            String basePath = path.substring(0, dotIndex);
+            for (int i = 1; ; i++) {
+                File volume = new File(SplitVolumeChannel.volumePath(basePath, i));
+                if (!volume.isFile()) {
+                    break;
+                }
+                volumes.add(volume);
+            }
+        }
+        volumes.add(archive);
+        return volumes;
+    }
+
+    public static boolean isSplit(File archive) {
+        return findVolumes(archive).size() > 1;
+    }
+
+    public static long totalLength(File archive) {
+        long total = 0;
+        for (File volume : findVolumes(archive)) {
+            total += volume.length();
+        }
+        return total;
+    }
+
+    private void skipMarker() throws IOException {
+        byte[] sig = new byte[4];
+        int n = 0;
+        try (InputStream probe = new FileInputStream(volumes.get(0))) {
+            while (n < 4) {
+                int r = probe.read(sig, n, 4 - n);
+                if (r < 0) {
+                    return;
+                }
+                n += r;
+            }
+        }
+        int marker = (sig[0] & 0xff) | (sig[1] & 0xff) << 8 | (sig[2] & 0xff) << 16 | (sig[3] & 0xff) << 24;
+        if (marker == SplitVolumeChannel.SPLIT_MARKER || marker == SplitVolumeChannel.SINGLE_SEGMENT_MARKER) {
+            long skipped = 0;
+            while (skipped < 4) {
+                skipped += current.skip(4 - skipped);
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (current != null) {
+            int n = current.read(b, off, len);
+            if (n >= 0) {
+                return n;
+            }
+            current.close();
+            current = ++index < volumes.size() ? new FileInputStream(volumes.get(index)) : null;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
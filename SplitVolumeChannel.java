@@ -0,0 +1,162 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes a spanned ZIP straight to disk as base.z01, base.z02, ... rolling
+// over whenever a volume reaches the split size. On close the last volume is
+// renamed to base.zip, which is where the central directory ends up, the same
+// layout Info-ZIP's "zip -s" produces.
+public class SplitVolumeChannel implements WritableByteChannel {
+    static final int SPLIT_MARKER = 0x08074b50;
+    static final int SINGLE_SEGMENT_MARKER = 0x30304b50;
+    static final long MIN_VOLUME_SIZE = 64 * 1024;
+
+    public interface Listener {
+        void volumeCompleted(String path);
+    }
+
+    private final String basePath;
+    private final String extension;
+    private final long volumeSize;
+    private final Listener listener;
+    private final List<String> volumePaths = new ArrayList<>();
+    private FileChannel current;
+    private int volumeIndex = -1;
+    private long volumePosition;
+    private boolean open = true;
+
+    public SplitVolumeChannel(String destPath, long volumeSize, Listener listener) throws IOException {
+        if (volumeSize < MIN_VOLUME_SIZE) {
+            throw new IOException("Split size must be at least " + MIN_VOLUME_SIZE + " bytes");
+        }
+        int dotIndex = destPath.lastIndexOf(".");
+        if (dotIndex > destPath.lastIndexOf(File.separatorChar)) {
+            this.basePath = destPath.substring(0, dotIndex);
+            this.extension = destPath.substring(dotIndex);
+        } else {
+            this.basePath = destPath;
+            this.extension = ".zip";
+        }
+        this.volumeSize = volumeSize;
+        this.listener = listener;
+
+        nextVolume();
+        ByteBuffer marker = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        marker.putInt(SPLIT_MARKER).flip();
+        write(marker);
+    }
+
+    // Zero-based disk number of the volume currently being written.
+    public int getVolumeIndex() {
+        return volumeIndex;
+    }
+
+    // Offset within the current volume.
+    public long getVolumePosition() {
+        return volumePosition;
+    }
+
+    public List<String> getVolumePaths() {
+        return volumePaths;
+    }
+
+    // Starts a new volume unless the next record fits in the current one, so
+    // that headers never straddle two files.
+    public void ensureSpace(int bytes) throws IOException {
+        if (volumePosition > 0 && volumeSize - volumePosition < bytes) {
+            nextVolume();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = 0;
+        while (src.hasRemaining()) {
+            if (volumePosition >= volumeSize) {
+                nextVolume();
+            }
+            int chunk = (int) Math.min(src.remaining(), volumeSize - volumePosition);
+            int limit = src.limit();
+            src.limit(src.position() + chunk);
+            try {
+                while (src.hasRemaining()) {
+                    int n = current.write(src);
+                    volumePosition += n;
+                    written += n;
+                }
+            } finally {
+                src.limit(limit);
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        current.close();
+
+        String lastPath = volumePaths.get(volumeIndex);
+        String finalPath = basePath + extension;
+        if (volumeIndex == 0) {
+            // Everything fit in one file: mark it as an ordinary archive
+            try (RandomAccessFile raf = new RandomAccessFile(lastPath, "rw")) {
+                raf.writeInt(Integer.reverseBytes(SINGLE_SEGMENT_MARKER));
+            }
+        }
+        Files.move(new File(lastPath).toPath(), new File(finalPath).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        volumePaths.set(volumeIndex, finalPath);
+
+        // Drop leftovers of an older, longer set with the same name
+        for (int i = volumeIndex + 1; ; i++) {
+            File stale = new File(volumePath(basePath, i));
+            if (!stale.isFile() || !stale.delete()) {
+                break;
+            }
+        }
+        if (listener != null) {
+            listener.volumeCompleted(finalPath);
+        }
+    }
+
+    private void nextVolume() throws IOException {
+        if (current != null) {
+            current.close();
+            if (listener != null) {
+                listener.volumeCompleted(volumePaths.get(volumeIndex));
+            }
+        }
+        volumeIndex++;
+        String path = volumePath(basePath, volumeIndex + 1);
+        current = FileChannel.open(new File(path).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        volumePaths.add(path);
+        volumePosition = 0;
+    }
+
+    static String volumePath(String basePath, int number) {
+        return basePath + ".z" + String.format("%02d", number);
+    }
+}
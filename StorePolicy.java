@@ -0,0 +1,36 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+// Recognises file types whose contents are already compressed, where deflate
+// burns CPU for little or no gain and the entry is better stored as is.
+public final class StorePolicy {
+    private static final Set<String> INCOMPRESSIBLE = new HashSet<>(Arrays.asList(
+        // images
+        "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif", "jp2",
+        // audio and video
+        "mp3", "m4a", "aac", "ogg", "oga", "opus", "flac", "mp4", "m4v", "mov", "mkv", "webm", "avi", "wmv",
+        // archives and compressed streams
+        "zip", "gz", "tgz", "bz2", "tbz2", "xz", "txz", "lz", "lzma", "lz4", "zst", "7z", "rar", "cab", "z",
+        // container formats that are ZIP files underneath
+        "jar", "war", "ear", "apk", "aar", "whl", "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub"
+    ));
+
+    private StorePolicy() {
+    }
+
+    // Level 0 stores everything; otherwise known compressed types are stored
+    // when autoStore is on.
+    public static boolean shouldStore(String fileName, int level, boolean autoStore) {
+        return level == Deflater.NO_COMPRESSION || (autoStore && isIncompressible(fileName));
+    }
+
+    public static boolean isIncompressible(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return false;
+        }
+        return INCOMPRESSIBLE.contains(fileName.substring(dot + 1).toLowerCase());
+    }
+}
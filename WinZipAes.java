@@ -0,0 +1,397 @@
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// WinZip AES encryption (AE-2, 256-bit), as read by 7-Zip, WinZip and
+// Info-ZIP's unzip 6.1: entries use method 99 with the real method in a
+// 0x9901 extra field, and their data is salt, password verifier, AES-CTR
+// ciphertext of the compressed data and a truncated HMAC-SHA1 of the
+// ciphertext. Keys come from PBKDF2-HMAC-SHA1 over the password and a
+// random per-entry salt.
+//
+// WinZip's CTR mode counts little-endian from 1 in every entry, so the
+// keystream is built here from AES/ECB blocks, which the JDK runs on AES-NI.
+public final class WinZipAes {
+    static final int METHOD = 99;
+    static final int EXTRA_ID = 0x9901;
+    static final int FLAG_ENCRYPTED = 0x0001;
+
+    static final int KEY_LENGTH = 32;
+    static final int SALT_LENGTH = 16;
+    static final int VERIFIER_LENGTH = 2;
+    static final int MAC_LENGTH = 10;
+    // Salt, verifier and MAC added to every entry's compressed size
+    static final int OVERHEAD = SALT_LENGTH + VERIFIER_LENGTH + MAC_LENGTH;
+
+    private static final int STRENGTH_256 = 3;
+    private static final int ITERATIONS = 1000;
+    private static final int KEYSTREAM_BLOCKS = 256;
+
+    private WinZipAes() {
+    }
+
+    public static class WrongPasswordException extends ZipException {
+        private static final long serialVersionUID = 1L;
+
+        WrongPasswordException(String message) {
+            super(message);
+        }
+    }
+
+    // The 0x9901 extra field: AE version, key strength and the real method.
+    public static class ExtraField {
+        final int version;
+        final int strength;
+        final int method;
+
+        ExtraField(int version, int strength, int method) {
+            this.version = version;
+            this.strength = strength;
+            this.method = method;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        // AE-2 leaves the CRC at zero; the MAC protects the data instead.
+        public boolean hasCrc() {
+            return version == 1;
+        }
+
+        static ExtraField find(byte[] extra) {
+            if (extra == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.remaining() >= 4) {
+                int id = buffer.getShort() & 0xFFFF;
+                int size = buffer.getShort() & 0xFFFF;
+                if (size > buffer.remaining()) {
+                    return null;
+                }
+                if (id == EXTRA_ID && size >= 7) {
+                    int version = buffer.getShort(buffer.position()) & 0xFFFF;
+                    int strength = buffer.get(buffer.position() + 4) & 0xFF;
+                    int method = buffer.getShort(buffer.position() + 5) & 0xFFFF;
+                    return new ExtraField(version, strength, method);
+                }
+                buffer.position(buffer.position() + size);
+            }
+            return null;
+        }
+    }
+
+    public static byte[] extraField(int method) {
+        ByteBuffer buffer = ByteBuffer.allocate(11).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) EXTRA_ID);
+        buffer.putShort((short) 7);
+        buffer.putShort((short) 2);
+        buffer.put((byte) 'A').put((byte) 'E');
+        buffer.put((byte) STRENGTH_256);
+        buffer.putShort((short) method);
+        return buffer.array();
+    }
+
+    // Derives entry keys for one password. The HMAC keyed with the password
+    // is set up once per thread and reused for every entry's PBKDF2 run.
+    public static class KeyDeriver {
+        private final byte[] password;
+        private final ThreadLocal<Mac> prf;
+        private SecureRandom random;
+
+        public KeyDeriver(String password) {
+            this.password = password.getBytes(StandardCharsets.UTF_8);
+            this.prf = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA1");
+                    mac.init(new SecretKeySpec(this.password, "HmacSHA1"));
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("HmacSHA1 is not available", e);
+                }
+            });
+        }
+
+        public boolean matches(String password) {
+            return Arrays.equals(this.password, password.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Keys for a new entry with a fresh random salt.
+        public Encryptor newEncryptor() {
+            byte[] salt = new byte[SALT_LENGTH];
+            synchronized (this) {
+                if (random == null) {
+                    random = new SecureRandom();
+                }
+                random.nextBytes(salt);
+            }
+            return new Encryptor(salt, derive(salt));
+        }
+
+        byte[] derive(byte[] salt) {
+            return pbkdf2(prf.get(), salt, ITERATIONS, 2 * KEY_LENGTH + VERIFIER_LENGTH);
+        }
+    }
+
+    // RFC 2898 PBKDF2 with the given keyed PRF.
+    static byte[] pbkdf2(Mac prf, byte[] salt, int iterations, int length) {
+        int hashLength = prf.getMacLength();
+        byte[] result = new byte[length];
+        byte[] u = new byte[hashLength];
+        byte[] block = new byte[hashLength];
+        for (int index = 1, offset = 0; offset < length; index++, offset += hashLength) {
+            prf.update(salt);
+            prf.update(new byte[] {(byte) (index >>> 24), (byte) (index >>> 16), (byte) (index >>> 8), (byte) index});
+            try {
+                prf.doFinal(u, 0);
+                System.arraycopy(u, 0, block, 0, hashLength);
+                for (int i = 1; i < iterations; i++) {
+                    prf.update(u);
+                    prf.doFinal(u, 0);
+                    for (int j = 0; j < hashLength; j++) {
+                        block[j] ^= u[j];
+                    }
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            System.arraycopy(block, 0, result, offset, Math.min(hashLength, length - offset));
+        }
+        return result;
+    }
+
+    // AES-CTR keystream plus HMAC over the ciphertext, for one entry. Data
+    // may arrive in pieces of any length; the keystream carries over.
+    private abstract static class Crypter {
+        private final Cipher aes;
+        final Mac mac;
+        private final byte[] counters = new byte[KEYSTREAM_BLOCKS * 16];
+        private final byte[] keystream = new byte[KEYSTREAM_BLOCKS * 16];
+        private int keystreamPos = keystream.length;
+        private long counter;
+
+        Crypter(byte[] keys) {
+            try {
+                aes = Cipher.getInstance("AES/ECB/NoPadding");
+                aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keys, 0, KEY_LENGTH, "AES"));
+                mac = Mac.getInstance("HmacSHA1");
+                mac.init(new SecretKeySpec(keys, KEY_LENGTH, KEY_LENGTH, "HmacSHA1"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES is not available", e);
+            }
+        }
+
+        void xor(byte[] in, int inOff, int len, byte[] out, int outOff) {
+            while (len > 0) {
+                if (keystreamPos == keystream.length) {
+                    refill();
+                }
+                int n = Math.min(len, keystream.length - keystreamPos);
+                for (int i = 0; i < n; i++) {
+                    out[outOff + i] = (byte) (in[inOff + i] ^ keystream[keystreamPos + i]);
+                }
+                keystreamPos += n;
+                inOff += n;
+                outOff += n;
+                len -= n;
+            }
+        }
+
+        private void refill() {
+            Arrays.fill(counters, (byte) 0);
+            for (int block = 0; block < KEYSTREAM_BLOCKS; block++) {
+                long value = ++counter;
+                for (int i = 0; i < 8; i++) {
+                    counters[block * 16 + i] = (byte) (value >>> (8 * i));
+                }
+            }
+            try {
+                aes.doFinal(counters, 0, counters.length, keystream, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            keystreamPos = 0;
+        }
+
+        byte[] macValue() {
+            return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+        }
+    }
+
+    public static class Encryptor extends Crypter {
+        private final byte[] header;
+
+        Encryptor(byte[] salt, byte[] keys) {
+            super(keys);
+            header = Arrays.copyOf(salt, SALT_LENGTH + VERIFIER_LENGTH);
+            System.arraycopy(keys, 2 * KEY_LENGTH, header, SALT_LENGTH, VERIFIER_LENGTH);
+        }
+
+        // Salt and password verifier, written before the ciphertext.
+        public byte[] header() {
+            return header.clone();
+        }
+
+        public void encrypt(byte[] in, int inOff, int len, byte[] out, int outOff) {
+            xor(in, inOff, len, out, outOff);
+            mac.update(out, outOff, len);
+        }
+
+        // Authentication code, written after the ciphertext.
+        public byte[] finish() {
+            return macValue();
+        }
+    }
+
+    // Checks the MAC of an entry's ciphertext without decrypting it.
+    public static boolean authenticate(InputStream raw, long length, KeyDeriver deriver) throws IOException {
+        byte[] keys = readHeader(raw, deriver, null);
+        if (keys == null) {
+            return false;
+        }
+        Mac mac;
+        try {
+            mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(keys, KEY_LENGTH, KEY_LENGTH, "HmacSHA1"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = length - OVERHEAD;
+        while (remaining > 0) {
+            int n = raw.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                return false;
+            }
+            mac.update(buffer, 0, n);
+            remaining -= n;
+        }
+        byte[] stored = readFully(raw, MAC_LENGTH);
+        return MessageDigest.isEqual(stored, Arrays.copyOf(mac.doFinal(), MAC_LENGTH));
+    }
+
+    // Whether an entry header (salt and verifier, as from Encryptor.header())
+    // was made with the deriver's password. The 2-byte verifier lets about
+    // one wrong password in 65,536 through.
+    public static boolean checkHeader(byte[] header, KeyDeriver deriver) throws IOException {
+        return readHeader(new ByteArrayInputStream(header), deriver, null) != null;
+    }
+
+    // Decrypts an entry's raw data (salt through MAC, length bytes in all).
+    // Throws WrongPasswordException if the verifier does not match, and a
+    // ZipException at end of stream if the MAC does not.
+    public static InputStream decrypt(InputStream raw, long length, KeyDeriver deriver, String name)
+            throws IOException {
+        if (length < OVERHEAD) {
+            throw new ZipException("Encrypted entry too short: " + name);
+        }
+        return new DecryptingInputStream(raw, length - OVERHEAD, readHeader(raw, deriver, name), name);
+    }
+
+    // Returns the entry keys, or throws (name given) / returns null (no name)
+    // on a wrong password.
+    private static byte[] readHeader(InputStream raw, KeyDeriver deriver, String name) throws IOException {
+        byte[] salt = readFully(raw, SALT_LENGTH);
+        byte[] verifier = readFully(raw, VERIFIER_LENGTH);
+        byte[] keys = deriver.derive(salt);
+        if (!MessageDigest.isEqual(verifier, Arrays.copyOfRange(keys, 2 * KEY_LENGTH, keys.length))) {
+            if (name == null) {
+                return null;
+            }
+            throw new WrongPasswordException("Wrong password for " + name);
+        }
+        return keys;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new ZipException("Unexpected end of encrypted data");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    private static class DecryptingInputStream extends FilterInputStream {
+        private final Crypter crypter;
+        private final String name;
+        private long remaining;
+        private boolean checked;
+
+        DecryptingInputStream(InputStream in, long length, byte[] keys, String name) {
+            super(in);
+            this.crypter = new Crypter(keys) { };
+            this.remaining = length;
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                if (!checked) {
+                    checked = true;
+                    byte[] stored = readFully(in, MAC_LENGTH);
+                    if (!MessageDigest.isEqual(stored, crypter.macValue())) {
+                        throw new ZipException("Authentication failed for " + name);
+                    }
+                }
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new ZipException("Unexpected end of encrypted data");
+            }
+            crypter.mac.update(b, off, n);
+            crypter.xor(b, off, n, b, off);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(8192, Math.max(1, n))];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (r < 0) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
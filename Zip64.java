@@ -0,0 +1,66 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// ZIP64 extensions (APPNOTE 4.3.14, 4.5.3): 8-byte sizes and offsets in an
+// extra field, and an extra end record for 8-byte entry counts and central
+// directory positions. Shared by ZipArchiveWriter and ZipArchiveReader.
+final class Zip64 {
+    static final int EXTRA_ID = 0x0001;
+    static final int END_SIG = 0x06064b50;
+    static final int LOCATOR_SIG = 0x07064b50;
+    static final int END_SIZE = 56;
+    static final int LOCATOR_SIZE = 20;
+    static final int VERSION = 45;
+
+    // A 4-byte field holding this means the value is in the ZIP64 field
+    static final long LIMIT = 0xFFFFFFFFL;
+    // Same for 2-byte counts and disk numbers
+    static final int COUNT_LIMIT = 0xFFFF;
+
+    private Zip64() {
+    }
+
+    // The data of the extra's ZIP64 field, little-endian, or null.
+    static ByteBuffer find(byte[] extra) {
+        if (extra == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= 4) {
+            int id = buffer.getShort() & 0xFFFF;
+            int size = buffer.getShort() & 0xFFFF;
+            if (size > buffer.remaining()) {
+                return null;
+            }
+            if (id == EXTRA_ID) {
+                ByteBuffer data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+                data.limit(size);
+                return data;
+            }
+            buffer.position(buffer.position() + size);
+        }
+        return null;
+    }
+
+    // The extra without its ZIP64 field, which writers lay out themselves.
+    static byte[] strip(byte[] extra) {
+        if (extra == null || find(extra) == null) {
+            return extra;
+        }
+        ByteBuffer in = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = ByteBuffer.allocate(extra.length);
+        while (in.remaining() >= 4) {
+            int start = in.position();
+            int id = in.getShort() & 0xFFFF;
+            int size = Math.min(in.getShort() & 0xFFFF, in.remaining());
+            in.position(in.position() + size);
+            if (id != EXTRA_ID) {
+                out.put(extra, start, 4 + size);
+            }
+        }
+        byte[] result = new byte[out.position()];
+        out.flip();
+        out.get(result);
+        return result;
+    }
+}
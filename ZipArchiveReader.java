@@ -0,0 +1,745 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+// Random-access ZIP reader. Parses the central directory once and reads entry
+// data with positional FileChannel reads, so any entry can be opened without
+// touching the ones in front of it, and several threads can read at once.
+// Split sets are handled by keeping one channel per volume. ZIP64 sizes,
+// offsets and counts are read from their extra field and end record.
+public class ZipArchiveReader implements Closeable {
+    private static final int END_OF_CENTRAL_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    // Extended timestamp extra field (Info-ZIP "UT")
+    private static final int EXTENDED_TIME_ID = 0x5455;
+    // Systems in "version made by" (APPNOTE 4.4.2) whose attributes hold a Unix mode
+    private static final int UNIX = 3;
+    private static final int MAC_OS_X = 19;
+
+    public static class Entry {
+        private final String name;
+        // "Version made by": the high byte names the system
+        private final int madeBy;
+        private final int flags;
+        private final int method;
+        private final long dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final byte[] extra;
+        private final String comment;
+        private final int disk;
+        private final int externalAttributes;
+        private final long localHeaderOffset;
+        // Where the data starts, when known from an ArchiveIndex; else -1
+        private final long dataOffset;
+
+        Entry(String name, int madeBy, int flags, int method, long dosTime, long crc, long compressedSize,
+              long size, byte[] extra, String comment, int disk, int externalAttributes,
+              long localHeaderOffset, long dataOffset) {
+            this.name = name;
+            this.madeBy = madeBy;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.extra = extra;
+            this.comment = comment;
+            this.disk = disk;
+            this.externalAttributes = externalAttributes;
+            this.localHeaderOffset = localHeaderOffset;
+            this.dataOffset = dataOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // From the extended timestamp field if there is one, which is to the
+        // second and in UTC; else the DOS time, to two seconds, local.
+        public long getTime() {
+            long seconds = extendedTime(extra);
+            return seconds >= 0 ? seconds * 1000 : fromDosTime(dosTime);
+        }
+
+        long getDosTime() {
+            return dosTime;
+        }
+
+        int getMadeBy() {
+            return madeBy;
+        }
+
+        int getExternalAttributes() {
+            return externalAttributes;
+        }
+
+        // The Unix permission bits, or 0 if the archive was not made on a
+        // Unix-like system and so does not have them.
+        public int getUnixMode() {
+            int system = madeBy >> 8;
+            return system == UNIX || system == MAC_OS_X ? (externalAttributes >>> 16) & 07777 : 0;
+        }
+
+        public byte[] getExtra() {
+            return extra;
+        }
+
+        public String getComment() {
+            return comment;
+        }
+
+        public boolean isEncrypted() {
+            return (flags & WinZipAes.FLAG_ENCRYPTED) != 0;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getDisk() {
+            return disk;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+    }
+
+    private final List<FileChannel> volumes = new ArrayList<>();
+    private WinZipAes.KeyDeriver keys;
+    private final List<Entry> entries;
+    private final String comment;
+    // Set when the entries come from a saved index instead of the archive
+    private final ArchiveIndex index;
+    // Of the end record within the last volume
+    private long endOffset;
+    // Where the central directory starts, counted across volumes
+    private long centralStart;
+
+    public ZipArchiveReader(File archive) throws IOException {
+        try {
+            FileChannel last = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+            volumes.add(last);
+            ByteBuffer end = findEndOfCentral();
+            int lastDisk = end.getShort(4) & 0xFFFF;
+            int centralDisk = end.getShort(6) & 0xFFFF;
+            long total = end.getShort(10) & 0xFFFF;
+            long centralSize = end.getInt(12) & 0xFFFFFFFFL;
+            long centralOffset = end.getInt(16) & 0xFFFFFFFFL;
+            ByteBuffer locator = findZip64Locator();
+            if (locator != null) {
+                lastDisk = locator.getInt(16) - 1;
+            }
+            int commentLength = end.getShort(20) & 0xFFFF;
+            byte[] commentBytes = new byte[Math.min(commentLength, end.limit() - END_OF_CENTRAL_SIZE)];
+            end.position(END_OF_CENTRAL_SIZE);
+            end.get(commentBytes);
+            this.comment = commentBytes.length > 0 ? new String(commentBytes, StandardCharsets.UTF_8) : null;
+
+            openVolumes(archive, lastDisk);
+            if (locator != null) {
+                ByteBuffer zip64 = ByteBuffer.allocate(Zip64.END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(locator.getInt(4), locator.getLong(8), zip64);
+                if (zip64.getInt(0) != Zip64.END_SIG) {
+                    throw new ZipException("Bad ZIP64 end of central directory record");
+                }
+                centralDisk = zip64.getInt(20);
+                total = zip64.getLong(32);
+                centralSize = zip64.getLong(40);
+                centralOffset = zip64.getLong(48);
+            }
+            this.entries = Collections.unmodifiableList(
+                    readCentralDirectory(centralDisk, centralOffset, centralSize, total));
+            this.centralStart = archiveOffset(centralDisk, centralOffset);
+            this.index = null;
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Opens the archive with the entries of its index, without reading the
+    // central directory. The index must be up to date (ArchiveIndex.open()).
+    ZipArchiveReader(File archive, ArchiveIndex index) throws IOException {
+        try {
+            volumes.add(FileChannel.open(archive.toPath(), StandardOpenOption.READ));
+            openVolumes(archive, index.getVolumeCount() - 1);
+            this.entries = index.getEntries();
+            this.comment = index.getComment();
+            this.centralStart = index.getCentralStart();
+            this.index = index;
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Puts the earlier parts of a split set in front of the last one.
+    private void openVolumes(File archive, int lastDisk) throws IOException {
+        if (lastDisk <= 0) {
+            return;
+        }
+        List<File> parts = SplitArchiveInputStream.findVolumes(archive);
+        if (parts.size() < lastDisk + 1) {
+            throw new ZipException("Archive has " + (lastDisk + 1) + " parts but only "
+                    + parts.size() + " were found");
+        }
+        FileChannel last = volumes.remove(volumes.size() - 1);
+        for (int i = 0; i < lastDisk; i++) {
+            volumes.add(FileChannel.open(parts.get(i).toPath(), StandardOpenOption.READ));
+        }
+        volumes.add(last);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    // The index the entries came from, or null if the central directory
+    // was read.
+    ArchiveIndex getIndex() {
+        return index;
+    }
+
+    int getVolumeCount() {
+        return volumes.size();
+    }
+
+    long getCentralStart() {
+        return centralStart;
+    }
+
+    // Opens the entry's uncompressed data. The CRC is checked at end of stream.
+    public InputStream getInputStream(Entry entry) throws IOException {
+        return getInputStream(entry, null);
+    }
+
+    // As above, decrypting WinZip AES entries with the password; their MAC
+    // is checked at end of stream instead of, or as well as, the CRC.
+    public InputStream getInputStream(Entry entry, String password) throws IOException {
+        InputStream raw = new RangeInputStream(entry.disk, dataOffset(entry), entry.compressedSize);
+        int method = entry.method;
+        boolean checkCrc = true;
+        if (entry.isEncrypted()) {
+            WinZipAes.ExtraField aes = WinZipAes.ExtraField.find(entry.extra);
+            if (aes == null || entry.method != WinZipAes.METHOD) {
+                raw.close();
+                throw new ZipException("Unsupported encryption for " + entry.name);
+            }
+            if (password == null || password.isEmpty()) {
+                raw.close();
+                throw new WinZipAes.WrongPasswordException("Password required for " + entry.name);
+            }
+            raw = WinZipAes.decrypt(raw, entry.compressedSize, keysFor(password), entry.name);
+            method = aes.getMethod();
+            checkCrc = aes.hasCrc();
+        }
+
+        InputStream data;
+        switch (method) {
+            case ZipEntry.STORED:
+                data = raw;
+                break;
+            case ZipEntry.DEFLATED:
+                data = new EntryInflaterInputStream(raw, new Inflater(true));
+                break;
+            default:
+                try {
+                    data = Codec.decompress(method, raw, entry.name);
+                } catch (IOException e) {
+                    raw.close();
+                    throw e;
+                }
+        }
+        return new CrcCheckingInputStream(data, entry, checkCrc, entry.isEncrypted() ? raw : null);
+    }
+
+    // Whether an encrypted entry was written with this password, checked
+    // against the MAC without decrypting or inflating anything.
+    public boolean authenticate(Entry entry, String password) throws IOException {
+        try (InputStream raw = new RangeInputStream(entry.disk, dataOffset(entry), entry.compressedSize)) {
+            return WinZipAes.authenticate(raw, entry.compressedSize, keysFor(password));
+        }
+    }
+
+    // Where the entry's local header is, counted from the start of the first
+    // volume, so entries on different volumes can be compared.
+    public long getArchiveOffset(Entry entry) throws IOException {
+        return archiveOffset(entry.disk, entry.localHeaderOffset);
+    }
+
+    // Checks the entry's local header against the central directory without
+    // reading its data: signature, name, method and encryption flag, that the
+    // data ends before the central directory and, if there is a data
+    // descriptor, that it holds the same CRC. Returns where the data ends,
+    // counted as in getArchiveOffset().
+    public long checkLocalHeader(Entry entry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(entry.disk, entry.localHeaderOffset, header);
+        if (header.getInt(0) != ZipArchiveWriter.LOCAL_HEADER_SIG) {
+            throw new ZipException("Bad local header signature");
+        }
+        int flags = header.getShort(6) & 0xFFFF;
+        int method = header.getShort(8) & 0xFFFF;
+        if (method != entry.method) {
+            throw new ZipException("Local header has method " + method + ", central directory " + entry.method);
+        }
+        if ((flags & WinZipAes.FLAG_ENCRYPTED) != (entry.flags & WinZipAes.FLAG_ENCRYPTED)) {
+            throw new ZipException("Local header and central directory disagree on encryption");
+        }
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        ByteBuffer name = ByteBuffer.allocate(nameLength);
+        readFully(entry.disk, entry.localHeaderOffset + 30, name);
+        if (!new String(name.array(), StandardCharsets.UTF_8).equals(entry.name)) {
+            throw new ZipException("Local header names "
+                    + new String(name.array(), StandardCharsets.UTF_8));
+        }
+
+        long dataStart = entry.localHeaderOffset + 30 + nameLength + extraLength;
+        long end = archiveOffset(entry.disk, dataStart) + entry.compressedSize;
+        if (end > centralStart) {
+            throw new ZipException("Data runs into the central directory");
+        }
+        if ((flags & ZipArchiveWriter.FLAG_DATA_DESCRIPTOR) != 0) {
+            ByteBuffer descriptor = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(entry.disk, dataStart + entry.compressedSize, descriptor);
+            // The signature is optional
+            long crc = (descriptor.getInt(0) == ZipArchiveWriter.DATA_DESCRIPTOR_SIG
+                    ? descriptor.getInt(4) : descriptor.getInt(0)) & 0xFFFFFFFFL;
+            if (crc != entry.crc) {
+                throw new ZipException("Data descriptor CRC differs from the central directory");
+            }
+        }
+        return end;
+    }
+
+    // Reuses the key setup while the password stays the same.
+    private synchronized WinZipAes.KeyDeriver keysFor(String password) {
+        if (keys == null || !keys.matches(password)) {
+            keys = new WinZipAes.KeyDeriver(password);
+        }
+        return keys;
+    }
+
+    // Copies a stored entry's data to target through buffer, checking the CRC
+    // on the way. With a direct buffer the bytes move between the two channels
+    // without a copy on the Java heap. progress receives each chunk's length.
+    public void copyStored(Entry entry, WritableByteChannel target, ByteBuffer buffer,
+                           LongConsumer progress) throws IOException {
+        if (entry.method != ZipEntry.STORED) {
+            throw new IllegalArgumentException(entry.name + " is not stored");
+        }
+        if (entry.compressedSize != entry.size) {
+            throw new ZipException("Size mismatch for stored entry " + entry.name);
+        }
+        CRC32 crc = new CRC32();
+        copyData(entry, target, buffer, crc, progress);
+        if (crc.getValue() != entry.crc) {
+            throw new ZipException("CRC mismatch for " + entry.name);
+        }
+    }
+
+    // Copies an entry's data exactly as it is stored in the archive, still
+    // compressed, for moving entries into another archive unchanged.
+    public void copyRaw(Entry entry, WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        copyData(entry, target, buffer, null, n -> { });
+    }
+
+    private void copyData(Entry entry, WritableByteChannel target, ByteBuffer buffer, CRC32 crc,
+                          LongConsumer progress) throws IOException {
+        int disk = entry.disk;
+        long offset = dataOffset(entry);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            while (disk < volumes.size() && offset >= volumes.get(disk).size()) {
+                offset -= volumes.get(disk).size();
+                disk++;
+            }
+            if (disk >= volumes.size()) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int n = volumes.get(disk).read(buffer, offset);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            buffer.flip();
+            if (crc != null) {
+                crc.update(buffer);
+                buffer.rewind();
+            }
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            offset += n;
+            remaining -= n;
+            progress.accept(n);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : volumes) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    long dataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset >= 0) {
+            return entry.dataOffset;
+        }
+        ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(entry.disk, entry.localHeaderOffset, header);
+        if (header.getInt(0) != ZipArchiveWriter.LOCAL_HEADER_SIG) {
+            throw new ZipException("Bad local header for " + entry.name);
+        }
+        return entry.localHeaderOffset + 30
+                + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private ByteBuffer findEndOfCentral() throws IOException {
+        int lastDisk = volumes.size() - 1;
+        long length = volumes.get(lastDisk).size();
+        int window = (int) Math.min(length, END_OF_CENTRAL_SIZE + MAX_COMMENT);
+        ByteBuffer tail = ByteBuffer.allocate(window).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(lastDisk, length - window, tail);
+        for (int i = window - END_OF_CENTRAL_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == ZipArchiveWriter.END_OF_CENTRAL_SIG) {
+                endOffset = length - window + i;
+                tail.position(i);
+                ByteBuffer end = tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+                return end;
+            }
+        }
+        throw new ZipException("Central directory not found; file is not a ZIP archive or is truncated");
+    }
+
+    // The ZIP64 locator right in front of the end record, if there is one.
+    private ByteBuffer findZip64Locator() throws IOException {
+        if (endOffset < Zip64.LOCATOR_SIZE) {
+            return null;
+        }
+        ByteBuffer locator = ByteBuffer.allocate(Zip64.LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(volumes.size() - 1, endOffset - Zip64.LOCATOR_SIZE, locator);
+        return locator.getInt(0) == Zip64.LOCATOR_SIG ? locator : null;
+    }
+
+    private List<Entry> readCentralDirectory(int disk, long offset, long size, long total) throws IOException {
+        if (size > Integer.MAX_VALUE || total > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory too large");
+        }
+        ByteBuffer cd = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(disk, offset, cd);
+        cd.flip();
+
+        List<Entry> result = new ArrayList<>((int) Math.min(total, size / 46));
+        while (cd.remaining() >= 46) {
+            int start = cd.position();
+            if (cd.getInt(start) != ZipArchiveWriter.CENTRAL_HEADER_SIG) {
+                throw new ZipException("Bad central directory header at entry " + result.size());
+            }
+            int madeBy = cd.getShort(start + 4) & 0xFFFF;
+            int flags = cd.getShort(start + 8) & 0xFFFF;
+            int method = cd.getShort(start + 10) & 0xFFFF;
+            long dosTime = cd.getInt(start + 12) & 0xFFFFFFFFL;
+            long crc = cd.getInt(start + 16) & 0xFFFFFFFFL;
+            long compressedSize = cd.getInt(start + 20) & 0xFFFFFFFFL;
+            long uncompressedSize = cd.getInt(start + 24) & 0xFFFFFFFFL;
+            int nameLength = cd.getShort(start + 28) & 0xFFFF;
+            int extraLength = cd.getShort(start + 30) & 0xFFFF;
+            int commentLength = cd.getShort(start + 32) & 0xFFFF;
+            int entryDisk = cd.getShort(start + 34) & 0xFFFF;
+            int externalAttributes = cd.getInt(start + 38);
+            long localOffset = cd.getInt(start + 42) & 0xFFFFFFFFL;
+
+            cd.position(start + 46);
+            byte[] name = new byte[nameLength];
+            byte[] extra = new byte[extraLength];
+            byte[] entryComment = new byte[commentLength];
+            cd.get(name).get(extra).get(entryComment);
+
+            // Values that did not fit are in the ZIP64 field, in this order
+            ByteBuffer zip64 = Zip64.find(extra);
+            if (zip64 != null) {
+                if (uncompressedSize == Zip64.LIMIT && zip64.remaining() >= 8) {
+                    uncompressedSize = zip64.getLong();
+                }
+                if (compressedSize == Zip64.LIMIT && zip64.remaining() >= 8) {
+                    compressedSize = zip64.getLong();
+                }
+                if (localOffset == Zip64.LIMIT && zip64.remaining() >= 8) {
+                    localOffset = zip64.getLong();
+                }
+                if (entryDisk == Zip64.COUNT_LIMIT && zip64.remaining() >= 4) {
+                    entryDisk = zip64.getInt();
+                }
+            }
+
+            result.add(new Entry(new String(name, StandardCharsets.UTF_8), madeBy, flags, method, dosTime,
+                    crc, compressedSize, uncompressedSize, extraLength > 0 ? extra : null,
+                    commentLength > 0 ? new String(entryComment, StandardCharsets.UTF_8) : null,
+                    entryDisk, externalAttributes, localOffset, -1));
+        }
+        if (result.size() != total) {
+            throw new ZipException("Central directory lists " + result.size() + " entries, expected " + total);
+        }
+        return result;
+    }
+
+    private long archiveOffset(int disk, long offset) throws IOException {
+        for (int i = 0; i < disk && i < volumes.size(); i++) {
+            offset += volumes.get(i).size();
+        }
+        return offset;
+    }
+
+    // Reads dst.remaining() bytes starting at (disk, offset), continuing into
+    // the following volumes if the range crosses a split boundary.
+    private void readFully(int disk, long offset, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (disk >= volumes.size()) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            FileChannel channel = volumes.get(disk);
+            if (offset >= channel.size()) {
+                offset -= channel.size();
+                disk++;
+                continue;
+            }
+            int n = channel.read(dst, offset);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            offset += n;
+        }
+    }
+
+    // Seconds since the epoch from an extended timestamp field holding the
+    // modification time, or -1.
+    static long extendedTime(byte[] extra) {
+        if (extra == null) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= 4) {
+            int id = buffer.getShort() & 0xFFFF;
+            int size = buffer.getShort() & 0xFFFF;
+            if (size > buffer.remaining()) {
+                return -1;
+            }
+            if (id == EXTENDED_TIME_ID) {
+                // Flags first; bit 0 says the modification time follows
+                return size >= 5 && (buffer.get(buffer.position()) & 1) != 0
+                        ? buffer.getInt(buffer.position() + 1) & 0xFFFFFFFFL : -1;
+            }
+            buffer.position(buffer.position() + size);
+        }
+        return -1;
+    }
+
+    static long fromDosTime(long dosTime) {
+        try {
+            LocalDateTime ldt = LocalDateTime.of(
+                    (int) ((dosTime >> 25) & 0x7f) + 1980,
+                    (int) ((dosTime >> 21) & 0x0f),
+                    (int) ((dosTime >> 16) & 0x1f),
+                    (int) ((dosTime >> 11) & 0x1f),
+                    (int) ((dosTime >> 5) & 0x3f),
+                    (int) ((dosTime << 1) & 0x3e));
+            return ldt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private class RangeInputStream extends InputStream {
+        private int disk;
+        private long offset;
+        private long remaining;
+
+        RangeInputStream(int disk, long offset, long length) {
+            this.disk = disk;
+            this.offset = offset;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            while (disk < volumes.size() && offset >= volumes.get(disk).size()) {
+                offset -= volumes.get(disk).size();
+                disk++;
+            }
+            if (disk >= volumes.size()) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            ByteBuffer dst = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int n = volumes.get(disk).read(dst, offset);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            offset += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    // Feeds the inflater a dummy byte at the end of the raw data, as ZipFile
+    // does, since nowrap inflation may ask for one more byte than was stored.
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        EntryInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, 64 * 1024);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of compressed data");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    // The inflater stops at the end of the deflate stream, so an encrypted
+    // entry's ciphertext is drained here to reach (and check) its MAC.
+    private static class CrcCheckingInputStream extends InputStream {
+        private final InputStream in;
+        private final Entry entry;
+        private final boolean checkCrc;
+        private final InputStream encrypted;
+        private final CRC32 crc = new CRC32();
+        private long count;
+        private boolean checked;
+
+        CrcCheckingInputStream(InputStream in, Entry entry, boolean checkCrc, InputStream encrypted) {
+            this.in = in;
+            this.entry = entry;
+            this.checkCrc = checkCrc;
+            this.encrypted = encrypted;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                crc.update(b, off, n);
+                count += n;
+            } else if (n < 0 && !checked) {
+                checked = true;
+                if (encrypted != null) {
+                    byte[] rest = new byte[8192];
+                    while (encrypted.read(rest, 0, rest.length) >= 0) {
+                        // MAC is checked when the ciphertext runs out
+                    }
+                }
+                if (count != entry.size) {
+                    throw new ZipException("Size mismatch for " + entry.name + ": expected "
+                            + entry.size + ", got " + count);
+                }
+                if (checkCrc && crc.getValue() != entry.crc) {
+                    throw new ZipException("CRC mismatch for " + entry.name);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
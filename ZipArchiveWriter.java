@@ -0,0 +1,691 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+// Low-level ZIP writer. Unlike ZipOutputStream it accepts entry data that has
+// already been compressed, so deflate can happen on other threads while this
+// class only lays out headers, payloads and the central directory.
+// ZIP64 fields are written where sizes, offsets or counts need them. An
+// entry streamed with beginEntry() gets them in its local header when its
+// size is unknown or close to 4 GB, since that header is written first.
+// With a CompressionJournal, finished entries are forced to disk and recorded
+// about once a second, and resume() carries on from what a journal recorded.
+public class ZipArchiveWriter implements Closeable {
+    static final int LOCAL_HEADER_SIG = 0x04034b50;
+    static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    static final int END_OF_CENTRAL_SIG = 0x06054b50;
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    static final int FLAG_UTF8 = 0x0800;
+
+    private static final int STAGING_SIZE = 64 * 1024;
+    // Room left for deflate and encryption overhead on streamed entries
+    private static final long ZIP64_MARGIN = 1 << 20;
+    private static final byte[] EMPTY = new byte[0];
+    // How often a journaled archive is forced to disk
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final WritableByteChannel out;
+    private final SplitVolumeChannel volumes;
+    private final ByteBuffer staging;
+    private final List<CentralRecord> central = new ArrayList<>();
+    private long position;
+    private String comment;
+    private CentralRecord openEntry;
+    private boolean finished;
+    private boolean transferTo = true;
+    private CompressionJournal journal;
+    // Finished entries not yet forced to disk and journaled
+    private final List<CentralRecord> unsynced = new ArrayList<>();
+    private long lastSync;
+
+    public ZipArchiveWriter(WritableByteChannel out) {
+        this.out = out;
+        this.volumes = out instanceof SplitVolumeChannel ? (SplitVolumeChannel) out : null;
+        this.staging = ByteBuffer.allocateDirect(STAGING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    // Whether writeStoredEntry() may use FileChannel.transferTo.
+    public void setTransferTo(boolean transferTo) {
+        this.transferTo = transferTo;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public int getEntryCount() {
+        return central.size();
+    }
+
+    // Whether duplicateEntry() can read earlier entries back, which needs a
+    // plain file opened for reading as well as writing.
+    public boolean canDuplicate() {
+        return out instanceof FileChannel && volumes == null;
+    }
+
+    // Writes a complete entry whose CRC and sizes are already known.
+    public void writeEntry(ZipEntry entry, byte[] data, int off, int len) throws IOException {
+        writeEntry(entry, methodOf(entry), data, off, len);
+    }
+
+    // As above, for data compressed with any method, such as Codec.ZSTD,
+    // which ZipEntry itself does not accept.
+    public void writeEntry(ZipEntry entry, int method, byte[] data, int off, int len) throws IOException {
+        ensureNoOpenEntry();
+        CentralRecord record = newRecord(entry, method, 0);
+        record.crc = record.zeroCrc ? 0 : entry.getCrc();
+        record.compressedSize = len;
+        record.size = entry.getSize();
+        writeLocalHeader(record);
+        write(data, off, len);
+        completed(record);
+    }
+
+    // Writes a stored entry by copying the first entry.getSize() bytes of the
+    // source; the entry's CRC must already be set. When the archive is a plain
+    // file the copy is a transferTo, so the data never enters the heap.
+    public void writeStoredEntry(ZipEntry entry, FileChannel source) throws IOException {
+        ensureNoOpenEntry();
+        entry.setMethod(ZipEntry.STORED);
+        CentralRecord record = newRecord(entry, ZipEntry.STORED, 0);
+        long size = entry.getSize();
+        record.crc = entry.getCrc();
+        record.compressedSize = size;
+        record.size = size;
+        writeLocalHeader(record);
+        flush();
+
+        long copied = 0;
+        while (copied < size) {
+            long n;
+            if (transferTo && out instanceof FileChannel) {
+                n = source.transferTo(copied, size - copied, out);
+            } else {
+                // Split volumes and other channels go through the staging buffer
+                staging.limit((int) Math.min(staging.capacity(), size - copied));
+                n = source.read(staging, copied);
+                flush();
+            }
+            if (n <= 0) {
+                throw new IOException("File changed while compressing: " + entry.getName());
+            }
+            copied += n;
+        }
+        position += size;
+        completed(record);
+    }
+
+    // Copies an entry from another archive as is, without decompressing and
+    // compressing it again, whatever its method. Encrypted entries keep their
+    // AES extra field, which makes newRecord() mark them as such.
+    public void copyEntry(ZipArchiveReader reader, ZipArchiveReader.Entry source) throws IOException {
+        ensureNoOpenEntry();
+        ZipEntry entry = new ZipEntry(source.getName());
+        entry.setTime(source.getTime());
+        entry.setExtra(source.getExtra());
+        entry.setComment(source.getComment());
+        // Keep the encryption and deflate option bits; sizes now go in the header
+        CentralRecord record = newRecord(entry, source.getMethod(), source.getFlags() & 0x0007);
+        record.crc = source.getCrc();
+        record.compressedSize = source.getCompressedSize();
+        record.size = source.getSize();
+        writeLocalHeader(record);
+        flush();
+        try {
+            reader.copyRaw(source, out, staging);
+        } finally {
+            staging.clear();
+        }
+        position += record.compressedSize;
+        completed(record);
+    }
+
+    // Writes an entry with the same content as entry number original by
+    // copying that entry's compressed (and possibly encrypted) data from the
+    // archive written so far. Only the name and time come from entry.
+    public void duplicateEntry(ZipEntry entry, int original) throws IOException {
+        ensureNoOpenEntry();
+        if (!canDuplicate()) {
+            throw new IllegalStateException("Cannot read back entries from this channel");
+        }
+        CentralRecord source = central.get(original);
+        entry.setExtra(source.extra.length > 0 ? source.extra : null);
+        CentralRecord record = newRecord(entry, source.method, source.flags & 0x0007);
+        record.crc = source.crc;
+        record.compressedSize = source.compressedSize;
+        record.size = source.size;
+        writeLocalHeader(record);
+        flush();
+
+        FileChannel channel = (FileChannel) out;
+        long from = source.offset + source.localLength;
+        long copied = 0;
+        try {
+            while (copied < record.compressedSize) {
+                staging.limit((int) Math.min(staging.capacity(), record.compressedSize - copied));
+                int n = channel.read(staging, from + copied);
+                if (n <= 0) {
+                    throw new IOException("Cannot read back " + source.name());
+                }
+                copied += n;
+                flush();
+            }
+        } finally {
+            staging.clear();
+        }
+        position += record.compressedSize;
+        completed(record);
+    }
+
+    // Records every entry from here on in journal. Needs a plain file, which
+    // is forced to disk before each batch of records.
+    public void setJournal(CompressionJournal journal) {
+        if (!canDuplicate()) {
+            throw new IllegalStateException("Only a plain file can be journaled");
+        }
+        this.journal = journal;
+        this.lastSync = System.nanoTime();
+    }
+
+    // Continues an archive an earlier writer left unfinished: entries are the
+    // first ones its journal recorded, and the file is cut back to the end of
+    // the last of them. Must come before anything is written; a journal set
+    // with setJournal() gets the entries again.
+    public void resume(List<CompressionJournal.Entry> entries) throws IOException {
+        if (!canDuplicate() || position != 0 || !central.isEmpty()) {
+            throw new IllegalStateException("Can only resume a plain file before writing to it");
+        }
+        FileChannel channel = (FileChannel) out;
+        long end = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).end;
+        if (channel.size() < end) {
+            throw new ZipException("Archive is shorter than its journal");
+        }
+        for (CompressionJournal.Entry entry : entries) {
+            CentralRecord record = CentralRecord.read(entry.record);
+            record.end = entry.end;
+            central.add(record);
+        }
+        channel.truncate(end);
+        channel.position(end);
+        position = end;
+        unsynced.addAll(central);
+        sync();
+    }
+
+    // Drops an entry left open, e.g. by a cancelled job, so that finish()
+    // ends the archive after the last whole entry. Only a plain file can be
+    // cut back; returns false for anything else.
+    public boolean rollback() throws IOException {
+        if (!canDuplicate()) {
+            return false;
+        }
+        if (openEntry != null) {
+            flush();
+            ((FileChannel) out).truncate(openEntry.offset);
+            position = openEntry.offset;
+            openEntry = null;
+        }
+        sync();
+        return true;
+    }
+
+    // Forces the entries finished so far to disk, then records them in the
+    // journal, if there is one.
+    public void sync() throws IOException {
+        if (journal == null || unsynced.isEmpty()) {
+            return;
+        }
+        flush();
+        ((FileChannel) out).force(false);
+        List<CompressionJournal.Entry> entries = new ArrayList<>(unsynced.size());
+        for (CentralRecord record : unsynced) {
+            entries.add(new CompressionJournal.Entry(record.name(), record.size, record.dosTime, record.end,
+                    record.toBytes()));
+        }
+        journal.append(entries);
+        unsynced.clear();
+        lastSync = System.nanoTime();
+    }
+
+    // Starts an entry whose sizes are not known yet; they follow the data in a
+    // data descriptor written by endEntry().
+    public void beginEntry(ZipEntry entry) throws IOException {
+        beginEntry(entry, methodOf(entry));
+    }
+
+    // entry.getSize() should be set if known, or ZIP64 headers are assumed.
+    public void beginEntry(ZipEntry entry, int method) throws IOException {
+        ensureNoOpenEntry();
+        CentralRecord record = newRecord(entry, method, FLAG_DATA_DESCRIPTOR);
+        record.zip64 = entry.getSize() < 0 || entry.getSize() >= Zip64.LIMIT - ZIP64_MARGIN;
+        writeLocalHeader(record);
+        openEntry = record;
+    }
+
+    public void writeData(byte[] data, int off, int len) throws IOException {
+        if (openEntry == null) {
+            throw new IllegalStateException("No entry is open");
+        }
+        write(data, off, len);
+    }
+
+    public void endEntry(long crc, long compressedSize, long size) throws IOException {
+        if (openEntry == null) {
+            throw new IllegalStateException("No entry is open");
+        }
+        CentralRecord record = openEntry;
+        openEntry = null;
+        if (!record.zip64 && (compressedSize >= Zip64.LIMIT || size >= Zip64.LIMIT)) {
+            throw new ZipException(record.name() + " outgrew the 4 GB its header was written for");
+        }
+        record.crc = record.zeroCrc ? 0 : crc;
+        record.compressedSize = compressedSize;
+        record.size = size;
+
+        // With ZIP64 the sizes take 8 bytes each
+        int length = record.zip64 ? 24 : 16;
+        startRecord(length);
+        reserve(length);
+        staging.putInt(DATA_DESCRIPTOR_SIG);
+        staging.putInt((int) record.crc);
+        if (record.zip64) {
+            staging.putLong(compressedSize);
+            staging.putLong(size);
+        } else {
+            staging.putInt((int) compressedSize);
+            staging.putInt((int) size);
+        }
+        position += length;
+        completed(record);
+    }
+
+    // Writes the central directory and end record, preceded by the ZIP64
+    // end record and locator when counts or offsets need them. The channel
+    // stays open.
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        ensureNoOpenEntry();
+        long centralStart = position;
+        int centralDisk = 0;
+        long centralOffset = centralStart;
+        for (int i = 0; i < central.size(); i++) {
+            CentralRecord record = central.get(i);
+            int disk = startRecord(centralHeaderLength(record));
+            if (i == 0) {
+                centralDisk = disk;
+                centralOffset = volumes != null ? volumes.getVolumePosition() : centralStart;
+            }
+            writeCentralHeader(record);
+        }
+        long centralSize = position - centralStart;
+
+        byte[] commentBytes = comment != null ? comment.getBytes(StandardCharsets.UTF_8) : EMPTY;
+        // A roll-over in startRecord() below could still add a disk
+        boolean zip64 = central.size() >= Zip64.COUNT_LIMIT || centralSize >= Zip64.LIMIT
+                || centralOffset >= Zip64.LIMIT
+                || (volumes != null && volumes.getVolumeIndex() >= Zip64.COUNT_LIMIT - 1);
+        int endLength = 22 + commentBytes.length + (zip64 ? Zip64.END_SIZE + Zip64.LOCATOR_SIZE : 0);
+        int lastDisk = startRecord(endLength);
+        long endOffset = volumes != null ? volumes.getVolumePosition() : position;
+        if (central.isEmpty()) {
+            centralDisk = lastDisk;
+            centralOffset = endOffset;
+        }
+        int entriesOnLastDisk = 0;
+        for (CentralRecord record : central) {
+            if (record.centralDisk == lastDisk) {
+                entriesOnLastDisk++;
+            }
+        }
+        if (zip64) {
+            reserve(Zip64.END_SIZE + Zip64.LOCATOR_SIZE);
+            staging.putInt(Zip64.END_SIG);
+            staging.putLong(Zip64.END_SIZE - 12);
+            staging.putShort((short) Zip64.VERSION);
+            staging.putShort((short) Zip64.VERSION);
+            staging.putInt(lastDisk);
+            staging.putInt(centralDisk);
+            staging.putLong(entriesOnLastDisk);
+            staging.putLong(central.size());
+            staging.putLong(centralSize);
+            staging.putLong(centralOffset);
+            staging.putInt(Zip64.LOCATOR_SIG);
+            staging.putInt(lastDisk);
+            staging.putLong(endOffset);
+            staging.putInt(lastDisk + 1);
+            position += Zip64.END_SIZE + Zip64.LOCATOR_SIZE;
+        }
+        reserve(22);
+        staging.putInt(END_OF_CENTRAL_SIG);
+        staging.putShort((short) Math.min(lastDisk, Zip64.COUNT_LIMIT));
+        staging.putShort((short) Math.min(centralDisk, Zip64.COUNT_LIMIT));
+        staging.putShort((short) Math.min(entriesOnLastDisk, Zip64.COUNT_LIMIT));
+        staging.putShort((short) Math.min(central.size(), Zip64.COUNT_LIMIT));
+        staging.putInt((int) Math.min(centralSize, Zip64.LIMIT));
+        staging.putInt((int) Math.min(centralOffset, Zip64.LIMIT));
+        staging.putShort((short) commentBytes.length);
+        position += 22;
+        write(commentBytes, 0, commentBytes.length);
+        flush();
+        finished = true;
+    }
+
+    public void flush() throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) {
+            out.write(staging);
+        }
+        staging.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void completed(CentralRecord record) throws IOException {
+        record.end = position;
+        central.add(record);
+        if (journal != null) {
+            unsynced.add(record);
+            if (System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS) {
+                sync();
+            }
+        }
+    }
+
+    private void ensureNoOpenEntry() {
+        if (openEntry != null) {
+            throw new IllegalStateException("Entry still open: " + openEntry.name());
+        }
+    }
+
+    private static int methodOf(ZipEntry entry) {
+        return entry.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    }
+
+    private CentralRecord newRecord(ZipEntry entry, int method, int extraFlags) {
+        CentralRecord record = new CentralRecord();
+        record.nameBytes = entry.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] extra = Zip64.strip(entry.getExtra());
+        record.extra = extra != null && extra.length > 0 ? extra : EMPTY;
+        record.commentBytes = entry.getComment() != null
+                ? entry.getComment().getBytes(StandardCharsets.UTF_8) : EMPTY;
+        record.method = method;
+        record.flags = FLAG_UTF8 | extraFlags;
+        WinZipAes.ExtraField aes = WinZipAes.ExtraField.find(record.extra);
+        if (aes != null) {
+            record.method = WinZipAes.METHOD;
+            record.flags |= WinZipAes.FLAG_ENCRYPTED;
+            record.zeroCrc = !aes.hasCrc();
+        }
+        record.dosTime = toDosTime(entry.getTime() != -1 ? entry.getTime() : System.currentTimeMillis());
+        record.offset = position;
+        return record;
+    }
+
+    // In a split archive no header may straddle two volumes, so flush, roll
+    // over if needed and return the disk the record will land on.
+    private int startRecord(int length) throws IOException {
+        if (volumes == null) {
+            return 0;
+        }
+        flush();
+        volumes.ensureSpace(length);
+        return volumes.getVolumeIndex();
+    }
+
+    private void writeLocalHeader(CentralRecord record) throws IOException {
+        boolean deferred = (record.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        if (!deferred) {
+            record.zip64 = record.size >= Zip64.LIMIT || record.compressedSize >= Zip64.LIMIT;
+        }
+        // A local ZIP64 field always holds both sizes, zero until known
+        int zip64Length = record.zip64 ? 20 : 0;
+        record.localLength = 30 + record.nameBytes.length + zip64Length + record.extra.length;
+        record.disk = startRecord(record.localLength);
+        if (volumes != null) {
+            record.offset = volumes.getVolumePosition();
+        }
+        reserve(30);
+        staging.putInt(LOCAL_HEADER_SIG);
+        staging.putShort((short) versionNeeded(record, record.zip64));
+        staging.putShort((short) record.flags);
+        staging.putShort((short) record.method);
+        staging.putInt((int) record.dosTime);
+        staging.putInt(deferred ? 0 : (int) record.crc);
+        staging.putInt(record.zip64 ? (int) Zip64.LIMIT : deferred ? 0 : (int) record.compressedSize);
+        staging.putInt(record.zip64 ? (int) Zip64.LIMIT : deferred ? 0 : (int) record.size);
+        staging.putShort((short) record.nameBytes.length);
+        staging.putShort((short) (zip64Length + record.extra.length));
+        position += 30;
+        write(record.nameBytes, 0, record.nameBytes.length);
+        if (record.zip64) {
+            reserve(zip64Length);
+            staging.putShort((short) Zip64.EXTRA_ID);
+            staging.putShort((short) 16);
+            staging.putLong(deferred ? 0 : record.size);
+            staging.putLong(deferred ? 0 : record.compressedSize);
+            position += zip64Length;
+        }
+        write(record.extra, 0, record.extra.length);
+    }
+
+    // Bytes of ZIP64 data the central header needs: only the values that do
+    // not fit their usual field, in the order the format lists them.
+    private static int zip64CentralLength(CentralRecord record) {
+        return (record.size >= Zip64.LIMIT ? 8 : 0)
+                + (record.compressedSize >= Zip64.LIMIT ? 8 : 0)
+                + (record.offset >= Zip64.LIMIT ? 8 : 0)
+                + (record.disk >= Zip64.COUNT_LIMIT ? 4 : 0);
+    }
+
+    private static int centralHeaderLength(CentralRecord record) {
+        int zip64Length = zip64CentralLength(record);
+        return 46 + record.nameBytes.length + (zip64Length > 0 ? 4 + zip64Length : 0)
+                + record.extra.length + record.commentBytes.length;
+    }
+
+    private void writeCentralHeader(CentralRecord record) throws IOException {
+        record.centralDisk = volumes != null ? volumes.getVolumeIndex() : 0;
+        int zip64Length = zip64CentralLength(record);
+        int version = versionNeeded(record, record.zip64 || zip64Length > 0);
+        reserve(46);
+        staging.putInt(CENTRAL_HEADER_SIG);
+        staging.putShort((short) Math.max(20, version));
+        staging.putShort((short) version);
+        staging.putShort((short) record.flags);
+        staging.putShort((short) record.method);
+        staging.putInt((int) record.dosTime);
+        staging.putInt((int) record.crc);
+        staging.putInt((int) Math.min(record.compressedSize, Zip64.LIMIT));
+        staging.putInt((int) Math.min(record.size, Zip64.LIMIT));
+        staging.putShort((short) record.nameBytes.length);
+        staging.putShort((short) ((zip64Length > 0 ? 4 + zip64Length : 0) + record.extra.length));
+        staging.putShort((short) record.commentBytes.length);
+        staging.putShort((short) Math.min(record.disk, Zip64.COUNT_LIMIT));
+        staging.putShort((short) 0);
+        staging.putInt(0);
+        staging.putInt((int) Math.min(record.offset, Zip64.LIMIT));
+        position += 46;
+        write(record.nameBytes, 0, record.nameBytes.length);
+        if (zip64Length > 0) {
+            reserve(4 + zip64Length);
+            staging.putShort((short) Zip64.EXTRA_ID);
+            staging.putShort((short) zip64Length);
+            if (record.size >= Zip64.LIMIT) {
+                staging.putLong(record.size);
+            }
+            if (record.compressedSize >= Zip64.LIMIT) {
+                staging.putLong(record.compressedSize);
+            }
+            if (record.offset >= Zip64.LIMIT) {
+                staging.putLong(record.offset);
+            }
+            if (record.disk >= Zip64.COUNT_LIMIT) {
+                staging.putInt(record.disk);
+            }
+            position += 4 + zip64Length;
+        }
+        write(record.extra, 0, record.extra.length);
+        write(record.commentBytes, 0, record.commentBytes.length);
+    }
+
+    private void write(byte[] data, int off, int len) throws IOException {
+        if (len <= staging.remaining()) {
+            staging.put(data, off, len);
+        } else {
+            flush();
+            if (len <= staging.capacity() / 2) {
+                staging.put(data, off, len);
+            } else {
+                ByteBuffer wrapped = ByteBuffer.wrap(data, off, len);
+                while (wrapped.hasRemaining()) {
+                    out.write(wrapped);
+                }
+            }
+        }
+        position += len;
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (staging.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private static int versionNeeded(CentralRecord record, boolean zip64) {
+        return Math.max(versionNeeded(record), zip64 ? Zip64.VERSION : 0);
+    }
+
+    private static int versionNeeded(CentralRecord record) {
+        if (record.method == Codec.ZSTD) {
+            return 63;
+        }
+        if (record.method == WinZipAes.METHOD) {
+            WinZipAes.ExtraField aes = WinZipAes.ExtraField.find(record.extra);
+            return aes != null && aes.getMethod() == Codec.ZSTD ? 63 : 51;
+        }
+        return record.method == ZipEntry.DEFLATED || (record.flags & FLAG_DATA_DESCRIPTOR) != 0 ? 20 : 10;
+    }
+
+    static long toDosTime(long javaTime) {
+        LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(javaTime), ZoneId.systemDefault());
+        int year = ldt.getYear();
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25)
+                | ((long) ldt.getMonthValue() << 21)
+                | ((long) ldt.getDayOfMonth() << 16)
+                | ((long) ldt.getHour() << 11)
+                | ((long) ldt.getMinute() << 5)
+                | ((long) ldt.getSecond() >> 1);
+    }
+
+    // Kept for every entry until finish(), so it holds no more than the
+    // central header needs.
+    private static class CentralRecord {
+        byte[] nameBytes;
+        byte[] extra;
+        byte[] commentBytes;
+        int method;
+        int flags;
+        long dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        long offset;
+        int disk;
+        int centralDisk;
+        boolean zeroCrc;
+        // Sizes in a ZIP64 local field and 8-byte data descriptor
+        boolean zip64;
+        int localLength;
+        // Archive position after the entry, for the journal
+        long end;
+
+        String name() {
+            return new String(nameBytes, StandardCharsets.UTF_8);
+        }
+
+        // For the journal, which only holds entries of plain files, so the
+        // disk numbers are always 0.
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + nameBytes.length + extra.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeBytes(out, nameBytes);
+            writeBytes(out, extra);
+            writeBytes(out, commentBytes);
+            out.writeShort(method);
+            out.writeShort(flags);
+            out.writeLong(dosTime);
+            out.writeLong(crc);
+            out.writeLong(compressedSize);
+            out.writeLong(size);
+            out.writeLong(offset);
+            out.writeBoolean(zeroCrc);
+            out.writeBoolean(zip64);
+            out.writeInt(localLength);
+            return bytes.toByteArray();
+        }
+
+        static CentralRecord read(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            CentralRecord record = new CentralRecord();
+            record.nameBytes = readBytes(in);
+            record.extra = readBytes(in);
+            record.commentBytes = readBytes(in);
+            record.method = in.readUnsignedShort();
+            record.flags = in.readUnsignedShort();
+            record.dosTime = in.readLong();
+            record.crc = in.readLong();
+            record.compressedSize = in.readLong();
+            record.size = in.readLong();
+            record.offset = in.readLong();
+            record.zeroCrc = in.readBoolean();
+            record.zip64 = in.readBoolean();
+            record.localLength = in.readInt();
+            return record;
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            return bytes.length > 0 ? bytes : EMPTY;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+// Command-line front end for ZipEngine. Runs without a display, so archives
+// can be created and extracted from scripts and cron jobs.
+public class ZipCli {
+    private static final String USAGE =
+        "Usage: java EnhancedZipUtility <command> [options]\n" +
+        "\n" +
+        "Commands:\n" +
+        "  compress <source> <dest.zip>   Compress a file or folder; dest - writes the\n" +
+        "                                 archive to standard output\n" +
+        "  extract <archive.zip> [dest]   Extract an archive (default: <name>_extracted);\n" +
+        "                                 archive - reads it from standard input\n" +
+        "  verify <archive.zip>           Check every entry's CRC and report the bad ones\n" +
+        "  list <archive.zip>             List archive entries\n" +
+        "  find <name|glob> <archive.zip|folder>...\n" +
+        "                                 Find entries in archives, searching folders for\n" +
+        "                                 .zip files\n" +
+        "\n" +
+        "Compression options:\n" +
+        "  --level <none|fastest|default|maximum|0-9>\n" +
+        "  --method <deflate|fast|zstd>   Codec: zlib deflate (default), a faster pure-Java\n" +
+        "                                 deflate encoder, or Zstandard (needs zstd-jni)\n" +
+        "  --adaptive                     Pick each file's level from a sample: stored,\n" +
+        "                                 fastest or maximum\n" +
+        "  --min-saving <percent>         With --adaptive, store files whose sample saves\n" +
+        "                                 less (default 5)\n" +
+        "  --min-speed <MB/s>             With --adaptive, skip the maximum level for files\n" +
+        "                                 whose sample deflated slower at it\n" +
+        "  --password <password>          Encrypt entries with AES-256\n" +
+        "  --no-subdirs                   Do not include subdirectories\n" +
+        "  --include-hidden               Include hidden files\n" +
+        "  --filter <patterns>            File filter, e.g. \"*.txt, *.jpg, !build/\"\n" +
+        "  --include <pattern>            Only include matching files (repeatable)\n" +
+        "  --exclude <pattern>            Exclude matching files; a trailing / excludes a\n" +
+        "                                 directory without scanning it (repeatable)\n" +
+        "                                 Patterns: *.log, src/**/*.java, build/, re:<regex>\n" +
+        "  --min-size <size>              Skip smaller files, e.g. 10K\n" +
+        "  --max-size <size>              Skip larger files, e.g. 2G\n" +
+        "  --newer <date|Nd>              Only files modified since, e.g. 2024-05-01 or 7d\n" +
+        "  --older <date|Nd>              Only files modified before\n" +
+        "  --split <MB>                   Split archive into parts of this size\n" +
+        "  --timestamp                    Add timestamp to archive filename\n" +
+        "  --verify                       Verify archive after creation\n" +
+        "  --threads <n>                  Compress in parallel on n threads\n" +
+        "  --overwrite                    Replace an existing destination\n" +
+        "  --update                       Update an existing archive, recompressing only\n" +
+        "                                 new or modified files\n" +
+        "  --checksum                     With --update, also compare CRC-32s, not just\n" +
+        "                                 size and modification time\n" +
+        "  --dedup                        Compress identical files once and copy the\n" +
+        "                                 compressed data for each duplicate\n" +
+        "  --resumable                    Keep a journal so an interrupted run can be\n" +
+        "                                 resumed by running the same command again\n" +
+        "  --no-auto-store                Deflate already-compressed files (JPEG, MP4, .gz, ...) too\n" +
+        "\n" +
+        "Extraction options:\n" +
+        "  --password <password>          Password for encrypted entries\n" +
+        "  --entry <name|glob>            Only extract matching entries (repeatable)\n" +
+        "  --threads <n>                  Extract on n threads\n" +
+        "  --preserve-times               Restore the modification times stored in the archive\n" +
+        "  --preserve-permissions         Restore Unix permissions, where the archive has them\n" +
+        "\n" +
+        "Verification options:\n" +
+        "  --password <password>          Also check encrypted entries\n" +
+        "  --threads <n>                  Read entries on n threads (default: all cores)\n" +
+        "  --structure                    Only check headers and offsets, without\n" +
+        "                                 decompressing anything\n" +
+        "\n" +
+        "General options:\n" +
+        "  --quiet                        Only print errors\n" +
+        "  --progress                     Show progress, speed and ETA on stderr\n" +
+        "  --log-file <path>              Write the full per-entry log to a file\n" +
+        "  --stats <file.json>            Write the job's timings and counters as JSON:\n" +
+        "                                 phases, bytes, CPU per codec, queue depth, stalls\n" +
+        "  --index-dir <dir>              Keep an index of each archive list, extract and\n" +
+        "                                 find open in dir, and read it on later runs\n" +
+        "  --index                        The same in ~/.cache/enhanced-zip-utility/index\n" +
+        "  --buffer <KB>                  I/O buffer size (default 64)\n" +
+        "  --no-zero-copy                 Copy stored entries through the heap instead of\n" +
+        "                                 using transferTo and direct buffers, and read\n" +
+        "                                 large files instead of mapping them\n";
+
+    // Archive name for standard input or output
+    private static final String STDIO = "-";
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private boolean quiet;
+    private boolean showProgress;
+    // Where the log and totals go: out, unless the archive itself does
+    private PrintStream messages;
+
+    ZipCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        this.messages = out;
+    }
+
+    public static int run(String[] args) {
+        return new ZipCli(System.out, System.err).execute(args);
+    }
+
+    int execute(String[] args) {
+        if (args.length == 0 || args[0].equals("help") || args[0].equals("--help") || args[0].equals("-h")) {
+            out.print(USAGE);
+            return args.length == 0 ? 2 : 0;
+        }
+
+        List<String> positional = new ArrayList<>();
+        CompressionOptions options = new CompressionOptions();
+        ExtractionOptions extractOptions = new ExtractionOptions();
+        IoSettings io = new IoSettings();
+        options.setIoSettings(io);
+        extractOptions.setIoSettings(io);
+        boolean overwrite = false;
+        boolean structureOnly = false;
+        String logFile = null;
+        String statsFile = null;
+        File indexDir = null;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--level": options.setLevel(parseLevel(value(args, ++i, arg))); break;
+                    case "--password":
+                        options.setPassword(value(args, i + 1, arg));
+                        extractOptions.setPassword(value(args, ++i, arg));
+                        break;
+                    case "--no-subdirs": options.setIncludeSubdirs(false); break;
+                    case "--include-hidden": options.setExcludeHiddenFiles(false); break;
+                    case "--filter": options.setFileFilter(value(args, ++i, arg)); break;
+                    case "--include": options.addIncludePattern(value(args, ++i, arg)); break;
+                    case "--exclude": options.addExcludePattern(value(args, ++i, arg)); break;
+                    case "--min-size": options.setMinSize(EntryFilter.parseSize(value(args, ++i, arg))); break;
+                    case "--max-size": options.setMaxSize(EntryFilter.parseSize(value(args, ++i, arg))); break;
+                    case "--newer": options.setModifiedAfter(EntryFilter.parseTime(value(args, ++i, arg))); break;
+                    case "--older": options.setModifiedBefore(EntryFilter.parseTime(value(args, ++i, arg))); break;
+                    case "--split": options.setSplitSize(parsePositive(value(args, ++i, arg), arg) * 1024L * 1024); break;
+                    case "--timestamp": options.setAddTimestamp(true); break;
+                    case "--verify": options.setVerifyAfter(true); break;
+                    case "--threads":
+                        options.setThreads(parsePositive(value(args, i + 1, arg), arg));
+                        extractOptions.setThreads(parsePositive(value(args, ++i, arg), arg));
+                        break;
+                    case "--entry": extractOptions.addEntryPattern(value(args, ++i, arg)); break;
+                    case "--preserve-times": extractOptions.setPreserveTimes(true); break;
+                    case "--preserve-permissions": extractOptions.setPreservePermissions(true); break;
+                    case "--structure": structureOnly = true; break;
+                    case "--overwrite": overwrite = true; break;
+                    case "--update": options.setUpdate(true); break;
+                    case "--checksum": options.setCompareChecksums(true); break;
+                    case "--method":
+                        options.setMethod(value(args, ++i, arg));
+                        Codec.forName(options.getMethod(), options.getLevel());
+                        break;
+                    case "--dedup": options.setDeduplicate(true); break;
+                    case "--resumable": options.setResumable(true); break;
+                    case "--adaptive": options.setAdaptive(true); break;
+                    case "--min-saving": options.setMinSaving(parseNonNegative(value(args, ++i, arg), arg)); break;
+                    case "--min-speed": options.setMinSpeed(parseNonNegative(value(args, ++i, arg), arg)); break;
+                    case "--no-auto-store": options.setAutoStore(false); break;
+                    case "--buffer": io.setBufferSize(parsePositive(value(args, ++i, arg), arg) * 1024); break;
+                    case "--no-zero-copy": io.setTransferTo(false).setDirectBuffers(false).setMemoryMapped(false); break;
+                    case "--quiet": quiet = true; break;
+                    case "--progress": showProgress = true; break;
+                    case "--log-file": logFile = value(args, ++i, arg); break;
+                    case "--stats": statsFile = value(args, ++i, arg); break;
+                    case "--index-dir": indexDir = new File(value(args, ++i, arg)); break;
+                    case "--index": indexDir = ArchiveIndex.defaultDirectory(); break;
+                    // Off unless asked for; still accepted from older scripts
+                    case "--no-index": indexDir = null; break;
+                    default:
+                        if (arg.startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        positional.add(arg);
+                }
+            }
+
+            if (args[0].equals("compress") && positional.size() == 2 && positional.get(1).equals(STDIO)) {
+                messages = err;
+            }
+            final LogSink fileLog = logFile != null ? LogSink.toFile(logFile) : null;
+            ZipEngine engine = new ZipEngine(new ZipListener() {
+                @Override
+                public void log(String message) {
+                    if (fileLog != null) {
+                        fileLog.append(message);
+                    }
+                    if (!quiet) {
+                        messages.println(message);
+                    }
+                }
+
+                @Override
+                public void progress(ProgressSnapshot snapshot) {
+                    if (showProgress) {
+                        // Overwrite the same line until the final snapshot
+                        String line = String.format("%-79s", snapshot.getStatus());
+                        err.print("\r" + line + (snapshot.getPercent() >= 100 ? "\n" : ""));
+                        err.flush();
+                    }
+                }
+            });
+            engine.setIndexDirectory(indexDir);
+
+            try {
+                switch (args[0]) {
+                    case "compress":
+                        return compress(engine, positional, options, overwrite);
+                    case "extract":
+                        return extract(engine, positional, extractOptions);
+                    case "verify":
+                        return verify(engine, positional, extractOptions.getPassword(),
+                                options.getThreads() > 0 ? options.getThreads()
+                                        : Runtime.getRuntime().availableProcessors(), structureOnly);
+                    case "list":
+                        return list(engine, positional);
+                    case "find":
+                        return find(engine, positional);
+                    default:
+                        throw new IllegalArgumentException("Unknown command: " + args[0]);
+                }
+            } finally {
+                // Failed and cancelled jobs too, saying so in "outcome"
+                if (statsFile != null && engine.getLastMetrics() != null) {
+                    try {
+                        engine.getLastMetrics().writeJson(new File(statsFile));
+                    } catch (IOException e) {
+                        err.println("Error: cannot write " + statsFile + ": " + e.getMessage());
+                    }
+                }
+                if (fileLog != null) {
+                    fileLog.close();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            err.print(USAGE);
+            return 2;
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private int compress(ZipEngine engine, List<String> positional, CompressionOptions options,
+                         boolean overwrite) throws IOException {
+        requireArgs(positional, 2, 2);
+        String source = positional.get(0);
+        String dest = positional.get(1);
+
+        if (!new File(source).exists()) {
+            err.println("Error: Source file/folder does not exist");
+            return 1;
+        }
+        if (dest.equals(STDIO)) {
+            ZipEngine.CompressionResult result = engine.compress(source,
+                    new FileOutputStream(FileDescriptor.out).getChannel(), options);
+            printSizes(result);
+            return 0;
+        }
+        if (new File(dest).exists() && !overwrite && !options.isUpdate()
+                && !(options.isResumable() && ZipEngine.hasJournal(dest))) {
+            err.println("Error: Destination file already exists (use --overwrite or --update)");
+            return 1;
+        }
+
+        ZipEngine.CompressionResult result = engine.compress(source, dest, options);
+        printSizes(result);
+        return result.isVerified() ? 0 : 1;
+    }
+
+    private void printSizes(ZipEngine.CompressionResult result) {
+        if (!quiet) {
+            DecimalFormat df = new DecimalFormat("#,##0");
+            messages.println("Original: " + df.format(result.getOriginalSize()) + " bytes");
+            messages.println("Compressed: " + df.format(result.getCompressedSize()) + " bytes");
+        }
+    }
+
+    private int extract(ZipEngine engine, List<String> positional, ExtractionOptions options) throws IOException {
+        requireArgs(positional, 1, 2);
+        String source = positional.get(0);
+        if (source.equals(STDIO)) {
+            // Like tar, into the current folder by default
+            engine.extract(new FileInputStream(FileDescriptor.in).getChannel(),
+                    positional.size() > 1 ? positional.get(1) : ".", options);
+            return 0;
+        }
+        File sourceFile = new File(source);
+        if (!sourceFile.exists() || !source.toLowerCase().endsWith(".zip")) {
+            err.println("Error: Please select a valid ZIP file");
+            return 1;
+        }
+
+        // If destination is empty, extract to same directory as source
+        String dest;
+        if (positional.size() > 1) {
+            dest = positional.get(1);
+        } else {
+            String parent = sourceFile.getAbsoluteFile().getParent();
+            String name = sourceFile.getName().replace(".zip", "");
+            dest = parent + File.separator + name + "_extracted";
+        }
+
+        engine.extract(source, dest, options);
+        return 0;
+    }
+
+    // The engine logs each failed entry and the totals; with --quiet only
+    // the failures are printed, on stderr.
+    private int verify(ZipEngine engine, List<String> positional, String password, int threads,
+                       boolean structureOnly) throws IOException {
+        requireArgs(positional, 1, 1);
+        ZipEngine.VerifyResult result = engine.verify(positional.get(0), password, threads, structureOnly);
+        if (result.isOk()) {
+            if (!quiet) {
+                out.println("Archive verification successful");
+            }
+            return 0;
+        }
+        if (quiet) {
+            for (ZipEngine.VerifyResult.Failure failure : result.getFailures()) {
+                err.println("Failed: " + failure.getName() + ": " + failure.getReason());
+            }
+        }
+        err.println("Archive verification failed for " + result.getFailures().size() + " of "
+                + result.getCheckedCount() + " entries");
+        return 1;
+    }
+
+    private int list(ZipEngine engine, List<String> positional) throws IOException {
+        requireArgs(positional, 1, 1);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        long totalSize = 0;
+        List<ZipArchiveReader.Entry> entries = engine.list(positional.get(0));
+        for (ZipArchiveReader.Entry entry : entries) {
+            out.println(String.format("%12d  %12d  %s  %s", entry.getSize(), entry.getCompressedSize(),
+                    dateFormat.format(new Date(entry.getTime())), entry.getName()));
+            totalSize += entry.getSize();
+        }
+        out.println(String.format("%12d  %d entries", totalSize, entries.size()));
+        return 0;
+    }
+
+    // Prints each match as size, archive and entry name. Archives that
+    // cannot be read are reported and skipped; exits with 1 if nothing
+    // matched.
+    private int find(ZipEngine engine, List<String> positional) throws IOException {
+        requireArgs(positional, 2, Integer.MAX_VALUE);
+        String pattern = positional.get(0);
+        List<File> archives = new ArrayList<>();
+        for (String path : positional.subList(1, positional.size())) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                try (Stream<Path> walk = Files.walk(file.toPath())) {
+                    walk.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".zip")
+                                    && Files.isRegularFile(p))
+                            .sorted()
+                            .forEach(p -> archives.add(p.toFile()));
+                }
+            } else {
+                archives.add(file);
+            }
+        }
+
+        int matches = 0;
+        for (File archive : archives) {
+            List<ZipArchiveReader.Entry> entries;
+            try {
+                entries = engine.find(archive.getPath(), pattern);
+            } catch (IOException e) {
+                err.println("Skipped " + archive + ": " + e.getMessage());
+                continue;
+            }
+            for (ZipArchiveReader.Entry entry : entries) {
+                out.println(String.format("%12d  %s  %s", entry.getSize(), archive.getPath(), entry.getName()));
+            }
+            matches += entries.size();
+        }
+        if (!quiet) {
+            out.println(matches + " matches in " + archives.size() + " archives");
+        }
+        return matches > 0 ? 0 : 1;
+    }
+
+    private static void requireArgs(List<String> positional, int min, int max) {
+        if (positional.size() < min) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        if (positional.size() > max) {
+            throw new IllegalArgumentException("Unexpected argument: " + positional.get(max));
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int parsePositive(String value, String option) {
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n < 1) {
+                throw new NumberFormatException();
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    private static double parseNonNegative(String value, String option) {
+        try {
+            double n = Double.parseDouble(value.trim());
+            if (!(n >= 0) || Double.isInfinite(n)) {
+                throw new NumberFormatException();
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    static int parseLevel(String value) {
+        switch (value.toLowerCase()) {
+            case "none": return Deflater.NO_COMPRESSION;
+            case "fastest": return Deflater.BEST_SPEED;
+            case "default": return Deflater.DEFAULT_COMPRESSION;
+            case "maximum": return Deflater.BEST_COMPRESSION;
+            default:
+                try {
+                    int level = Integer.parseInt(value);
+                    if (level >= 0 && level <= 9) {
+                        return level;
+                    }
+                } catch (NumberFormatException e) {
+                    // fall through
+                }
+                throw new IllegalArgumentException("Invalid compression level: " + value);
+        }
+    }
+}
@@ -0,0 +1,1433 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.zip.*;
+
+// Compression and extraction engine shared by the GUI and the command line.
+// Nothing in here touches Swing; all output goes through a ZipListener.
+public class ZipEngine {
+    private final ZipListener listener;
+    private File indexDirectory;
+    // Of the job running or run last; jobs on one engine run one at a time
+    private volatile JobMetrics metrics;
+
+    public ZipEngine(ZipListener listener) {
+        this.listener = listener != null ? listener : ZipListener.NONE;
+    }
+
+    // Timings and counters of the last compress(), extract() or verify(),
+    // finished or not; null before the first.
+    public JobMetrics getLastMetrics() {
+        return metrics;
+    }
+
+    // Where listing, extraction and find keep each archive's index, so the
+    // next run does not read its central directory again; null (the
+    // default) reads it every time.
+    public File getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    public ZipEngine setIndexDirectory(File indexDirectory) {
+        this.indexDirectory = indexDirectory;
+        return this;
+    }
+
+    public static class CompressionResult {
+        private final String archivePath;
+        private final long originalSize;
+        private final long compressedSize;
+        private final boolean verified;
+
+        CompressionResult(String archivePath, long originalSize, long compressedSize, boolean verified) {
+            this.archivePath = archivePath;
+            this.originalSize = originalSize;
+            this.compressedSize = compressedSize;
+            this.verified = verified;
+        }
+
+        // null for an archive written to a channel
+        public String getArchivePath() {
+            return archivePath;
+        }
+
+        public long getOriginalSize() {
+            return originalSize;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        // Space saved as a percentage of the original size.
+        public double getRatio() {
+            return originalSize > 0 ? (1 - (double) compressedSize / originalSize) * 100 : 0;
+        }
+
+        // False only when verification was requested and failed.
+        public boolean isVerified() {
+            return verified;
+        }
+    }
+
+    public static class VerifyResult {
+        // An entry that failed, and why.
+        public static class Failure {
+            private final String name;
+            private final String reason;
+
+            Failure(String name, String reason) {
+                this.name = name;
+                this.reason = reason;
+            }
+
+            public String getName() {
+                return name;
+            }
+
+            public String getReason() {
+                return reason;
+            }
+        }
+
+        private final int checked;
+        private final int skipped;
+        private final long bytes;
+        private final long elapsedMillis;
+        private final boolean structureOnly;
+        private final List<Failure> failures;
+
+        VerifyResult(int checked, int skipped, long bytes, long elapsedMillis, boolean structureOnly,
+                     List<Failure> failures) {
+            this.checked = checked;
+            this.skipped = skipped;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+            this.structureOnly = structureOnly;
+            this.failures = failures;
+        }
+
+        public boolean isOk() {
+            return failures.isEmpty();
+        }
+
+        // In archive order.
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        public int getCheckedCount() {
+            return checked;
+        }
+
+        // Encrypted entries, when no password was given.
+        public int getSkippedCount() {
+            return skipped;
+        }
+
+        // Uncompressed bytes read back, 0 for a structure-only check.
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getBytesPerSecond() {
+            return elapsedMillis > 0 ? bytes * 1000.0 / elapsedMillis : 0;
+        }
+
+        // "300 entries checked, 0 failed, 0 skipped; 344.3 MB in 1.20 s (287.0 MB/s)"
+        public String getSummary() {
+            String counts = checked + " entries checked, " + failures.size() + " failed, " + skipped + " skipped";
+            if (structureOnly) {
+                return counts + " (headers only) in " + String.format("%.2f s", elapsedMillis / 1000.0);
+            }
+            return counts + String.format("; %.1f MB in %.2f s (%.1f MB/s)", bytes / 1e6,
+                    elapsedMillis / 1000.0, getBytesPerSecond() / 1e6);
+        }
+    }
+
+    public CompressionResult compress(String sourcePath, String destPath, CompressionOptions options)
+            throws IOException {
+        listener.log("Starting compression...");
+
+        File source = new File(sourcePath);
+
+        String finalDestPath = destPath;
+        if (options.isAddTimestamp()) {
+            int dotIndex = destPath.lastIndexOf(".");
+            if (dotIndex > 0) {
+                finalDestPath = destPath.substring(0, dotIndex) + "_" +
+                               System.currentTimeMillis() +
+                               destPath.substring(dotIndex);
+            } else {
+                finalDestPath = destPath + "_" + System.currentTimeMillis();
+            }
+        }
+
+        JobMetrics job = startJob("compress", finalDestPath);
+        String outcome = "failed";
+        try {
+            CompressionResult result = compress(source, finalDestPath, options, job);
+            outcome = "completed";
+            return result;
+        } catch (InterruptedIOException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            endJob(job, outcome);
+        }
+    }
+
+    // Writes the archive to out, such as standard output, a pipe or a
+    // socket, which must be in blocking mode and is left open. Nothing is
+    // seeked back to: each entry goes out once it is compressed, with its
+    // sizes in the local header, or in a data descriptor after the data of a
+    // file compressed in several chunks. A slow reader holds back the writes
+    // and so the compressing threads, which stop a few chunks ahead. Split
+    // archives, updates, resuming, verification and deduplication need an
+    // archive file.
+    public CompressionResult compress(String sourcePath, WritableByteChannel out, CompressionOptions options)
+            throws IOException {
+        if (out instanceof SelectableChannel && !((SelectableChannel) out).isBlocking()) {
+            throw new IllegalArgumentException("The channel must be in blocking mode");
+        }
+        if (options.getSplitSize() > 0 || options.isUpdate() || options.isResumable()) {
+            throw new IOException("Split archives, updates and resuming need an archive file");
+        }
+        listener.log("Starting compression...");
+
+        JobMetrics job = startJob("compress", null);
+        String outcome = "failed";
+        JobMetrics.Phase compression = job.phase("compress");
+        try (ProgressTracker progress = new ProgressTracker("Compressing", 0, listener);
+             FileManifest manifest = FileManifest.scan(new File(sourcePath), options, progress::addTotal)) {
+            if (options.isVerifyAfter()) {
+                listener.log("Verification is not available for a streamed archive");
+            }
+            ZipArchiveWriter writer = new ZipArchiveWriter(streamed(out));
+            writeArchive(manifest, writer, options, Math.max(1, options.getThreads()), progress);
+            progress.complete("Compression completed successfully");
+            job.addPhase("scan", manifest.getScanNanos());
+            job.stall("scan", manifest.getWaitNanos());
+            job.setArchiveBytes(writer.getPosition());
+
+            CompressionResult result = new CompressionResult(null, manifest.getTotalSize(), writer.getPosition(),
+                    true);
+            listener.log("Compression completed: " + writer.getEntryCount() + " entries, "
+                    + writer.getPosition() + " bytes written");
+            outcome = "completed";
+            return result;
+        } catch (InterruptedIOException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            compression.end();
+            endJob(job, outcome);
+        }
+    }
+
+    // The channel as one the writer will only write to: standard output
+    // can be a FileChannel on a pipe, which could be neither read back from,
+    // cut short nor the target of transferTo.
+    private static WritableByteChannel streamed(WritableByteChannel out) {
+        if (!(out instanceof FileChannel)) {
+            return out;
+        }
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                return out.write(src);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return out.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    // As above, for reading: an input stream over a FileChannel would ask a
+    // pipe for its position.
+    private static ReadableByteChannel streamed(ReadableByteChannel in) {
+        if (!(in instanceof FileChannel)) {
+            return in;
+        }
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return in.read(dst);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return in.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    private CompressionResult compress(File source, String finalDestPath, CompressionOptions options,
+                                       JobMetrics job) throws IOException {
+        // The total grows as the scan finds files, while compression runs
+        long totalSize;
+        JobMetrics.Phase compression = job.phase("compress");
+        try (ProgressTracker progress = new ProgressTracker("Compressing", 0, listener);
+             FileManifest manifest = FileManifest.scan(source, options, progress::addTotal)) {
+            if (options.isResumable() && (options.getSplitSize() > 0
+                    || (options.isUpdate() && new File(finalDestPath).isFile()))) {
+                listener.log("Resuming is not available for split archives or updates");
+            }
+            if (options.isUpdate() && new File(finalDestPath).isFile()) {
+                // Incremental update of an existing archive
+                updateArchive(manifest, finalDestPath, options, progress);
+            } else if (options.getSplitSize() > 0) {
+                // Split archive implementation
+                createSplitArchive(manifest, finalDestPath, options, progress);
+            } else if (options.getThreads() > 0 || hasPassword(options.getPassword())
+                    || options.isDeduplicate() || options.isResumable()
+                    || !Codec.DEFLATE_NAME.equals(options.getMethod())) {
+                // Parallel archive implementation; ZipOutputStream can only
+                // deflate, and neither encrypt, reuse compressed data nor
+                // stop between entries
+                compressParallel(manifest, finalDestPath, options, progress);
+            } else {
+                // Standard archive implementation
+                compressStandard(manifest, finalDestPath, options, progress);
+            }
+            totalSize = manifest.getTotalSize();
+            progress.complete("Compression completed successfully");
+            // Listing time summed over the scanning threads, and the part
+            // of it compression had to wait for
+            job.addPhase("scan", manifest.getScanNanos());
+            job.stall("scan", manifest.getWaitNanos());
+        } finally {
+            compression.end();
+        }
+
+        // Verify archive if requested
+        boolean verified = true;
+        if (options.isVerifyAfter()) {
+            listener.log("Verifying archive integrity...");
+            // Only its time counts towards the job; the entries it reads
+            // back go to metrics of their own
+            JobMetrics.Phase verification = job.phase("verify");
+            metrics = new JobMetrics("verify", finalDestPath);
+            try {
+                verified = check(finalDestPath, options.getPassword(),
+                        Runtime.getRuntime().availableProcessors(), false).isOk();
+            } finally {
+                metrics = job;
+                verification.end();
+            }
+            if (verified) {
+                listener.log("Archive verification successful");
+            } else {
+                listener.log("Archive verification failed!");
+            }
+        }
+
+        // Calculate compression statistics
+        long compressedSize = SplitArchiveInputStream.totalLength(new File(finalDestPath));
+        job.setArchiveBytes(compressedSize);
+        CompressionResult result = new CompressionResult(finalDestPath, totalSize, compressedSize, verified);
+
+        DecimalFormat ratioFormat = new DecimalFormat("#.##");
+        listener.log("Compression completed. Saved to: " + finalDestPath);
+        listener.log("Compression ratio: " + ratioFormat.format(result.getRatio()) + "%");
+        return result;
+    }
+
+    private JobMetrics startJob(String operation, String archive) {
+        metrics = new JobMetrics(operation, archive);
+        return metrics;
+    }
+
+    private void endJob(JobMetrics job, String outcome) {
+        job.finish(outcome);
+        String summary = job.getSummary();
+        if (!summary.isEmpty()) {
+            listener.log(summary);
+        }
+    }
+
+    private void compressStandard(FileManifest manifest, String destPath, CompressionOptions options,
+                                  ProgressTracker progress) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(destPath);
+             BufferedOutputStream bos = new BufferedOutputStream(fos,
+                     options.getIoSettings().getBufferSize());
+             ZipOutputStream zos = new ZipOutputStream(bos)) {
+
+            zos.setLevel(options.getLevel());
+            listener.log("Compression level: " + options.getLevel());
+            AdaptiveLevel adaptive = AdaptiveLevel.forOptions(options);
+            if (adaptive != null) {
+                listener.log("Choosing a level per file from a sample of each");
+            }
+
+            // Add files to ZIP, through one buffer
+            byte[] buffer = new byte[options.getIoSettings().getBufferSize()];
+            for (FileManifest.Entry entry : manifest) {
+                listener.checkpoint();
+                addFileToZip(entry, zos, options, adaptive, buffer, progress);
+            }
+
+            zos.finish();
+            if (adaptive != null) {
+                listener.log("Adaptive levels: " + adaptive.summary());
+            }
+        }
+    }
+
+    private void compressParallel(FileManifest manifest, String destPath, CompressionOptions options,
+                                  ProgressTracker progress) throws IOException {
+        File dest = new File(destPath);
+        if (!options.isResumable()) {
+            try (ZipArchiveWriter writer = new ZipArchiveWriter(openArchive(dest))) {
+                writer.setTransferTo(options.getIoSettings().isTransferTo());
+                writeArchive(manifest, writer, options, Math.max(1, options.getThreads()), progress);
+            }
+            return;
+        }
+
+        File journalFile = CompressionJournal.fileFor(dest);
+        String journalKey = journalKey(manifest.getRoot(), options);
+        List<CompressionJournal.Entry> journaled = dest.isFile()
+                ? CompressionJournal.read(journalFile, journalKey, options.getPassword()) : null;
+        if (journaled == null && journalFile.exists()) {
+            listener.log("The journal is for other files, settings or password; starting over");
+        }
+        // Records the archive wrote before a crash may not have reached the disk
+        while (journaled != null && !journaled.isEmpty()
+                && journaled.get(journaled.size() - 1).end > dest.length()) {
+            journaled.remove(journaled.size() - 1);
+        }
+
+        boolean done = false;
+        CompressionJournal journal = CompressionJournal.create(journalFile, journalKey, options.getPassword());
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(journaled != null
+                ? reopenArchive(dest) : openArchive(dest))) {
+            writer.setTransferTo(options.getIoSettings().isTransferTo());
+            writer.setJournal(journal);
+            Iterable<FileManifest.Entry> files = journaled != null
+                    ? skipJournaled(manifest, journaled, writer, progress) : manifest;
+            writeArchive(files, writer, options, Math.max(1, options.getThreads()), progress);
+            done = true;
+        } finally {
+            // Kept after a failure, for the next run to resume from
+            if (done) {
+                journal.delete();
+            } else {
+                journal.close();
+            }
+        }
+    }
+
+    // Whether the archive has a journal left by a resumable run that did not
+    // finish.
+    public static boolean hasJournal(String destPath) {
+        return CompressionJournal.fileFor(new File(destPath)).isFile();
+    }
+
+    // What a run must share with the one that wrote a journal to resume it.
+    private static String journalKey(File root, CompressionOptions options) {
+        return root.getAbsolutePath() + "|" + options.getMethod() + "|" + options.getLevel()
+                + "|" + options.isAdaptive() + "|" + options.isAutoStore();
+    }
+
+    // Skips the files an earlier run already wrote: the longest run at the
+    // start of the walk that matches the journal by name, size and time. The
+    // archive is cut back to the end of the last of them, and the walk goes
+    // on from the first file that differs.
+    private Iterable<FileManifest.Entry> skipJournaled(FileManifest manifest,
+                                                       List<CompressionJournal.Entry> journaled,
+                                                       ZipArchiveWriter writer, ProgressTracker progress)
+            throws IOException {
+        Iterator<FileManifest.Entry> walk = manifest.iterator();
+        FileManifest.Entry differing = null;
+        int kept = 0;
+        while (kept < journaled.size() && walk.hasNext()) {
+            FileManifest.Entry file = walk.next();
+            CompressionJournal.Entry entry = journaled.get(kept);
+            if (!entry.name.equals(file.getName()) || entry.size != file.getSize()
+                    || entry.dosTime != ZipArchiveWriter.toDosTime(file.getLastModified())) {
+                differing = file;
+                break;
+            }
+            progress.add(file.getSize());
+            progress.entryCompleted(file.getName());
+            kept++;
+        }
+        writer.resume(journaled.subList(0, kept));
+        listener.log("Resuming after " + kept + " entries written by an earlier run");
+
+        FileManifest.Entry first = differing;
+        return () -> new Iterator<FileManifest.Entry>() {
+            private FileManifest.Entry next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next != null || walk.hasNext();
+            }
+
+            @Override
+            public FileManifest.Entry next() {
+                if (next == null) {
+                    return walk.next();
+                }
+                FileManifest.Entry result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    // Streams the archive straight into rolling volumes, so memory use does
+    // not depend on the size of the input.
+    private void createSplitArchive(FileManifest manifest, String destPath, CompressionOptions options,
+                                    ProgressTracker progress) throws IOException {
+        SplitVolumeChannel volumes = new SplitVolumeChannel(destPath, options.getSplitSize(),
+                path -> listener.log("Created split part: " + path));
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(volumes)) {
+            writeArchive(manifest, writer, options, Math.max(1, options.getThreads()), progress);
+        }
+    }
+
+    // Readable too, so duplicates can be copied from earlier entries.
+    private static FileChannel openArchive(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // An archive to resume, kept as it is; ZipArchiveWriter.resume() cuts it.
+    private static FileChannel reopenArchive(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void writeArchive(Iterable<FileManifest.Entry> files, ZipArchiveWriter writer,
+                              CompressionOptions options, int threads, ProgressTracker progress)
+            throws IOException {
+        try {
+            compressFiles(files, writer, options, threads, progress);
+        } catch (InterruptedIOException e) {
+            // Cancelled: end the archive after the last whole entry
+            if (writer.rollback()) {
+                writer.finish();
+                listener.log("Stopped; the archive holds the " + writer.getEntryCount() + " entries written so far");
+            }
+            throw e;
+        }
+        writer.finish();
+    }
+
+    // Writes a new archive next to the old one and swaps it in. Entries whose
+    // file still has the same size and modification time (and CRC, if asked)
+    // are copied over compressed; new and modified files are compressed and
+    // entries for files that are gone are dropped.
+    private void updateArchive(FileManifest manifest, String destPath, CompressionOptions options,
+                               ProgressTracker progress) throws IOException {
+        File dest = new File(destPath);
+        if (options.getSplitSize() > 0 || SplitArchiveInputStream.isSplit(dest)) {
+            throw new IOException("Split archives cannot be updated");
+        }
+        File temp = new File(destPath + ".tmp");
+        boolean done = false;
+        try (ZipArchiveReader old = new ZipArchiveReader(dest)) {
+            Map<String, ZipArchiveReader.Entry> existing = new HashMap<>();
+            for (ZipArchiveReader.Entry entry : old.getEntries()) {
+                existing.put(entry.getName(), entry);
+            }
+
+            try (ZipArchiveWriter writer = new ZipArchiveWriter(openArchive(temp))) {
+                List<FileManifest.Entry> changed = new ArrayList<>();
+                int kept = 0;
+                for (FileManifest.Entry file : manifest) {
+                    listener.checkpoint();
+                    ZipArchiveReader.Entry entry = existing.remove(file.getName());
+                    if (entry != null && isUnchanged(file, old, entry, options)) {
+                        writer.copyEntry(old, entry);
+                        progress.add(file.getSize());
+                        progress.entryCompleted(file.getName());
+                        kept++;
+                    } else {
+                        changed.add(file);
+                    }
+                }
+                for (String name : existing.keySet()) {
+                    listener.log("Removed: " + name);
+                }
+                listener.log("Unchanged: " + kept + ", to compress: " + changed.size()
+                        + ", removed: " + existing.size());
+
+                compressFiles(changed, writer, options, Math.max(1, options.getThreads()), progress);
+                writer.finish();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                temp.delete();
+            }
+        }
+        Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean isUnchanged(FileManifest.Entry file, ZipArchiveReader old, ZipArchiveReader.Entry entry,
+                                CompressionOptions options) throws IOException {
+        // Entries are rewritten when encryption is turned on or off
+        String password = options.getPassword();
+        if (entry.isEncrypted() != hasPassword(password)) {
+            return false;
+        }
+        if (entry.isDirectory() || entry.getSize() != file.getSize()) {
+            return false;
+        }
+        // DOS times have two-second resolution
+        if (ZipArchiveWriter.toDosTime(entry.getTime()) != ZipArchiveWriter.toDosTime(file.getLastModified())) {
+            return false;
+        }
+        // ...and so are entries encrypted with another password
+        if (entry.isEncrypted() && !old.authenticate(entry, password)) {
+            return false;
+        }
+        if (options.isCompareChecksums()) {
+            try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ)) {
+                long crc = ParallelZipCompressor.crc32(channel, entry.getSize(),
+                        options.getIoSettings().buffer());
+                return crc == entryCrc(old, entry, password);
+            }
+        }
+        return true;
+    }
+
+    // AE-2 entries carry no CRC, so it is computed from the decrypted data.
+    private static long entryCrc(ZipArchiveReader zip, ZipArchiveReader.Entry entry, String password)
+            throws IOException {
+        if (!entry.isEncrypted()) {
+            return entry.getCrc();
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream in = zip.getInputStream(entry, password)) {
+            byte[] buffer = new byte[IoSettings.DEFAULT_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static boolean hasPassword(String password) {
+        return password != null && !password.isEmpty();
+    }
+
+    private void compressFiles(Iterable<FileManifest.Entry> files, ZipArchiveWriter writer,
+                               CompressionOptions options, int threads, ProgressTracker progress)
+            throws IOException {
+        String password = options.getPassword();
+        ParallelZipCompressor compressor = new ParallelZipCompressor(threads, options.getLevel());
+        compressor.setIoSettings(options.getIoSettings());
+        compressor.setAutoStore(options.isAutoStore());
+        compressor.setCodec(Codec.forName(options.getMethod(), options.getLevel()));
+        compressor.setDeduplicate(options.isDeduplicate());
+        AdaptiveLevel adaptive = AdaptiveLevel.forOptions(options);
+        compressor.setAdaptive(adaptive);
+        compressor.setMetrics(metrics);
+        if (options.isDeduplicate() && !writer.canDuplicate()) {
+            listener.log("Deduplication is not available for split or streamed archives");
+        }
+        listener.log("Compression level: " + options.getLevel());
+        if (!Codec.DEFLATE_NAME.equals(options.getMethod())) {
+            listener.log("Compression method: " + options.getMethod());
+        }
+        if (adaptive != null) {
+            listener.log("Choosing a level per file from a sample of each");
+        }
+        if (threads > 1) {
+            listener.log("Parallel compression with " + compressor.getThreads() + " threads");
+        }
+
+        if (hasPassword(password)) {
+            listener.log("Encrypting entries with AES-256");
+        }
+
+        compressor.compress(files, writer, password, new ParallelZipCompressor.Listener() {
+            @Override
+            public void bytesProcessed(long count) throws IOException {
+                progress.add(count);
+                listener.checkpoint();
+            }
+
+            @Override
+            public void entryWritten(String name, String note) {
+                progress.entryCompleted(name);
+                listener.log("Added: " + name + (note != null ? " (" + note + ")" : ""));
+            }
+        });
+        if (adaptive != null) {
+            listener.log("Adaptive levels: " + adaptive.summary());
+        }
+        if (compressor.getDuplicateCount() > 0) {
+            listener.log("Duplicates: " + compressor.getDuplicateCount() + " files ("
+                    + compressor.getDuplicateBytes() + " bytes) reused earlier compressed data");
+        }
+    }
+
+    private void addFileToZip(FileManifest.Entry source, ZipOutputStream zos, CompressionOptions options,
+                              AdaptiveLevel adaptive, byte[] buffer, ProgressTracker progress) throws IOException {
+        IoSettings io = options.getIoSettings();
+        File file = source.getFile();
+        String zipPath = source.getName();
+        ZipEntry entry = new ZipEntry(zipPath);
+        entry.setTime(source.getLastModified());
+
+        boolean store = StorePolicy.shouldStore(file.getName(), options.getLevel(), options.isAutoStore());
+        AdaptiveLevel.Choice choice = null;
+        if (!store && adaptive != null) {
+            choice = adaptive.choose(file, source.getSize());
+            store = choice == AdaptiveLevel.Choice.STORED;
+            // Takes effect from the next entry on
+            zos.setLevel(store ? options.getLevel() : adaptive.levelFor(choice));
+        }
+
+        // A file smaller than the buffer is read whole, once, up front; -1
+        // for larger ones, and for one that grew since the scan
+        long start = System.nanoTime();
+        int whole = source.getSize() < buffer.length ? readWhole(file, buffer) : -1;
+        long readNanos = System.nanoTime() - start;
+
+        // ZipOutputStream needs the CRC of a stored entry before its data
+        if (store && whole >= 0) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, whole);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(whole);
+            entry.setCompressedSize(whole);
+            entry.setCrc(crc.getValue());
+        } else if (store) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(ParallelZipCompressor.crc32(channel, size, io.buffer()));
+            }
+        }
+
+        Object event = FlightEvents.begin(FlightEvents.Type.ENTRY);
+        long cpu = JobMetrics.threadCpuTime();
+        zos.putNextEntry(entry);
+        progress.entryStarted(zipPath);
+
+        if (whole >= 0) {
+            zos.write(buffer, 0, whole);
+            progress.add(whole);
+        } else {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                int count;
+                start = System.nanoTime();
+                while ((count = fis.read(buffer)) > 0) {
+                    readNanos += System.nanoTime() - start;
+                    zos.write(buffer, 0, count);
+                    progress.add(count);
+                    start = System.nanoTime();
+                }
+            }
+        }
+
+        zos.closeEntry();
+        // Deflating and the reads' system calls, which the stream interleaves
+        String codec = store ? ParallelZipCompressor.STORED_NAME : Codec.DEFLATE_NAME;
+        metrics.read(readNanos);
+        metrics.codec(codec, JobMetrics.threadCpuTime() - cpu, entry.getSize(), entry.getCompressedSize());
+        metrics.entry(entry.getSize(), entry.getCompressedSize());
+        FlightEvents.commit(event, metrics.getOperation(), zipPath, codec, entry.getSize(),
+                entry.getCompressedSize());
+        progress.entryCompleted(zipPath);
+        listener.log("Added: " + zipPath + (choice != null ? " (" + choice + ")" : ""));
+    }
+
+    // Reads the file into the buffer and returns its length, or -1 if it
+    // does not fit.
+    private static int readWhole(File file, byte[] buffer) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            int length = 0;
+            int count;
+            while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += count;
+            }
+            return length < buffer.length ? length : -1;
+        }
+    }
+
+    public void extract(String sourcePath, String destPath, String password) throws IOException {
+        extract(sourcePath, destPath, new ExtractionOptions().setPassword(password));
+    }
+
+    // Extracts through the central directory, so only the selected entries
+    // are read, and spreads them over options.getThreads() workers.
+    public void extract(String sourcePath, String destPath, ExtractionOptions options) throws IOException {
+        JobMetrics job = startJob("extract", sourcePath);
+        String outcome = "failed";
+        try {
+            extract(sourcePath, destPath, options, job);
+            outcome = "completed";
+        } catch (InterruptedIOException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            endJob(job, outcome);
+        }
+    }
+
+    private void extract(String sourcePath, String destPath, ExtractionOptions options, JobMetrics job)
+            throws IOException {
+        listener.log("Starting extraction...");
+        job.setArchiveBytes(SplitArchiveInputStream.totalLength(new File(sourcePath)));
+
+        ExtractionTarget target = new ExtractionTarget(new File(destPath), options.isPreserveTimes(),
+                options.isPreservePermissions());
+        ZipArchiveReader reader;
+        JobMetrics.Phase opening = job.phase("open");
+        try {
+            reader = openReader(new File(sourcePath));
+            opening.end();
+        } catch (ZipException e) {
+            opening.end();
+            if (!options.getEntryPatterns().isEmpty()) {
+                throw e;
+            }
+            // A truncated archive has no central directory; salvage what we can
+            listener.log("Cannot read central directory (" + e.getMessage() + "), reading sequentially");
+            JobMetrics.Phase extraction = job.phase("extract");
+            try (ProgressTracker progress = new ProgressTracker("Extracting",
+                    SplitArchiveInputStream.totalLength(new File(sourcePath)), listener)) {
+                try (SplitArchiveInputStream in = new SplitArchiveInputStream(new File(sourcePath))) {
+                    extractStreaming(in, target, name -> true, options.getIoSettings(), progress);
+                }
+                target.finish();
+                progress.complete("Extraction completed successfully");
+            } finally {
+                extraction.end();
+            }
+            listener.log("Extraction completed to: " + destPath);
+            return;
+        }
+
+        try (ZipArchiveReader zip = reader) {
+            // Copied, since an index decodes its entries on every access
+            List<ZipArchiveReader.Entry> selected = new ArrayList<>(zip.getIndex() != null
+                    ? zip.getIndex().select(options.getEntryPatterns())
+                    : selectEntries(zip.getEntries(), options.getEntryPatterns()));
+            if (selected.isEmpty() && !options.getEntryPatterns().isEmpty()) {
+                throw new ZipException("No entries match " + options.getEntryPatterns());
+            }
+
+            // Every name is checked, and every directory made, before any
+            // file is written
+            long totalSize = 0;
+            List<String> names = new ArrayList<>(selected.size());
+            for (ZipArchiveReader.Entry entry : selected) {
+                totalSize += entry.getSize();
+                names.add(entry.getName());
+            }
+            JobMetrics.Phase directories = job.phase("directories");
+            target.createDirectories(names);
+            directories.end();
+
+            ProgressTracker progress = new ProgressTracker("Extracting", totalSize, listener);
+            int threads = Math.min(options.getThreads(), Math.max(1, selected.size()));
+            JobMetrics.Phase extraction = job.phase("extract");
+            try {
+                int skipped = 0;
+                if (threads <= 1) {
+                    for (ZipArchiveReader.Entry entry : selected) {
+                        if (!extractEntry(zip, entry, target, options.getPassword(), options.getIoSettings(),
+                                progress)) {
+                            skipped++;
+                        }
+                    }
+                } else {
+                    skipped = extractParallel(zip, selected, target, options, threads, progress);
+                }
+                target.finish();
+                // The rest are extracted, but the job has not done what was
+                // asked, and a script must be able to tell
+                if (skipped > 0) {
+                    throw new WinZipAes.WrongPasswordException((hasPassword(options.getPassword())
+                            ? "Wrong password: " : "Password required: ") + skipped + " encrypted "
+                            + (skipped == 1 ? "entry was" : "entries were") + " not extracted");
+                }
+                progress.complete("Extraction completed successfully");
+            } finally {
+                progress.close();
+                extraction.end();
+            }
+        }
+
+        listener.log("Extraction completed to: " + destPath);
+    }
+
+    // Extracts an archive read from in, such as standard input, a pipe or a
+    // socket, in one pass over its local headers without a central
+    // directory, which is read past and ignored. Stored and deflated entries
+    // may have their sizes in the local header or in a data descriptor after
+    // the data, as this engine and Info-ZIP write them to a pipe; Zstandard
+    // entries need them in the header. Encrypted entries cannot be read this
+    // way.
+    public void extract(ReadableByteChannel in, String destPath, ExtractionOptions options) throws IOException {
+        JobMetrics job = startJob("extract", null);
+        String outcome = "failed";
+        try {
+            listener.log("Starting extraction...");
+            ExtractionTarget target = new ExtractionTarget(new File(destPath), options.isPreserveTimes(),
+                    options.isPreservePermissions());
+            JobMetrics.Phase extraction = job.phase("extract");
+            try (ProgressTracker progress = new ProgressTracker("Extracting", 0, listener)) {
+                extractStreaming(Channels.newInputStream(streamed(in)), target, entryMatcher(options.getEntryPatterns()),
+                        options.getIoSettings(), progress);
+                target.finish();
+                progress.complete("Extraction completed successfully");
+            } finally {
+                extraction.end();
+            }
+            listener.log("Extraction completed to: " + destPath);
+            outcome = "completed";
+        } catch (InterruptedIOException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            endJob(job, outcome);
+        }
+    }
+
+    // Returns the number of entries skipped for want of the right password.
+    private int extractParallel(ZipArchiveReader zip, List<ZipArchiveReader.Entry> selected,
+                                ExtractionTarget target, ExtractionOptions options, int threads,
+                                ProgressTracker progress) throws IOException {
+        // Largest first, so one big entry started last does not leave the
+        // other threads idle while it finishes
+        List<ZipArchiveReader.Entry> order = new ArrayList<>(selected);
+        order.sort((a, b) -> Long.compare(b.getCompressedSize(), a.getCompressedSize()));
+        AtomicInteger skipped = new AtomicInteger();
+        forEachIndex(threads, order.size(), i -> {
+            if (!extractEntry(zip, order.get(i), target, options.getPassword(), options.getIoSettings(),
+                    progress)) {
+                skipped.incrementAndGet();
+            }
+        });
+        return skipped.get();
+    }
+
+    private static List<ZipArchiveReader.Entry> selectEntries(List<ZipArchiveReader.Entry> entries,
+                                                               List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return entries;
+        }
+        Predicate<String> matcher = entryMatcher(patterns);
+        List<ZipArchiveReader.Entry> result = new ArrayList<>();
+        for (ZipArchiveReader.Entry entry : entries) {
+            if (matcher.test(entry.getName())) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    // Whether an entry name matches one of the patterns: a name, a directory
+    // ending in '/' or a glob. No patterns match everything.
+    private static Predicate<String> entryMatcher(List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return name -> true;
+        }
+        List<Pattern> globs = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String pattern : patterns) {
+            String normalized = pattern.replace('\\', '/');
+            if (Glob.isGlob(normalized)) {
+                globs.add(Glob.compile(normalized, false));
+            } else {
+                names.add(normalized);
+            }
+        }
+
+        return name -> {
+            for (String exact : names) {
+                if (name.equals(exact) || (exact.endsWith("/") && name.startsWith(exact))) {
+                    return true;
+                }
+            }
+            for (Pattern glob : globs) {
+                if (glob.matcher(name).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    // Returns false if the entry is encrypted and the password is missing or
+    // wrong, in which case nothing is written.
+    private boolean extractEntry(ZipArchiveReader zip, ZipArchiveReader.Entry entry, ExtractionTarget target,
+                                 String password, IoSettings io, ProgressTracker progress) throws IOException {
+        listener.checkpoint();
+        String entryName = entry.getName();
+
+        if (entry.isEncrypted() && !hasPassword(password)) {
+            listener.log("Password required for: " + entryName);
+            return false;
+        }
+
+        progress.entryStarted(entryName);
+        if (entry.isDirectory()) {
+            File directory = target.directoryFor(entryName);
+            target.setDirectoryAttributes(directory, entry.getTime(), entry.getUnixMode());
+            listener.log("Created directory: " + entryName);
+            return true;
+        }
+
+        Object event = FlightEvents.begin(FlightEvents.Type.ENTRY);
+        long cpu = JobMetrics.threadCpuTime();
+        File outputFile = target.file(entryName);
+        boolean small = entry.getSize() < io.getBufferSize();
+        if (entry.getMethod() == ZipEntry.STORED && !entry.isEncrypted() && !small) {
+            // Channel to channel, no inflater and no heap copy
+            try (RandomAccessFile out = openOutput(outputFile, entry.getSize(), io)) {
+                try {
+                    zip.copyStored(entry, out.getChannel(), io.buffer(), progress::add);
+                } finally {
+                    out.setLength(out.getFilePointer());
+                }
+            }
+        } else {
+            try (InputStream in = zip.getInputStream(entry, password)) {
+                if (small) {
+                    // Opened with truncation and written in one go: sizing
+                    // and trimming it as below would only add system calls
+                    try (FileOutputStream out = new FileOutputStream(outputFile)) {
+                        copy(in, out.getChannel(), (int) Math.max(1, entry.getSize() + 1), progress);
+                    }
+                } else {
+                    try (RandomAccessFile out = openOutput(outputFile, entry.getSize(), io)) {
+                        try {
+                            copy(in, out.getChannel(), io.getBufferSize(), progress);
+                        } finally {
+                            out.setLength(out.getFilePointer());
+                        }
+                    }
+                }
+            } catch (WinZipAes.WrongPasswordException e) {
+                // Found by the password verifier when the entry is opened,
+                // before the output file is
+                listener.log("Wrong password for: " + entryName);
+                return false;
+            } catch (IOException | RuntimeException e) {
+                // A bad MAC is only found once the whole entry has been
+                // written, and none of that output can be trusted
+                if (entry.isEncrypted()) {
+                    outputFile.delete();
+                }
+                throw e;
+            }
+        }
+        target.setAttributes(outputFile, entry.getTime(), entry.getUnixMode());
+        recordEntry(entry, event, cpu);
+        progress.entryCompleted(entryName);
+        listener.log("Extracted: " + entryName);
+        return true;
+    }
+
+    // Adds an entry read back from an archive to the job's metrics: its
+    // compressed size in, its size out, and the decoding CPU time since cpu.
+    private void recordEntry(ZipArchiveReader.Entry entry, Object event, long cpu) {
+        String codec = decoderName(entry);
+        metrics.codec(codec, JobMetrics.threadCpuTime() - cpu, entry.getCompressedSize(), entry.getSize());
+        metrics.entry(entry.getCompressedSize(), entry.getSize());
+        FlightEvents.commit(event, metrics.getOperation(), entry.getName(), codec, entry.getCompressedSize(),
+                entry.getSize());
+    }
+
+    private static String decoderName(ZipArchiveReader.Entry entry) {
+        int method = entry.getMethod();
+        String prefix = "";
+        WinZipAes.ExtraField aes = entry.isEncrypted() ? WinZipAes.ExtraField.find(entry.getExtra()) : null;
+        if (aes != null) {
+            method = aes.getMethod();
+            prefix = "aes+";
+        }
+        switch (method) {
+            case ZipEntry.STORED:
+                return prefix + ParallelZipCompressor.STORED_NAME;
+            case ZipEntry.DEFLATED:
+                return prefix + "inflate";
+            case Codec.ZSTD:
+                return prefix + Codec.ZSTD_NAME;
+            default:
+                return prefix + "method " + method;
+        }
+    }
+
+    private void copy(InputStream in, FileChannel out, int bufferSize, ProgressTracker progress)
+            throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long writeNanos = 0;
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+            long start = System.nanoTime();
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            writeNanos += System.nanoTime() - start;
+            progress.add(count);
+            listener.checkpoint();
+        }
+        metrics.write(writeNanos);
+    }
+
+    // With preallocation the file starts at the entry's size; the caller
+    // trims it to what was written, so a failed entry is not left padded.
+    private static RandomAccessFile openOutput(File file, long size, IoSettings io) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(io.isPreallocate() ? Math.max(0, size) : 0);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out;
+    }
+
+    private interface IndexAction {
+        void run(int index) throws IOException;
+    }
+
+    // Runs action for each index below count, on the calling thread or on
+    // a pool of threads workers. Each worker takes the next index until none
+    // are left, rather than one task per index, which for a million small
+    // files would be a million futures; a failure stops the others at their
+    // next index and is rethrown here.
+    private static void forEachIndex(int threads, int count, IndexAction action) throws IOException {
+        if (threads <= 1) {
+            for (int i = 0; i < count; i++) {
+                action.run(i);
+            }
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(pool.submit(() -> {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < count) {
+                            action.run(i);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        next.set(count);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                await(worker);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Reads entries one after the other from their local headers: the
+    // salvage path for archives without a central directory, and the way
+    // archives arriving over a channel are read. The local headers lack what
+    // is needed to decrypt, so encrypted entries stop it. Leaves in, which
+    // the caller closes, read to the end, so a writer at the other end of a
+    // pipe can finish.
+    private void extractStreaming(InputStream in, ExtractionTarget target, Predicate<String> selected,
+                                  IoSettings io, ProgressTracker progress) throws IOException {
+        // Closing the reader must not close in
+        try (ZipStreamReader zis = new ZipStreamReader(new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        }, io.getBufferSize())) {
+            byte[] buffer = new byte[io.getBufferSize()];
+            ZipArchiveReader.Entry entry;
+
+            while ((entry = zis.getNextEntry()) != null) {
+                String entryName = entry.getName();
+                if (!selected.test(entryName)) {
+                    continue;
+                }
+
+                if (entry.isEncrypted()) {
+                    throw new ZipException("Cannot read encrypted entry " + entryName
+                            + " without the central directory");
+                }
+
+                if (!entry.isDirectory()) {
+                    Object event = FlightEvents.begin(FlightEvents.Type.ENTRY);
+                    long cpu = JobMetrics.threadCpuTime();
+                    File outputFile = target.file(entryName);
+                    long size = 0;
+                    try (FileOutputStream fos = new FileOutputStream(outputFile)) {
+                        int count;
+                        while ((count = zis.read(buffer)) > 0) {
+                            fos.write(buffer, 0, count);
+                            size += count;
+                            listener.checkpoint();
+                        }
+                    }
+                    // The local header has no Unix mode to restore
+                    target.setAttributes(outputFile, entry.getTime(), 0);
+                    // Known once the data, and any descriptor, has been read
+                    long compressedSize = zis.getCompressedCount();
+                    String codec = decoderName(entry);
+                    metrics.codec(codec, JobMetrics.threadCpuTime() - cpu, compressedSize, size);
+                    metrics.entry(compressedSize, size);
+                    FlightEvents.commit(event, metrics.getOperation(), entryName, codec, compressedSize, size);
+                    // Progress follows the compressed bytes consumed
+                    progress.add(compressedSize);
+                    progress.entryCompleted(entryName);
+                    listener.log("Extracted: " + entryName);
+                } else {
+                    target.setDirectoryAttributes(target.directoryFor(entryName), entry.getTime(), 0);
+                    listener.log("Created directory: " + entryName);
+                }
+            }
+            zis.readToEnd();
+        }
+    }
+
+    public boolean verifyArchive(String archivePath) {
+        return verifyArchive(archivePath, null);
+    }
+
+    public boolean verifyArchive(String archivePath, String password) {
+        try {
+            return verify(archivePath, password, Runtime.getRuntime().availableProcessors(), false).isOk();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Checks every entry's local header against the central directory and,
+    // unless structureOnly, reads its data back on up to threads workers,
+    // checking the CRC-32 and, with the password, the AES MAC. Every entry
+    // that fails is reported, and logged, instead of stopping at the first.
+    // Encrypted entries are skipped without the password. Throws only if
+    // the central directory itself cannot be read.
+    public VerifyResult verify(String archivePath, String password, int threads, boolean structureOnly)
+            throws IOException {
+        JobMetrics job = startJob("verify", archivePath);
+        String outcome = "failed";
+        try {
+            VerifyResult result = check(archivePath, password, threads, structureOnly);
+            outcome = "completed";
+            return result;
+        } catch (InterruptedIOException e) {
+            outcome = "cancelled";
+            throw e;
+        } finally {
+            endJob(job, outcome);
+        }
+    }
+
+    private VerifyResult check(String archivePath, String password, int threads, boolean structureOnly)
+            throws IOException {
+        long start = System.nanoTime();
+        JobMetrics job = metrics;
+        job.setArchiveBytes(SplitArchiveInputStream.totalLength(new File(archivePath)));
+        try (ZipArchiveReader zip = new ZipArchiveReader(new File(archivePath))) {
+            List<ZipArchiveReader.Entry> entries = zip.getEntries();
+            String[] problems = new String[entries.size()];
+
+            // Headers in archive order, so entries whose data overlaps show up
+            Integer[] byOffset = new Integer[entries.size()];
+            long[] offsets = new long[entries.size()];
+            for (int i = 0; i < byOffset.length; i++) {
+                byOffset[i] = i;
+                offsets[i] = zip.getArchiveOffset(entries.get(i));
+            }
+            Arrays.sort(byOffset, (a, b) -> Long.compare(offsets[a], offsets[b]));
+            JobMetrics.Phase structure = job.phase("structure");
+            ZipArchiveReader.Entry previous = null;
+            long previousEnd = 0;
+            for (int i : byOffset) {
+                listener.checkpoint();
+                ZipArchiveReader.Entry entry = entries.get(i);
+                try {
+                    long end = zip.checkLocalHeader(entry);
+                    if (previous != null && offsets[i] < previousEnd) {
+                        problems[i] = "Overlaps " + previous.getName();
+                    } else {
+                        previous = entry;
+                        previousEnd = end;
+                    }
+                } catch (IOException e) {
+                    problems[i] = e.getMessage();
+                }
+            }
+            structure.end();
+
+            int skipped = 0;
+            long bytes = 0;
+            if (!structureOnly) {
+                List<Integer> toRead = new ArrayList<>();
+                long totalSize = 0;
+                for (int i = 0; i < problems.length; i++) {
+                    ZipArchiveReader.Entry entry = entries.get(i);
+                    if (entry.isEncrypted() && !hasPassword(password)) {
+                        skipped++;
+                    } else if (problems[i] == null && !entry.isDirectory()) {
+                        toRead.add(i);
+                        totalSize += entry.getSize();
+                    }
+                }
+                JobMetrics.Phase data = job.phase("data");
+                try (ProgressTracker progress = new ProgressTracker("Verifying", totalSize, listener)) {
+                    verifyData(zip, toRead, password, Math.max(1, threads), problems, progress);
+                    progress.complete("Verification completed");
+                } finally {
+                    data.end();
+                }
+                for (int i : toRead) {
+                    if (problems[i] == null) {
+                        bytes += entries.get(i).getSize();
+                    }
+                }
+            }
+
+            List<VerifyResult.Failure> failures = new ArrayList<>();
+            for (int i = 0; i < problems.length; i++) {
+                if (problems[i] != null) {
+                    failures.add(new VerifyResult.Failure(entries.get(i).getName(), problems[i]));
+                    listener.log("Failed: " + entries.get(i).getName() + ": " + problems[i]);
+                }
+            }
+            VerifyResult result = new VerifyResult(entries.size() - skipped, skipped, bytes,
+                    (System.nanoTime() - start) / 1_000_000, structureOnly, failures);
+            listener.log(result.getSummary());
+            return result;
+        }
+    }
+
+    // Reads the given entries to the end, largest first, recording why any
+    // of them failed in problems.
+    private void verifyData(ZipArchiveReader zip, List<Integer> indexes, String password, int threads,
+                            String[] problems, ProgressTracker progress) throws IOException {
+        List<ZipArchiveReader.Entry> entries = zip.getEntries();
+        List<Integer> order = new ArrayList<>(indexes);
+        order.sort((a, b) -> Long.compare(entries.get(b).getCompressedSize(), entries.get(a).getCompressedSize()));
+        // One buffer per worker, reused for all of its entries
+        ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[IoSettings.DEFAULT_BUFFER_SIZE]);
+        forEachIndex(threads, order.size(), n -> {
+            int i = order.get(n);
+            verifyEntry(zip, entries.get(i), i, password, problems, buffers.get(), progress);
+        });
+    }
+
+    private void verifyEntry(ZipArchiveReader zip, ZipArchiveReader.Entry entry, int index, String password,
+                             String[] problems, byte[] buffer, ProgressTracker progress) throws IOException {
+        listener.checkpoint();
+        progress.entryStarted(entry.getName());
+        Object event = FlightEvents.begin(FlightEvents.Type.ENTRY);
+        long cpu = JobMetrics.threadCpuTime();
+        try (InputStream in = zip.getInputStream(entry, password)) {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                progress.add(count);
+            }
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            problems[index] = e.getMessage();
+        }
+        recordEntry(entry, event, cpu);
+        progress.entryCompleted(entry.getName());
+    }
+
+    public List<ZipArchiveReader.Entry> list(String archivePath) throws IOException {
+        if (indexDirectory != null) {
+            return ArchiveIndex.open(new File(archivePath), indexDirectory).getEntries();
+        }
+        try (ZipArchiveReader reader = new ZipArchiveReader(new File(archivePath))) {
+            return reader.getEntries();
+        }
+    }
+
+    // The entries matching a name, a directory name ending in '/', or a
+    // glob, looked up in the archive's index rather than read from its
+    // central directory.
+    public List<ZipArchiveReader.Entry> find(String archivePath, String pattern) throws IOException {
+        return ArchiveIndex.open(new File(archivePath), indexDirectory)
+                .select(Collections.singletonList(pattern));
+    }
+
+    private ZipArchiveReader openReader(File archive) throws IOException {
+        if (indexDirectory == null) {
+            return new ZipArchiveReader(archive);
+        }
+        return new ZipArchiveReader(archive, ArchiveIndex.open(archive, indexDirectory));
+    }
+
+    public long calculateTotalSize(File file, boolean includeSubdirs, boolean excludeHiddenFiles, String fileFilter) {
+        CompressionOptions options = new CompressionOptions()
+            .setIncludeSubdirs(includeSubdirs)
+            .setExcludeHiddenFiles(excludeHiddenFiles)
+            .setFileFilter(fileFilter);
+        try (FileManifest manifest = FileManifest.scan(file, options, null)) {
+            return manifest.getTotalSize();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+import java.io.InterruptedIOException;
+
+// Receives log lines and progress snapshots from ZipEngine. The GUI forwards
+// them to its Swing components; the command line prints them.
+public interface ZipListener {
+    void log(String message);
+
+    // Called a few times per second from a background thread, never from the
+    // thread doing the I/O.
+    void progress(ProgressSnapshot snapshot);
+
+    // Called by the thread doing the work between entries and buffers. May
+    // block to pause the operation, or throw to cancel it.
+    default void checkpoint() throws InterruptedIOException {
+    }
+
+    ZipListener NONE = new ZipListener() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void progress(ProgressSnapshot snapshot) {
+        }
+    };
+}
@@ -0,0 +1,27 @@
+import java.util.Map;
+
+// Totals over every job this process has run, for JMX consoles and
+// monitoring agents; registered by JobMetrics.registerMBean() as
+// "EnhancedZipUtility:type=Metrics".
+public interface ZipMetricsMXBean {
+    long getJobs();
+
+    long getFailedJobs();
+
+    long getEntries();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    // Milliseconds each codec kept a CPU busy: deflate, fast, zstd, stored
+    // (checksums and copies), aes
+    Map<String, Long> getCpuMillisByCodec();
+
+    // Milliseconds threads spent waiting for input, compressed data or the
+    // scan
+    long getStallMillis();
+
+    // The JSON report of the job that finished last, or an empty string
+    String getLastJob();
+}
@@ -0,0 +1,397 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+// Reads entries one after the other from their local headers, without the
+// central directory: archives arriving over a pipe or socket, and archives
+// whose central directory was lost. getNextEntry() moves to the next entry
+// and read() returns its data, checked against its CRC and sizes at the end.
+// Where the sizes follow the data in a data descriptor, a deflated entry
+// ends with its deflate stream. Unlike with ZipInputStream, a stored entry
+// ends at the first descriptor whose CRC and sizes match the data before
+// it; Info-ZIP's "zip -" writes folders and empty files that way. Entries of
+// other methods need their sizes in the local header, and encrypted ones
+// can only be skipped.
+public class ZipStreamReader extends InputStream {
+    private static final int MIN_BUFFER_SIZE = 8192;
+    // Signature, CRC and two 8-byte sizes
+    private static final int MAX_DESCRIPTOR_SIZE = 24;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    private final Inflater inflater = new Inflater(true);
+    // Where the input last given to the inflater ends in the buffer
+    private int inputEnd;
+    private final CRC32 crc = new CRC32();
+    private final byte[] single = new byte[1];
+
+    // The entry being read
+    private ZipArchiveReader.Entry entry;
+    private boolean descriptor;
+    private boolean zip64;
+    private InputStream decoder;
+    private long compressedCount;
+    private long count;
+    private boolean ended;
+
+    public ZipStreamReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+        this.view = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // The next entry, or null once the central directory, or anything else
+    // that is not a local header, is reached. Any of the current entry's
+    // data not read yet is skipped.
+    public ZipArchiveReader.Entry getNextEntry() throws IOException {
+        closeEntry();
+        if (!ensure(4) || view.getInt(pos) != ZipArchiveWriter.LOCAL_HEADER_SIG) {
+            return null;
+        }
+        if (!ensure(30)) {
+            throw new EOFException("Unexpected end of archive in a local header");
+        }
+        int flags = view.getShort(pos + 6) & 0xFFFF;
+        int method = view.getShort(pos + 8) & 0xFFFF;
+        long dosTime = view.getInt(pos + 10) & 0xFFFFFFFFL;
+        long entryCrc = view.getInt(pos + 14) & 0xFFFFFFFFL;
+        long compressedSize = view.getInt(pos + 18) & 0xFFFFFFFFL;
+        long size = view.getInt(pos + 22) & 0xFFFFFFFFL;
+        int nameLength = view.getShort(pos + 26) & 0xFFFF;
+        int extraLength = view.getShort(pos + 28) & 0xFFFF;
+        pos += 30;
+        String name = new String(readBytes(nameLength), StandardCharsets.UTF_8);
+        byte[] extra = readBytes(extraLength);
+
+        ByteBuffer zip64Field = Zip64.find(extra);
+        zip64 = zip64Field != null;
+        if (zip64) {
+            if (size == Zip64.LIMIT && zip64Field.remaining() >= 8) {
+                size = zip64Field.getLong();
+            }
+            if (compressedSize == Zip64.LIMIT && zip64Field.remaining() >= 8) {
+                compressedSize = zip64Field.getLong();
+            }
+        }
+        descriptor = (flags & ZipArchiveWriter.FLAG_DATA_DESCRIPTOR) != 0;
+        if (descriptor) {
+            // Known once the descriptor is read
+            entryCrc = 0;
+            compressedSize = -1;
+            size = -1;
+            if ((flags & WinZipAes.FLAG_ENCRYPTED) != 0) {
+                throw new ZipException("Cannot read encrypted entry " + name + " without the central directory");
+            }
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new ZipException("Cannot find the end of " + name + " (method " + method
+                        + ") without the central directory");
+            }
+        } else if (method == ZipEntry.STORED && compressedSize != size) {
+            throw new ZipException("Stored entry " + name + " has different sizes in its local header");
+        }
+
+        entry = new ZipArchiveReader.Entry(name, 0, flags, method, dosTime, entryCrc, compressedSize, size,
+                extraLength > 0 ? extra : null, null, 0, 0, -1, -1);
+        crc.reset();
+        compressedCount = 0;
+        count = 0;
+        ended = false;
+        inflater.reset();
+        return entry;
+    }
+
+    // Compressed bytes of the current entry consumed so far: all of them
+    // once read() has returned -1.
+    public long getCompressedCount() {
+        return compressedCount;
+    }
+
+    // Skips the rest of the current entry.
+    public void closeEntry() throws IOException {
+        if (entry == null) {
+            return;
+        }
+        if (!ended) {
+            if (!descriptor) {
+                // No need to decode what nobody reads
+                skipRaw(entry.getCompressedSize() - compressedCount);
+            } else {
+                byte[] skip = new byte[MIN_BUFFER_SIZE];
+                while (read(skip, 0, skip.length) >= 0) {
+                    // Only the end matters
+                }
+            }
+        }
+        closeDecoder();
+        entry = null;
+    }
+
+    // Reads and drops whatever follows the last entry, such as the central
+    // directory, so a writer at the other end of a pipe can finish.
+    public void readToEnd() throws IOException {
+        pos = limit;
+        while (!eof) {
+            if (in.read(buffer, 0, buffer.length) < 0) {
+                eof = true;
+            }
+        }
+        pos = 0;
+        limit = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (entry == null || ended) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (entry.isEncrypted()) {
+            throw new ZipException("Cannot read encrypted entry " + entry.getName()
+                    + " without the central directory");
+        }
+        int n;
+        if (entry.getMethod() == ZipEntry.DEFLATED) {
+            n = inflate(b, off, len);
+        } else if (entry.getMethod() != ZipEntry.STORED) {
+            if (decoder == null) {
+                decoder = Codec.decompress(entry.getMethod(), new RawInputStream(), entry.getName());
+            }
+            n = decoder.read(b, off, len);
+        } else if (descriptor) {
+            n = readToDescriptor(b, off, len);
+        } else {
+            n = readRaw(b, off, (int) Math.min(len, entry.getCompressedSize() - compressedCount));
+        }
+        if (n > 0) {
+            crc.update(b, off, n);
+            count += n;
+            return n;
+        }
+        endEntry();
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeDecoder();
+        } finally {
+            inflater.end();
+            in.close();
+        }
+    }
+
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            // The buffer is only refilled, and moved, once the inflater has
+            // taken all it was given
+            if (inflater.needsInput()) {
+                if (pos == limit && !more()) {
+                    throw new EOFException("Unexpected end of archive in " + entry.getName());
+                }
+                inflater.setInput(buffer, pos, limit - pos);
+                inputEnd = limit;
+            }
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("Bad compressed data in " + entry.getName() + ": " + e.getMessage());
+            }
+            int consumed = inputEnd - inflater.getRemaining() - pos;
+            pos += consumed;
+            compressedCount += consumed;
+            if (n > 0) {
+                return n;
+            }
+            if (inflater.finished() || inflater.needsDictionary()) {
+                return -1;
+            }
+        }
+    }
+
+    // Hands out a stored entry's data up to the descriptor that ends it: the
+    // first whose CRC and sizes are those of everything handed out before.
+    private int readToDescriptor(byte[] b, int off, int len) throws IOException {
+        ensure(MAX_DESCRIPTOR_SIZE);
+        if (pos == limit) {
+            throw new EOFException("Unexpected end of archive in " + entry.getName());
+        }
+        if (limit - pos >= 4 && view.getInt(pos) == ZipArchiveWriter.DATA_DESCRIPTOR_SIG && readDescriptor(true)) {
+            return -1;
+        }
+        // Up to the next place a descriptor could start; the last three bytes
+        // could be the start of one cut off by the end of the buffer
+        int end = pos + 1;
+        int scanEnd = Math.min(eof ? limit : limit - 3, pos + len);
+        while (end < scanEnd && !(buffer[end] == 'P'
+                && (end + 4 > limit || view.getInt(end) == ZipArchiveWriter.DATA_DESCRIPTOR_SIG))) {
+            end++;
+        }
+        return readRaw(b, off, Math.min(len, Math.max(end, pos + 1) - pos));
+    }
+
+    // Consumes the data descriptor at pos if its CRC and sizes are those of
+    // the data read, trying the form with 8-byte sizes first after a local
+    // header with a ZIP64 field, as APPNOTE 4.3.9 has it, and second
+    // otherwise.
+    private boolean readDescriptor(boolean signed) throws IOException {
+        int start = signed ? 4 : 0;
+        for (int i = 0; i < 2; i++) {
+            boolean wide = zip64 == (i == 0);
+            int length = start + (wide ? 20 : 12);
+            if (!ensure(length)) {
+                continue;
+            }
+            int at = pos + start;
+            long descriptorCrc = view.getInt(at) & 0xFFFFFFFFL;
+            long compressedSize = wide ? view.getLong(at + 4) : view.getInt(at + 4) & 0xFFFFFFFFL;
+            long size = wide ? view.getLong(at + 12) : view.getInt(at + 8) & 0xFFFFFFFFL;
+            if (descriptorCrc == crc.getValue() && compressedSize == compressedCount && size == count) {
+                pos += length;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void endEntry() throws IOException {
+        ended = true;
+        String name = entry.getName();
+        if (entry.getMethod() != ZipEntry.STORED && entry.getMethod() != ZipEntry.DEFLATED) {
+            // The decoder may stop short of padding after its data
+            skipRaw(entry.getCompressedSize() - compressedCount);
+        }
+        if (descriptor) {
+            // Already read for a stored entry; the signature is optional
+            if (entry.getMethod() == ZipEntry.DEFLATED && !readDescriptor(ensure(4)
+                    && view.getInt(pos) == ZipArchiveWriter.DATA_DESCRIPTOR_SIG) && !readDescriptor(false)) {
+                throw new ZipException("CRC or size mismatch for " + name + ": its data descriptor disagrees");
+            }
+            return;
+        }
+        if (compressedCount != entry.getCompressedSize() || count != entry.getSize()) {
+            throw new ZipException("Size mismatch for " + name + ": expected " + entry.getSize()
+                    + ", got " + count);
+        }
+        if (crc.getValue() != entry.getCrc()) {
+            throw new ZipException("CRC mismatch for " + name);
+        }
+    }
+
+    private int readRaw(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return -1;
+        }
+        if (pos == limit && !more()) {
+            throw new EOFException("Unexpected end of archive in " + entry.getName());
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        compressedCount += n;
+        return n;
+    }
+
+    private void skipRaw(long length) throws IOException {
+        while (length > 0) {
+            if (pos == limit && !more()) {
+                throw new EOFException("Unexpected end of archive in " + entry.getName());
+            }
+            int n = (int) Math.min(length, limit - pos);
+            pos += n;
+            compressedCount += n;
+            length -= n;
+        }
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            if (pos == limit && !more()) {
+                throw new EOFException("Unexpected end of archive in a local header");
+            }
+            int n = Math.min(length - done, limit - pos);
+            System.arraycopy(buffer, pos, bytes, done, n);
+            pos += n;
+            done += n;
+        }
+        return bytes;
+    }
+
+    private void closeDecoder() throws IOException {
+        if (decoder != null) {
+            InputStream closing = decoder;
+            decoder = null;
+            closing.close();
+        }
+    }
+
+    // Whether n bytes are buffered from pos, reading more if needed. Only
+    // reads while fewer are there, so a pipe is not waited on for bytes
+    // nobody needs yet.
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n && !eof) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit - pos >= n;
+    }
+
+    // Reads at least one more byte unless the stream has ended.
+    private boolean more() throws IOException {
+        return ensure(Math.min(limit - pos + 1, buffer.length));
+    }
+
+    // The current entry's compressed bytes, for decoders of other methods.
+    private class RawInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readRaw(b, off, (int) Math.min(len, entry.getCompressedSize() - compressedCount));
+        }
+
+        @Override
+        public void close() {
+            // The archive stream stays open
+        }
+    }
+}
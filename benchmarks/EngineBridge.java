@@ -0,0 +1,28 @@
+import java.io.File;
+import java.io.IOException;
+
+// zipbench.Engine over ZipEngine, for the JMH benchmarks.
+public class EngineBridge implements zipbench.Engine {
+    private final ZipEngine engine = new ZipEngine(ZipListener.NONE);
+
+    @Override
+    public void compress(File source, File archive, int level, int threads, String method) throws IOException {
+        engine.compress(source.getPath(), archive.getPath(),
+                new CompressionOptions().setLevel(level).setThreads(threads).setMethod(method));
+    }
+
+    @Override
+    public void extract(File archive, File dest, int threads) throws IOException {
+        engine.extract(archive.getPath(), dest.getPath(), new ExtractionOptions().setThreads(threads));
+    }
+
+    @Override
+    public int verify(File archive, int threads) throws IOException {
+        return engine.verify(archive.getPath(), null, threads, false).getFailures().size();
+    }
+
+    @Override
+    public long totalSize(File source) {
+        return engine.calculateTotalSize(source, true, true, "");
+    }
+}
@@ -0,0 +1,127 @@
+package zipbench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Compares two JMH result files written with -rf csv, such as a saved copy
+// of build/results/jmh/results.csv and the latest one, and exits with 1 if
+// any benchmark got worse than the tolerance allows. JMH reports the
+// results but has no notion of a baseline.
+//
+//   java -cp <jmh jar> zipbench.Baseline <baseline.csv> <results.csv> [--tolerance <percent>]
+public class Baseline {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args[0].isEmpty()) {
+            System.err.println("Usage: zipbench.Baseline <baseline.csv> <results.csv> [--tolerance <percent>]");
+            System.exit(2);
+        }
+        double tolerance = 10;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--tolerance") && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        for (Score score : read(args[0])) {
+            baseline.put(score.key, score.value);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-72s %12s %12s %8s", "benchmark", "baseline", "score",
+                "change"));
+        int regressions = 0;
+        for (Score score : read(args[1])) {
+            Double before = baseline.get(score.key);
+            if (before == null || before <= 0) {
+                continue;
+            }
+            // Positive is worse: more time per operation, or fewer
+            // operations per unit of time
+            double change = (score.value - before) / before * 100;
+            double worse = score.higherIsBetter ? -change : change;
+            boolean regression = worse > tolerance;
+            if (regression) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-72s %12.3f %12.3f %+7.1f%%%s",
+                    score.key, before, score.value, change, regression ? "  REGRESSION" : ""));
+        }
+        System.out.println(regressions == 0 ? "No regressions" : regressions + " regression(s)");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static List<Score> read(String path) throws IOException {
+        List<Score> scores = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line = in.readLine();
+            if (line == null) {
+                return scores;
+            }
+            List<String> header = fields(line);
+            int benchmark = header.indexOf("Benchmark");
+            int mode = header.indexOf("Mode");
+            int value = header.indexOf("Score");
+            if (benchmark < 0 || mode < 0 || value < 0) {
+                throw new IOException(path + " is not a JMH CSV result file");
+            }
+            while ((line = in.readLine()) != null) {
+                List<String> row = fields(line);
+                if (row.size() != header.size()) {
+                    continue;
+                }
+                // The benchmark and its parameters, e.g.
+                // CompressBenchmark.compress corpus=tiny level=6 threads=0
+                StringBuilder key = new StringBuilder(row.get(benchmark).replace("zipbench.", ""));
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ") && !row.get(i).isEmpty()) {
+                        key.append(' ').append(header.get(i).substring(7)).append('=').append(row.get(i));
+                    }
+                }
+                scores.add(new Score(key.toString(), Double.parseDouble(row.get(value)),
+                        row.get(mode).equals("thrpt")));
+            }
+        }
+        return scores;
+    }
+
+    // Splits a CSV line, taking quoted fields as they are.
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static class Score {
+        final String key;
+        final double value;
+        final boolean higherIsBetter;
+
+        Score(String key, double value, boolean higherIsBetter) {
+            this.key = key;
+            this.value = value;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
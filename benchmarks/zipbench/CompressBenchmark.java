@@ -0,0 +1,67 @@
+package zipbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Compresses a whole corpus into one archive per iteration. Threads 0 is
+// the single-threaded engine, which deflates one file after another through
+// addFileToZip; any other count is the parallel one.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressBenchmark {
+    @Param({"tiny", "huge-text", "huge-random"})
+    public String corpus;
+
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    public int level;
+
+    @Param({"0", "8"})
+    public int threads;
+
+    // deflate, fast, or zstd with zstd-jni on the classpath
+    @Param({"deflate"})
+    public String method;
+
+    @Param({"1.0"})
+    public double scale;
+
+    private Engine engine;
+    private File source;
+    private File archive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        engine = Engine.load();
+        source = Corpus.generate(corpus, scale);
+        archive = Corpus.file(corpus + "-bench.zip");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteArchive() {
+        archive.delete();
+    }
+
+    @Benchmark
+    public void compress() throws IOException {
+        engine.compress(source, archive, level, threads, method);
+    }
+}
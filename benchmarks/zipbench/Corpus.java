@@ -0,0 +1,107 @@
+package zipbench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+// The generated inputs: "tiny" is many small text files in nested folders,
+// "huge-text" a few large compressible files and "huge-random" a few large
+// incompressible ones. Each is built once per scale in the work folder and
+// reused by later forks and runs.
+final class Corpus {
+    static final File WORK = new File(System.getProperty("java.io.tmpdir"), "zip-benchmark");
+
+    private static final String[] WORDS = {
+        "archive", "entry", "central", "directory", "header", "deflate", "inflate", "stream",
+        "buffer", "channel", "volume", "checksum", "the", "a", "of", "and", "to", "in", "is",
+        "file", "data", "compression", "level", "thread", "worker", "chunk", "dictionary",
+        "window", "offset", "length", "size", "time", "name", "path", "folder", "split",
+    };
+
+    private Corpus() {
+    }
+
+    static File generate(String corpus, double scale) throws IOException {
+        File dir = file(corpus + "-" + scale);
+        File marker = file(corpus + "-" + scale + ".complete");
+        if (marker.isFile()) {
+            return dir;
+        }
+        delete(dir);
+        dir.mkdirs();
+        Random random = new Random(42);
+        switch (corpus) {
+            case "tiny":
+                int count = (int) (5000 * scale);
+                for (int i = 0; i < count; i++) {
+                    File folder = new File(dir, "d" + (i % 50) + File.separator + "e" + (i % 7));
+                    folder.mkdirs();
+                    writeText(new File(folder, "f" + i + ".txt"), 100 + random.nextInt(2000), random);
+                }
+                break;
+            case "huge-text":
+                for (int i = 0; i < 3; i++) {
+                    writeText(new File(dir, "text" + i + ".log"), (long) (64L * 1024 * 1024 * scale), random);
+                }
+                break;
+            case "huge-random":
+                for (int i = 0; i < 3; i++) {
+                    writeRandom(new File(dir, "random" + i + ".bin"), (long) (64L * 1024 * 1024 * scale), random);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown corpus: " + corpus);
+        }
+        marker.createNewFile();
+        return dir;
+    }
+
+    static File file(String name) {
+        WORK.mkdirs();
+        return new File(WORK, name);
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void writeText(File file, long size, Random random) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            long written = 0;
+            while (written < size) {
+                int n = 0;
+                while (n < buffer.length - 32) {
+                    byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes("US-ASCII");
+                    System.arraycopy(word, 0, buffer, n, word.length);
+                    n += word.length;
+                    buffer[n++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+                }
+                int len = (int) Math.min(n, size - written);
+                out.write(buffer, 0, len);
+                written += len;
+            }
+        }
+    }
+
+    private static void writeRandom(File file, long size, Random random) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(buffer);
+                int len = (int) Math.min(buffer.length, size - written);
+                out.write(buffer, 0, len);
+                written += len;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package zipbench;
+
+import java.io.File;
+import java.io.IOException;
+
+// The engine calls the benchmarks time. JMH will not generate code for a
+// benchmark in the default package, and a named package cannot import the
+// engine's classes from there, so the default-package EngineBridge
+// implements this and is loaded by name.
+public interface Engine {
+    // Threads 0 is the single-threaded engine, any other count the parallel
+    // one.
+    void compress(File source, File archive, int level, int threads, String method) throws IOException;
+
+    void extract(File archive, File dest, int threads) throws IOException;
+
+    // Checks every entry's CRC-32; returns the number that failed.
+    int verify(File archive, int threads) throws IOException;
+
+    long totalSize(File source);
+
+    static Engine load() {
+        try {
+            return (Engine) Class.forName("EngineBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("EngineBridge is not on the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package zipbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Extracts and verifies an archive of a corpus, compressed once at the
+// default level before the first iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractBenchmark {
+    @Param({"tiny", "huge-text", "huge-random"})
+    public String corpus;
+
+    @Param({"1", "8"})
+    public int threads;
+
+    @Param({"1.0"})
+    public double scale;
+
+    private Engine engine;
+    private File archive;
+    private File extracted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        engine = Engine.load();
+        File source = Corpus.generate(corpus, scale);
+        archive = Corpus.file(corpus + "-" + scale + ".zip");
+        extracted = Corpus.file(corpus + "-extracted");
+        engine.compress(source, archive, 6, 0, "deflate");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteExtracted() {
+        Corpus.delete(extracted);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() {
+        archive.delete();
+    }
+
+    @Benchmark
+    public void extract() throws IOException {
+        engine.extract(archive, extracted, threads);
+    }
+
+    @Benchmark
+    public void verifyArchive() throws IOException {
+        int failed = engine.verify(archive, threads);
+        if (failed > 0) {
+            throw new IOException(failed + " entries failed verification in " + archive);
+        }
+    }
+}
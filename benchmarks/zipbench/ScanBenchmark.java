@@ -0,0 +1,48 @@
+package zipbench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// calculateTotalSize(), the scan every compression starts with; quick
+// enough to run many times per iteration.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+    @Param({"tiny", "huge-text", "huge-random"})
+    public String corpus;
+
+    @Param({"1.0"})
+    public double scale;
+
+    private Engine engine;
+    private File source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        engine = Engine.load();
+        source = Corpus.generate(corpus, scale);
+    }
+
+    @Benchmark
+    public long calculateTotalSize() {
+        return engine.totalSize(source);
+    }
+}
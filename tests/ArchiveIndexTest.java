@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The index directory stays bounded: indexes of deleted archives, unused
+// ones and, past the size cap, the least recently used are pruned, while
+// the rest are still read back.
+class ArchiveIndexTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    File dir;
+
+    @Test
+    void savesAndReusesIndex() throws Exception {
+        File index = new File(dir, "index");
+        File archive = archive("a", 3);
+        assertEquals(3, ArchiveIndex.open(archive, index).size());
+        assertEquals(1, indexes(index).length);
+        assertTrue(new File(index, ArchiveIndex.PRUNED).exists());
+        assertEquals(3, ArchiveIndex.open(archive, index).size());
+        assertEquals(1, indexes(index).length);
+    }
+
+    @Test
+    void prunesGoneUnusedAndLeastRecentlyUsed() throws Exception {
+        File index = new File(dir, "index");
+        File[] archives = new File[4];
+        for (int i = 0; i < archives.length; i++) {
+            archives[i] = archive("a" + i, 50);
+            ArchiveIndex.open(archives[i], index);
+        }
+        File stray = new File(index, "leftover.idx123.tmp");
+        stray.createNewFile();
+        long now = System.currentTimeMillis();
+        stray.setLastModified(now - 2 * DAY);
+        File[] files = indexes(index);
+        assertEquals(4, files.length);
+
+        // a0 deleted, a1 unused for too long, a2 older than a3
+        assertTrue(archives[0].delete());
+        indexOf(index, archives[1]).setLastModified(now - 40 * DAY);
+        indexOf(index, archives[2]).setLastModified(now - 2 * DAY);
+        long size = indexOf(index, archives[3]).length();
+
+        ArchiveIndex.prune(index, now, ArchiveIndex.MAX_AGE, ArchiveIndex.MAX_BYTES);
+        assertFalse(indexOf(index, archives[0]).exists());
+        assertFalse(indexOf(index, archives[1]).exists());
+        assertTrue(indexOf(index, archives[2]).exists());
+        assertFalse(stray.exists());
+
+        ArchiveIndex.prune(index, now, ArchiveIndex.MAX_AGE, size);
+        assertFalse(indexOf(index, archives[2]).exists());
+        assertTrue(indexOf(index, archives[3]).exists());
+        assertEquals(50, ArchiveIndex.open(archives[3], index).size());
+    }
+
+    // The index file for an archive, found by the path in its header
+    private static File indexOf(File index, File archive) throws IOException {
+        String path = archive.getCanonicalPath();
+        for (File file : indexes(index)) {
+            if (new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+                    .contains(path)) {
+                return file;
+            }
+        }
+        return new File(index, "missing" + ArchiveIndex.SUFFIX);
+    }
+
+    private static File[] indexes(File index) {
+        return index.listFiles((d, name) -> name.endsWith(ArchiveIndex.SUFFIX));
+    }
+
+    private File archive(String name, int entries) throws IOException {
+        File source = new File(dir, name);
+        source.mkdirs();
+        for (int i = 0; i < entries; i++) {
+            try (FileOutputStream out = new FileOutputStream(new File(source, "f" + i + ".txt"))) {
+                out.write(("entry " + i).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        File archive = new File(dir, name + ".zip");
+        new ZipEngine(ZipListener.NONE).compress(source.getPath(), archive.getPath(), new CompressionOptions());
+        return archive;
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Deduplication with the hashing on the pool: batched small files and
+// chunked large ones, same-size files that differ, and encryption. Each
+// archive must extract to the source tree, with exactly the copies reused.
+class DedupTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void reusesOnlyIdenticalFiles() throws Exception {
+        File source = new File(dir, "source");
+        File a = new File(source, "a");
+        File b = new File(source, "b");
+        a.mkdirs();
+        b.mkdirs();
+        Random random = new Random(11);
+        // 3 MB, so several chunks, in both folders, and one of the same
+        // size that differs in its last byte
+        byte[] big = new byte[3_000_000];
+        random.nextBytes(big);
+        write(new File(a, "big.bin"), big);
+        write(new File(b, "big.bin"), big);
+        big[big.length - 1] ^= 1;
+        write(new File(b, "big2.bin"), big);
+        // All the same size, 300 contents over 1,000 files
+        for (int i = 0; i < 1000; i++) {
+            write(new File(a, "s" + i + ".txt"), String.format("%08d", i % 300).getBytes(StandardCharsets.US_ASCII));
+        }
+
+        for (String password : new String[] {null, "secret"}) {
+            for (int threads : new int[] {1, 4}) {
+                File archive = new File(dir, "dedup-" + threads + "-" + password + ".zip");
+                List<String> log = new ArrayList<>();
+                ZipEngine engine = new ZipEngine(new ZipListener() {
+                    @Override
+                    public synchronized void log(String message) {
+                        log.add(message);
+                    }
+
+                    @Override
+                    public void progress(ProgressSnapshot snapshot) {
+                    }
+                });
+                engine.compress(source.getPath(), archive.getPath(), new CompressionOptions().setDeduplicate(true)
+                        .setThreads(threads).setPassword(password));
+                assertTrue(log.stream().anyMatch(line -> line.startsWith("Duplicates: 701 files")), log.toString());
+
+                ZipEngine.VerifyResult result = engine.verify(archive.getPath(), password, 2, false);
+                assertTrue(result.isOk(), result.getSummary());
+                File out = new File(dir, "out-" + threads + "-" + password);
+                engine.extract(archive.getPath(), out.getPath(), new ExtractionOptions().setPassword(password));
+                assertSameFiles(a, new File(out, "a"));
+                assertSameFiles(b, new File(out, "b"));
+            }
+        }
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws IOException {
+        String[] names = expected.list();
+        assertEquals(names.length, actual.list().length);
+        for (String name : names) {
+            assertArrayEquals(Files.readAllBytes(new File(expected, name).toPath()),
+                    Files.readAllBytes(new File(actual, name).toPath()), name);
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+
+// FastDeflater's output read back by the JDK's Inflater: edge-case sizes,
+// chunk sequences that match into the previous chunk's 32 KB, and data that
+// only stored blocks can hold.
+class FastDeflaterTest {
+    private static final int DICTIONARY = 32 * 1024;
+
+    private final FastDeflater deflater = new FastDeflater();
+
+    @Test
+    void emptyInput() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    void oneByte() throws Exception {
+        assertRoundTrip(new byte[] {42});
+        assertRoundTrip(new byte[] {(byte) 0xFF});
+    }
+
+    // Matches of the longest length at distance 1, a single distance code,
+    // and over several blocks
+    @Test
+    void repetitiveInput() throws Exception {
+        byte[] zeros = new byte[1_000_000];
+        assertTrue(assertRoundTrip(zeros) < zeros.length / 100);
+        byte[] pattern = new byte[300_000];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) "abcabcabd".charAt(i % 9);
+        }
+        assertTrue(assertRoundTrip(pattern) < pattern.length / 50);
+    }
+
+    @Test
+    void textInput() throws Exception {
+        Random random = new Random(5);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 500_000) {
+            text.append("entry ").append(random.nextInt(5000)).append(" at offset ")
+                    .append(random.nextInt()).append('\n');
+        }
+        byte[] input = text.toString().getBytes(StandardCharsets.US_ASCII);
+        assertTrue(assertRoundTrip(input) < input.length / 2);
+    }
+
+    // Every size around the minimum match and the tail handling
+    @Test
+    void shortInputs() throws Exception {
+        Random random = new Random(9);
+        for (int length = 0; length < 300; length++) {
+            byte[] input = new byte[length];
+            for (int i = 0; i < length; i++) {
+                input[i] = (byte) "ab".charAt(random.nextInt(2));
+            }
+            assertRoundTrip(input);
+        }
+    }
+
+    // Random bytes only fit in stored blocks, which cost 5 bytes per block
+    // of at most 16K symbols
+    @Test
+    void randomInputFallsBackToStored() throws Exception {
+        byte[] input = new byte[200_000];
+        new Random(1).nextBytes(input);
+        int compressed = assertRoundTrip(input);
+        assertTrue(compressed <= input.length + 5 * (input.length / (16 * 1024) + 2) + 8, "size " + compressed);
+
+        ByteBuffer out = deflater.compress(input, 0, input.length, true);
+        assertEquals(0, out.get(0) & 0x06, "first block is not stored");
+    }
+
+    // Text, then random, then text again: dynamic and stored blocks mixed
+    // in one stream
+    @Test
+    void mixedBlocks() throws Exception {
+        byte[] noise = new byte[100_000];
+        new Random(2).nextBytes(noise);
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (int i = 0; i < 3000; i++) {
+            input.write(("line " + i + " of some text\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        input.write(noise);
+        for (int i = 0; i < 3000; i++) {
+            input.write(("line " + i + " of some text\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] data = input.toByteArray();
+        assertTrue(assertRoundTrip(data) < data.length - 40_000);
+    }
+
+    // As ParallelZipCompressor chunks a file: each chunk after the first is
+    // primed with the 32 KB before it, and all but the last end on a sync
+    // flush. The streams are concatenated and inflated as one.
+    @Test
+    void chunksWithDictionary() throws Exception {
+        Random random = new Random(4);
+        byte[] block = new byte[40_000];
+        random.nextBytes(block);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        // Random blocks that repeat within 32 KB of the next chunk's start
+        for (int i = 0; i < 12; i++) {
+            data.write(block, 0, i % 3 == 0 ? block.length : 20_000);
+        }
+        byte[] input = data.toByteArray();
+
+        for (int chunkSize : new int[] {DICTIONARY, 50_000, 100_000, 1 << 20}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            for (int offset = 0; offset < input.length; offset += chunkSize) {
+                int length = Math.min(chunkSize, input.length - offset);
+                int dictLength = Math.min(DICTIONARY, offset);
+                byte[] chunk = Arrays.copyOfRange(input, offset - dictLength, offset + length);
+                ByteBuffer out = deflater.compress(chunk, dictLength, length, offset + length == input.length);
+                stream.write(out.array(), out.arrayOffset() + out.position(), out.remaining());
+            }
+            assertArrayEquals(input, inflate(stream.toByteArray(), true), "chunk size " + chunkSize);
+        }
+    }
+
+    // A chunk identical to the dictionary before it is all matches
+    @Test
+    void dictionaryIsUsed() throws Exception {
+        byte[] input = new byte[2 * DICTIONARY];
+        byte[] half = new byte[DICTIONARY];
+        new Random(6).nextBytes(half);
+        System.arraycopy(half, 0, input, 0, DICTIONARY);
+        System.arraycopy(half, 0, input, DICTIONARY, DICTIONARY);
+
+        ByteBuffer first = deflater.compress(input, 0, DICTIONARY, false);
+        ByteBuffer second = deflater.compress(input, DICTIONARY, DICTIONARY, true);
+        assertTrue(first.remaining() > DICTIONARY);
+        assertTrue(second.remaining() < 1000, "second chunk " + second.remaining());
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(first.array(), 0, first.limit());
+        stream.write(second.array(), 0, second.limit());
+        assertArrayEquals(input, inflate(stream.toByteArray(), true));
+    }
+
+    // A sync-flushed chunk inflates completely without a final block
+    @Test
+    void syncFlushWithoutFinalBlock() throws Exception {
+        byte[] input = "not the last chunk, not the last chunk".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer out = deflater.compress(input, 0, input.length, false);
+        byte[] bytes = Arrays.copyOf(out.array(), out.limit());
+        assertArrayEquals(new byte[] {0, 0, (byte) 0xFF, (byte) 0xFF},
+                Arrays.copyOfRange(bytes, bytes.length - 4, bytes.length));
+        assertArrayEquals(input, inflate(bytes, false));
+    }
+
+    // Frequencies that grow like Fibonacci numbers need a deeper tree than
+    // deflate allows; the lengths must be cut down and stay a complete code
+    @Test
+    void codeLengthsAreLimited() {
+        int[] freq = new int[30];
+        freq[0] = 1;
+        freq[1] = 1;
+        for (int i = 2; i < freq.length; i++) {
+            freq[i] = freq[i - 1] + freq[i - 2];
+        }
+        for (int maxBits : new int[] {7, 15}) {
+            int[] lengths = FastDeflater.codeLengths(freq, maxBits);
+            double kraft = 0;
+            for (int length : lengths) {
+                assertTrue(length > 0 && length <= maxBits, "length " + length);
+                kraft += Math.pow(2, -length);
+            }
+            assertEquals(1.0, kraft, 1e-9);
+        }
+        int[] single = FastDeflater.codeLengths(new int[] {0, 0, 5, 0}, 15);
+        assertEquals(2, Arrays.stream(single).filter(length -> length == 1).count());
+        assertEquals(1, single[2]);
+    }
+
+    // Returns the compressed size.
+    private int assertRoundTrip(byte[] input) throws DataFormatException {
+        ByteBuffer out = deflater.compress(input, 0, input.length, true);
+        byte[] bytes = Arrays.copyOfRange(out.array(), out.position(), out.limit());
+        assertArrayEquals(input, inflate(bytes, true), "length " + input.length);
+        return bytes.length;
+    }
+
+    private static byte[] inflate(byte[] data, boolean finished) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            assertEquals(finished, inflater.finished(), "final block");
+            assertEquals(0, inflater.getRemaining(), "bytes after the stream");
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Archives written to and read from channels: through a Pipe and a loopback
+// socket, each end on its own thread and engine as between two processes,
+// and a stream laid out the way Info-ZIP's "zip -" writes one.
+class StreamingTest {
+    private static final int DOS_TIME = (44 << 25) | (1 << 21) | (1 << 16);
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    @TempDir
+    File dir;
+
+    @AfterEach
+    void stopWriter() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    void roundTripThroughPipe() throws Exception {
+        File source = source();
+        File dest = new File(dir, "out");
+        Pipe pipe = Pipe.open();
+        Future<?> sent = writer.submit(() -> {
+            try (WritableByteChannel sink = pipe.sink()) {
+                new ZipEngine(ZipListener.NONE).compress(source.getPath(), sink,
+                        new CompressionOptions().setThreads(2));
+            }
+            return null;
+        });
+        try (Pipe.SourceChannel in = pipe.source()) {
+            new ZipEngine(ZipListener.NONE).extract(in, dest.getPath(), new ExtractionOptions());
+        }
+        sent.get(30, TimeUnit.SECONDS);
+        assertSameTree(source, dest);
+    }
+
+    @Test
+    void roundTripThroughLoopbackSocket() throws Exception {
+        File source = source();
+        File dest = new File(dir, "out");
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Future<?> sent = writer.submit(() -> {
+                try (SocketChannel socket = SocketChannel.open(server.getLocalAddress())) {
+                    new ZipEngine(ZipListener.NONE).compress(source.getPath(), socket,
+                            new CompressionOptions().setThreads(2));
+                }
+                return null;
+            });
+            try (SocketChannel socket = server.accept()) {
+                new ZipEngine(ZipListener.NONE).extract(socket, dest.getPath(), new ExtractionOptions());
+            }
+            sent.get(30, TimeUnit.SECONDS);
+        }
+        assertSameTree(source, dest);
+    }
+
+    @Test
+    void readsInfoZipStyleStream() throws Exception {
+        // Holds a descriptor signature that is not the one ending it
+        byte[] stored = "before PK\u0007\u0008 and after".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] text = new byte[200_000];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) ('a' + i % 23);
+        }
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        writeEntry(archive, "folder/", new byte[0], false, false);
+        writeEntry(archive, "folder/empty", new byte[0], false, false);
+        writeEntry(archive, "folder/stored.txt", stored, false, false);
+        writeEntry(archive, "zip64.txt", stored, false, true);
+        writeEntry(archive, "deflated.txt", text, true, false);
+        // An empty end record stands in for the central directory
+        archive.write(ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(ZipArchiveWriter.END_OF_CENTRAL_SIG).array());
+        byte[] bytes = archive.toByteArray();
+
+        File dest = new File(dir, "out");
+        Pipe pipe = Pipe.open();
+        Future<?> sent = writer.submit(() -> {
+            try (WritableByteChannel sink = pipe.sink()) {
+                sink.write(ByteBuffer.wrap(bytes));
+            }
+            return null;
+        });
+        try (Pipe.SourceChannel in = pipe.source()) {
+            new ZipEngine(ZipListener.NONE).extract(in, dest.getPath(), new ExtractionOptions());
+        }
+        sent.get(30, TimeUnit.SECONDS);
+
+        assertTrue(new File(dest, "folder").isDirectory());
+        assertEquals(0, new File(dest, "folder/empty").length());
+        assertArrayEquals(stored, Files.readAllBytes(new File(dest, "folder/stored.txt").toPath()));
+        assertArrayEquals(stored, Files.readAllBytes(new File(dest, "zip64.txt").toPath()));
+        assertArrayEquals(text, Files.readAllBytes(new File(dest, "deflated.txt").toPath()));
+    }
+
+    @Test
+    void selectsEntriesFromStream() throws Exception {
+        File source = source();
+        File dest = new File(dir, "out");
+        Pipe pipe = Pipe.open();
+        Future<?> sent = writer.submit(() -> {
+            try (WritableByteChannel sink = pipe.sink()) {
+                new ZipEngine(ZipListener.NONE).compress(source.getPath(), sink, new CompressionOptions());
+            }
+            return null;
+        });
+        try (Pipe.SourceChannel in = pipe.source()) {
+            new ZipEngine(ZipListener.NONE).extract(in, dest.getPath(),
+                    new ExtractionOptions().addEntryPattern("sub/*"));
+        }
+        sent.get(30, TimeUnit.SECONDS);
+
+        assertTrue(new File(dest, "sub/random.bin").isFile());
+        assertFalse(new File(dest, "text.log").exists());
+    }
+
+    // Large enough that the text file is compressed in several chunks and
+    // ends with a data descriptor. No empty folders, which are not archived.
+    private File source() throws IOException {
+        File source = new File(dir, "source");
+        new File(source, "sub").mkdirs();
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3_000_000) {
+            text.append("line ").append(random.nextInt(1000)).append(" of the log\n");
+        }
+        write(new File(source, "text.log"), text.toString().getBytes(StandardCharsets.US_ASCII));
+        byte[] noise = new byte[300_000];
+        random.nextBytes(noise);
+        write(new File(source, "sub/random.bin"), noise);
+        write(new File(source, "sub/empty.txt"), new byte[0]);
+        return source;
+    }
+
+    private static void assertSameTree(File expected, File actual) throws IOException {
+        String[] names = expected.list();
+        for (String name : names) {
+            File e = new File(expected, name);
+            File a = new File(actual, name);
+            if (e.isDirectory()) {
+                assertTrue(a.isDirectory(), a + " is not a directory");
+                assertSameTree(e, a);
+            } else {
+                assertArrayEquals(Files.readAllBytes(e.toPath()), Files.readAllBytes(a.toPath()), name);
+            }
+        }
+        assertEquals(names.length, actual.list().length, "entries in " + actual);
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    // A local header with zero sizes, the data, then a data descriptor with
+    // its signature; with zip64, an empty ZIP64 field in the header and
+    // 8-byte sizes in the descriptor.
+    private static void writeEntry(ByteArrayOutputStream out, String name, byte[] data, boolean deflate,
+                                   boolean zip64) throws IOException {
+        byte[] compressed = data;
+        if (deflate) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            compressed = deflated.toByteArray();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int extraLength = zip64 ? 20 : 0;
+
+        ByteBuffer header = ByteBuffer.allocate(30 + nameBytes.length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ZipArchiveWriter.LOCAL_HEADER_SIG).putShort((short) (zip64 ? 45 : 20))
+                .putShort((short) (ZipArchiveWriter.FLAG_DATA_DESCRIPTOR | ZipArchiveWriter.FLAG_UTF8))
+                .putShort((short) (deflate ? 8 : 0)).putInt(DOS_TIME).putInt(0)
+                .putInt(zip64 ? -1 : 0).putInt(zip64 ? -1 : 0)
+                .putShort((short) nameBytes.length).putShort((short) extraLength).put(nameBytes);
+        if (zip64) {
+            header.putShort((short) Zip64.EXTRA_ID).putShort((short) 16).putLong(0).putLong(0);
+        }
+        out.write(header.array());
+        out.write(compressed);
+
+        ByteBuffer descriptor = ByteBuffer.allocate(zip64 ? 24 : 16).order(ByteOrder.LITTLE_ENDIAN);
+        descriptor.putInt(ZipArchiveWriter.DATA_DESCRIPTOR_SIG).putInt((int) crc.getValue());
+        if (zip64) {
+            descriptor.putLong(compressed.length).putLong(data.length);
+        } else {
+            descriptor.putInt(compressed.length).putInt(data.length);
+        }
+        out.write(descriptor.array());
+    }
+}
@@ -0,0 +1,235 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// WinZip AE-2 against fixed vectors, so that what 7-Zip and WinZip read
+// cannot change unnoticed, and through the engine: archives of several
+// chunks, wrong passwords and tampered data.
+class WinZipAesTest {
+    private static final String PASSWORD = "password";
+    // An entry with salt 00..0f and PASSWORD, stored, as computed from the
+    // AE-2 specification with an independent implementation
+    private static final String PLAINTEXT = "The quick brown fox jumps over the lazy dog";
+    private static final String KEYS = "0309e2fe4e0bdfe7d0fe4828d41c234416e2d9bfb61cdd8f643a11cfbfdfc119"
+            + "e78b0eb3d9243415743b2fe4f5e67c6689bd2c3e512d0fda622dd7d1b0565b83" + "256b";
+    private static final String CIPHERTEXT = "dfbcaf7ba944fec02667f6f2d4d256664b0889e9a6ac9e9167bacc9b49c1e8e6"
+            + "1e09a497a2cc0060c96b30";
+    private static final String MAC = "5f6e226c8ac068ff7f73";
+
+    @TempDir
+    File dir;
+
+    // RFC 6070, the last one longer than one SHA-1 block
+    @Test
+    void pbkdf2MatchesRfc6070() throws Exception {
+        assertEquals("0c60c80f961f0e71f3a9b524af6012062fe037a6", hex(pbkdf2("password", "salt", 1, 20)));
+        assertEquals("ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957", hex(pbkdf2("password", "salt", 2, 20)));
+        assertEquals("4b007901b765489abead49d926f721d065a429c1", hex(pbkdf2("password", "salt", 4096, 20)));
+        assertEquals("3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038",
+                hex(pbkdf2("passwordPASSWORDpassword", "saltSALTsaltSALTsaltSALTsaltSALTsalt", 4096, 25)));
+    }
+
+    // AES key, HMAC key and verifier, then salt and verifier before the
+    // ciphertext and the truncated MAC after it
+    @Test
+    void entryMatchesKnownAnswer() throws Exception {
+        byte[] salt = salt();
+        byte[] keys = new WinZipAes.KeyDeriver(PASSWORD).derive(salt);
+        assertEquals(KEYS, hex(keys));
+
+        WinZipAes.Encryptor encryptor = new WinZipAes.Encryptor(salt, keys);
+        assertEquals(hex(salt) + "256b", hex(encryptor.header()));
+        byte[] plain = PLAINTEXT.getBytes(StandardCharsets.US_ASCII);
+        byte[] cipher = new byte[plain.length];
+        // In uneven pieces; the keystream carries over
+        encryptor.encrypt(plain, 0, 5, cipher, 0);
+        encryptor.encrypt(plain, 5, 17, cipher, 5);
+        encryptor.encrypt(plain, 22, plain.length - 22, cipher, 22);
+        assertEquals(CIPHERTEXT, hex(cipher));
+        assertEquals(MAC, hex(encryptor.finish()));
+
+        byte[] entry = unhex(hex(salt) + "256b" + CIPHERTEXT + MAC);
+        try (InputStream in = WinZipAes.decrypt(new ByteArrayInputStream(entry), entry.length,
+                new WinZipAes.KeyDeriver(PASSWORD), "fox.txt")) {
+            assertEquals(PLAINTEXT, new String(readAll(in), StandardCharsets.US_ASCII));
+        }
+        assertTrue(WinZipAes.authenticate(new ByteArrayInputStream(entry), entry.length,
+                new WinZipAes.KeyDeriver(PASSWORD)));
+    }
+
+    @Test
+    void extraFieldLayout() {
+        assertEquals("0199070002004145030800", hex(WinZipAes.extraField(ZipEntry.DEFLATED)));
+        WinZipAes.ExtraField field = WinZipAes.ExtraField.find(WinZipAes.extraField(ZipEntry.DEFLATED));
+        assertEquals(ZipEntry.DEFLATED, field.getMethod());
+        assertFalse(field.hasCrc());
+    }
+
+    // Past one 4 KB keystream refill in the stream, and over several 1 MB
+    // chunks in the engine, deflated on worker threads and stored
+    @Test
+    void roundTripOverSeveralChunks() throws Exception {
+        File source = new File(dir, "source");
+        source.mkdirs();
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 3_500_000) {
+            text.append("record ").append(random.nextInt()).append('\n');
+        }
+        write(new File(source, "text.txt"), text.toString().getBytes(StandardCharsets.US_ASCII));
+        byte[] noise = new byte[2_500_000];
+        random.nextBytes(noise);
+        write(new File(source, "noise.bin"), noise);
+
+        ZipEngine engine = new ZipEngine(ZipListener.NONE);
+        for (int level : new int[] {6, 0}) {
+            File archive = new File(dir, "level" + level + ".zip");
+            engine.compress(source.getPath(), archive.getPath(),
+                    new CompressionOptions().setPassword(PASSWORD).setLevel(level).setThreads(2));
+            ZipEngine.VerifyResult result = engine.verify(archive.getPath(), PASSWORD, 2, false);
+            assertTrue(result.isOk(), result.getSummary());
+            assertEquals(2, result.getCheckedCount());
+
+            File out = new File(dir, "out" + level);
+            engine.extract(archive.getPath(), out.getPath(), new ExtractionOptions().setPassword(PASSWORD));
+            assertArrayEquals(Files.readAllBytes(new File(source, "text.txt").toPath()),
+                    Files.readAllBytes(new File(out, "text.txt").toPath()));
+            assertArrayEquals(noise, Files.readAllBytes(new File(out, "noise.bin").toPath()));
+        }
+    }
+
+    @Test
+    void wrongPasswordIsRejected() throws Exception {
+        byte[] entry = unhex(hex(salt()) + "256b" + CIPHERTEXT + MAC);
+        assertFalse(WinZipAes.checkHeader(new WinZipAes.KeyDeriver(PASSWORD).newEncryptor().header(),
+                new WinZipAes.KeyDeriver("Password")));
+        assertThrows(WinZipAes.WrongPasswordException.class, () -> WinZipAes.decrypt(
+                new ByteArrayInputStream(entry), entry.length, new WinZipAes.KeyDeriver("wrong"), "fox.txt"));
+
+        File archive = encryptedArchive(6);
+        ZipEngine engine = new ZipEngine(ZipListener.NONE);
+        for (String password : new String[] {"wrong", null}) {
+            File out = new File(dir, "out-" + password);
+            assertThrows(WinZipAes.WrongPasswordException.class, () -> engine.extract(archive.getPath(),
+                    out.getPath(), new ExtractionOptions().setPassword(password)));
+            assertFalse(new File(out, "a.txt").exists());
+        }
+    }
+
+    // A bad MAC is found only after the entry has been decrypted and
+    // written; the stream fails at its end and the engine keeps nothing
+    @Test
+    void tamperedDataFailsAuthentication() throws Exception {
+        byte[] entry = unhex(hex(salt()) + "256b" + CIPHERTEXT + MAC);
+        entry[20] ^= 1;
+        InputStream in = WinZipAes.decrypt(new ByteArrayInputStream(entry), entry.length,
+                new WinZipAes.KeyDeriver(PASSWORD), "fox.txt");
+        ZipException e = assertThrows(ZipException.class, () -> readAll(in));
+        assertFalse(e instanceof WinZipAes.WrongPasswordException);
+        assertFalse(WinZipAes.authenticate(new ByteArrayInputStream(entry), entry.length,
+                new WinZipAes.KeyDeriver(PASSWORD)));
+
+        // Stored, so flipping a byte leaves the data readable to the end
+        File archive = encryptedArchive(0);
+        try (ZipArchiveReader zip = new ZipArchiveReader(archive);
+             RandomAccessFile file = new RandomAccessFile(archive, "rw")) {
+            ZipArchiveReader.Entry a = zip.getEntries().stream().filter(x -> x.getName().equals("a.txt"))
+                    .findFirst().get();
+            long offset = zip.dataOffset(a) + WinZipAes.SALT_LENGTH + WinZipAes.VERIFIER_LENGTH + 1000;
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 1);
+        }
+        ZipEngine engine = new ZipEngine(ZipListener.NONE);
+        for (int threads : new int[] {1, 2}) {
+            File out = new File(dir, "out" + threads);
+            ZipException failure = assertThrows(ZipException.class, () -> engine.extract(archive.getPath(),
+                    out.getPath(), new ExtractionOptions().setPassword(PASSWORD).setThreads(threads)));
+            assertTrue(failure.getMessage().startsWith("Authentication failed"), failure.getMessage());
+            assertFalse(new File(out, "a.txt").exists());
+        }
+        assertFalse(engine.verify(archive.getPath(), PASSWORD, 1, false).isOk());
+    }
+
+    private File encryptedArchive(int level) throws IOException {
+        File source = new File(dir, "plain");
+        source.mkdirs();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            text.append(i).append('\n');
+        }
+        write(new File(source, "a.txt"), text.toString().getBytes(StandardCharsets.US_ASCII));
+        write(new File(source, "b.txt"), "small".getBytes(StandardCharsets.US_ASCII));
+        File archive = new File(dir, "plain" + level + ".zip");
+        new ZipEngine(ZipListener.NONE).compress(source.getPath(), archive.getPath(),
+                new CompressionOptions().setPassword(PASSWORD).setLevel(level));
+        return archive;
+    }
+
+    private static byte[] pbkdf2(String password, String salt, int iterations, int length) throws Exception {
+        Mac prf = Mac.getInstance("HmacSHA1");
+        prf.init(new SecretKeySpec(password.getBytes(StandardCharsets.US_ASCII), "HmacSHA1"));
+        return WinZipAes.pbkdf2(prf, salt.getBytes(StandardCharsets.US_ASCII), iterations, length);
+    }
+
+    private static byte[] salt() {
+        byte[] salt = new byte[WinZipAes.SALT_LENGTH];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (byte) i;
+        }
+        return salt;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// ZIP64 sizes, offsets and entry counts, on a sparse file of 4.1 GiB and on
+// 70,000 small files. Each archive is checked by the engine's own verify
+// and read back with the JDK's ZipFile. Run with "gradle largeTest", which
+// gives the JVM a 256 MB heap.
+@Tag("large")
+class Zip64Test {
+    private static final long HUGE = 4_400_000_000L;
+    private static final int ENTRIES = 70_000;
+
+    private final ZipEngine engine = new ZipEngine(ZipListener.NONE);
+
+    @TempDir
+    File dir;
+
+    // Stored, so the archive is over 4 GiB too: the entry after the huge
+    // one and the central directory both start past the 32-bit offsets.
+    @Test
+    void storedEntryOver4GiB() throws IOException {
+        File source = hugeSource();
+        File archive = new File(dir, "stored.zip");
+        engine.compress(source.getPath(), archive.getPath(), new CompressionOptions().setLevel(0));
+        assertTrue(archive.length() > HUGE);
+        checkHugeArchive(archive);
+    }
+
+    // Deflated on two threads, so the huge file is compressed in chunks and
+    // only its sizes need ZIP64.
+    @Test
+    void deflatedEntryOver4GiB() throws IOException {
+        File source = hugeSource();
+        File archive = new File(dir, "deflated.zip");
+        engine.compress(source.getPath(), archive.getPath(),
+                new CompressionOptions().setLevel(1).setThreads(2));
+        checkHugeArchive(archive);
+    }
+
+    @Test
+    void moreThan65535Entries() throws IOException {
+        File source = new File(dir, "many");
+        for (int i = 0; i < ENTRIES; i++) {
+            File folder = new File(source, "d" + (i / 1000));
+            folder.mkdirs();
+            try (FileOutputStream out = new FileOutputStream(new File(folder, "f" + i + ".txt"))) {
+                out.write(Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        for (int threads : new int[] {0, 2}) {
+            File archive = new File(dir, "many-" + threads + ".zip");
+            engine.compress(source.getPath(), archive.getPath(), new CompressionOptions().setThreads(threads));
+            ZipEngine.VerifyResult result = engine.verify(archive.getPath(), null, 2, false);
+            assertTrue(result.isOk(), result.getSummary());
+
+            int files = 0;
+            try (ZipFile zip = new ZipFile(archive)) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    if (!e.nextElement().isDirectory()) {
+                        files++;
+                    }
+                }
+                assertEquals(files, result.getCheckedCount());
+                assertEquals("69999", read(zip, zip.getEntry("d69/f69999.txt")));
+            }
+            assertEquals(ENTRIES, files);
+        }
+    }
+
+    // A sparse file of zeros, which takes no disk space, followed in the
+    // archive by a small one.
+    private File hugeSource() throws IOException {
+        File source = new File(dir, "huge");
+        source.mkdirs();
+        try (RandomAccessFile file = new RandomAccessFile(new File(source, "a.bin"), "rw")) {
+            file.setLength(HUGE);
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(source, "b.txt"))) {
+            out.write("after the huge entry".getBytes(StandardCharsets.US_ASCII));
+        }
+        return source;
+    }
+
+    private void checkHugeArchive(File archive) throws IOException {
+        ZipEngine.VerifyResult result = engine.verify(archive.getPath(), null, 2, false);
+        assertTrue(result.isOk(), result.getSummary());
+        assertEquals(2, result.getCheckedCount());
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(2, zip.size());
+            assertEquals(HUGE, zip.getEntry("a.bin").getSize());
+            assertEquals("after the huge entry", read(zip, zip.getEntry("b.txt")));
+        }
+    }
+
+    private static String read(ZipFile zip, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}